@@ -31,33 +31,20 @@ package de.intarsys.tools.cache;
 
 import de.intarsys.tools.component.ISynchronizable;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A very simple cache implementation. The cache supports "null" entries.
  * <p>
  * <p>
- * The cache strategy depends on the samples taken in the CacheEntry.
+ * The cache is thread safe, the replacement strategy is implemented by a
+ * {@link ConcurrentCache}.
  * </p>
  */
 public class Cache<T> implements ISynchronizable {
 
   /**
-   * Map for associative access to elements
-   */
-  private final Map<Object, CacheEntry<T>> map = new HashMap<Object, CacheEntry<T>>();
-
-  /**
-   * Collection for sorted access according to cache strategy
-   */
-  private final CacheEntry<T>[] elements;
-
-  /**
-   * counter for currently available cache elements
+   * The cache engine holding the elements
    */
-  private int ptr = 0;
+  private final ConcurrentCache<T> engine;
 
   /**
    * Create a cache with a maximum size of size elements.
@@ -66,18 +53,26 @@ public class Cache<T> implements ISynchronizable {
    */
   public Cache(int size) {
     super();
-    elements = new CacheEntry[size];
+    engine = new ConcurrentCache<T>(size);
+  }
+
+  /**
+   * Create a cache where the sum of the entry weights as computed by
+   * <code>weigher</code> does not exceed <code>maximumWeight</code>.
+   *
+   * @param maximumWeight The maximum weight of the elements held in the cache.
+   * @param weigher       The weigher for the elements.
+   */
+  public Cache(long maximumWeight, IWeigher<? super T> weigher) {
+    super();
+    engine = new ConcurrentCache<T>(maximumWeight, weigher);
   }
 
   /**
    * Clear all entries in the cache.
    */
-  synchronized public void clear() {
-    map.clear();
-    for (int i = 0; i < ptr; i++) {
-      elements[i] = null;
-    }
-    ptr = 0;
+  public void clear() {
+    engine.clear();
   }
 
   /**
@@ -86,23 +81,8 @@ public class Cache<T> implements ISynchronizable {
    * @param key The key to be used for looking up the cache.
    * @return The object with the key "key" or null.
    */
-  synchronized public T get(Object key) {
-    CacheEntry<T> result = map.get(key);
-    if (result != null) {
-      if (result.getValue() instanceof ISynchronizable) {
-        ISynchronizable synch = (ISynchronizable) result.getValue();
-        if (synch.isOutOfSynch()) {
-          remove(key);
-          result = null;
-        }
-      }
-    }
-    if (result != null) {
-      result.touch();
-      return result.getValue();
-    } else {
-      return null;
-    }
+  public T get(Object key) {
+    return engine.get(key);
   }
 
   /*
@@ -120,13 +100,8 @@ public class Cache<T> implements ISynchronizable {
    * @param key   The key to use for storing the object
    * @param value The value to put in the cache.
    */
-  synchronized public void put(Object key, T value) {
-    CacheEntry<T> entry = new CacheEntry<T>(key, value);
-    if (ptr >= elements.length) {
-      removeStrategy();
-    }
-    elements[ptr++] = entry;
-    map.put(key, entry);
+  public void put(Object key, T value) {
+    engine.put(key, value);
   }
 
   /**
@@ -134,18 +109,8 @@ public class Cache<T> implements ISynchronizable {
    *
    * @param key
    */
-  synchronized public void remove(Object key) {
-    CacheEntry<T> entry = map.remove(key);
-    for (int i = 0; i < ptr; i++) {
-      CacheEntry<T> current = elements[i];
-      if (current == entry) {
-        ptr--;
-        if (i < ptr) {
-          System.arraycopy(elements, i + 1, elements, i, ptr - i);
-        }
-        elements[ptr] = null;
-      }
-    }
+  public void remove(Object key) {
+    engine.remove(key);
   }
 
   /**
@@ -153,11 +118,7 @@ public class Cache<T> implements ISynchronizable {
    * removed.
    */
   protected void removeStrategy() {
-    Arrays.sort(elements, 0, ptr);
-    --ptr;
-    CacheEntry<T> entry = elements[ptr];
-    map.remove(entry.getKey());
-    elements[ptr] = null;
+    engine.evictVictim();
   }
 
   /**
@@ -165,8 +126,8 @@ public class Cache<T> implements ISynchronizable {
    *
    * @return The actual size of the cache.
    */
-  synchronized public int size() {
-    return ptr;
+  public int size() {
+    return engine.size();
   }
 
   /*
@@ -174,12 +135,7 @@ public class Cache<T> implements ISynchronizable {
    *
    * @see de.intarsys.tools.component.ISynchronizable#synch()
    */
-  synchronized public void synch() {
-    for (int i = 0; i < ptr; i++) {
-      CacheEntry<T> element = elements[i];
-      if (element.getValue() instanceof ISynchronizable) {
-        ((ISynchronizable) element.getValue()).synch();
-      }
-    }
+  public void synch() {
+    engine.synch();
   }
 }
@@ -40,7 +40,10 @@ package de.intarsys.tools.cache;
  * <p>
  * This implementation supports a simple "most recently used" strategy.
  * </p>
+ *
+ * @deprecated {@link Cache} no longer uses entry objects
  */
+@Deprecated
 public class CacheEntry<T> implements Comparable {
   /**
    * remember the last used sample to ensure no two samples are the same
@@ -0,0 +1,739 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.cache;
+
+import de.intarsys.tools.component.ISynchronizable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent cache implementation with a "W-TinyLFU" replacement strategy.
+ * The cache supports "null" keys and values.
+ * <p>
+ * Lookup is done in a {@link ConcurrentHashMap} without any locking. Accesses
+ * are recorded in a lossy, striped buffer and replayed against the
+ * replacement policy when the buffer fills up or on the next write. Writes
+ * and the policy maintenance are guarded by a single lock, all policy
+ * operations are O(1).
+ * <p>
+ * The policy consists of a small LRU "window" that absorbs bursts of new
+ * entries and a segmented LRU "main" space (probation and protected). An entry
+ * leaving the window is only admitted to the main space when its estimated
+ * access frequency (see {@link FrequencySketch}) is higher than that of the
+ * entry that would be evicted in turn.
+ * <p>
+ * The cache is bounded either by the number of entries or, when created with
+ * an {@link IWeigher}, by the sum of the entry weights. Evicted entries can be
+ * observed using an {@link IEvictionListener}.
+ * <p>
+ * A value implementing {@link ISynchronizable} is checked on read and dropped
+ * if out of synch.
+ */
+public class ConcurrentCache<T> implements ISynchronizable {
+
+  /**
+   * A cache entry along with its position in the replacement policy.
+   * <p>
+   * The policy fields are guarded by the eviction lock.
+   */
+  protected static class Node<T> {
+
+    private final Object key;
+
+    private final T value;
+
+    private final int weight;
+
+    private int queue = QUEUE_DEAD;
+
+    private Node<T> prev;
+
+    private Node<T> next;
+
+    protected Node(Object key, T value, int weight) {
+      super();
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+    }
+
+    public Object getKey() {
+      return key;
+    }
+
+    public T getValue() {
+      return value;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+  }
+
+  /**
+   * A doubly linked list of nodes in access order, least recently used first.
+   */
+  protected static class NodeList<T> {
+
+    private final Node<T> sentinel = new Node<T>(null, null, 0);
+
+    protected NodeList() {
+      super();
+      sentinel.prev = sentinel;
+      sentinel.next = sentinel;
+    }
+
+    public void addLast(Node<T> node) {
+      node.prev = sentinel.prev;
+      node.next = sentinel;
+      sentinel.prev.next = node;
+      sentinel.prev = node;
+    }
+
+    public Node<T> first() {
+      return sentinel.next == sentinel ? null : sentinel.next;
+    }
+
+    public Node<T> last() {
+      return sentinel.prev == sentinel ? null : sentinel.prev;
+    }
+
+    public void moveToLast(Node<T> node) {
+      if (sentinel.prev != node) {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    public void remove(Node<T> node) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+    }
+
+    public Node<T> removeFirst() {
+      Node<T> node = first();
+      if (node != null) {
+        remove(node);
+      }
+      return node;
+    }
+  }
+
+  protected static final int QUEUE_DEAD = -1;
+
+  protected static final int QUEUE_WINDOW = 0;
+
+  protected static final int QUEUE_PROBATION = 1;
+
+  protected static final int QUEUE_PROTECTED = 2;
+
+  /**
+   * The size of a single read buffer stripe, must be a power of 2
+   */
+  private static final int READ_BUFFER_SIZE = 32;
+
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+  /**
+   * The number of pending reads in a stripe that triggers a drain
+   */
+  private static final int READ_BUFFER_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+  private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(Runtime
+      .getRuntime().availableProcessors());
+
+  /**
+   * Replacement for the "null" key, not supported by the underlying map
+   */
+  private static final Object NULL_KEY = new Object();
+
+  /**
+   * The initial capacity of the frequency sketch, it is grown along with the
+   * number of entries.
+   */
+  private static final int SKETCH_INITIAL_CAPACITY = 256;
+
+  protected static int ceilingPowerOfTwo(int x) {
+    int result = 1;
+    while (result < x && result < (1 << 30)) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  /**
+   * Map for associative access to elements
+   */
+  private final ConcurrentHashMap<Object, Node<T>> map;
+
+  /**
+   * Lock guarding the policy state
+   */
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private final FrequencySketch sketch;
+
+  private final NodeList<T> window = new NodeList<T>();
+
+  private final NodeList<T> probation = new NodeList<T>();
+
+  private final NodeList<T> protectedList = new NodeList<T>();
+
+  /**
+   * The maximum weight of the elements held in the cache
+   */
+  private final long maximumWeight;
+
+  private final long windowMaximum;
+
+  private final long protectedMaximum;
+
+  /**
+   * The weigher for the entries, null if all entries weigh 1
+   */
+  private final IWeigher<? super T> weigher;
+
+  private long weightedSize;
+
+  private long windowWeightedSize;
+
+  private long protectedWeightedSize;
+
+  private int sketchCapacity;
+
+  private IEvictionListener<? super T> evictionListener;
+
+  /**
+   * The evicted nodes not yet passed to the eviction listener
+   */
+  private final ConcurrentLinkedQueue<Node<T>> evicted = new ConcurrentLinkedQueue<Node<T>>();
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  private final AtomicReferenceArray<Node<T>> readBuffer;
+
+  /**
+   * Number of reads offered per stripe
+   */
+  private final AtomicLongArray readBufferWrites;
+
+  /**
+   * Number of reads consumed per stripe, written under the eviction lock only
+   */
+  private final AtomicLongArray readBufferReads;
+
+  private final Random random = new Random();
+
+  /**
+   * Create a cache with a maximum size of size elements.
+   *
+   * @param size The maximum number of elements held in the cache.
+   */
+  public ConcurrentCache(int size) {
+    this(size, null);
+  }
+
+  /**
+   * Create a cache where the sum of the entry weights as computed by
+   * <code>weigher</code> does not exceed <code>maximumWeight</code>.
+   *
+   * @param maximumWeight The maximum weight of the elements held in the cache.
+   * @param weigher       The weigher for the elements or null if each element
+   *                      weighs 1.
+   */
+  public ConcurrentCache(long maximumWeight, IWeigher<? super T> weigher) {
+    super();
+    if (maximumWeight < 0) {
+      throw new IllegalArgumentException("size must not be negative");
+    }
+    this.maximumWeight = maximumWeight;
+    this.weigher = weigher;
+    this.windowMaximum = Math.min(maximumWeight,
+        Math.max(1, maximumWeight / 100));
+    this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * 0.8);
+    int capacity = (int) Math.min(maximumWeight, SKETCH_INITIAL_CAPACITY);
+    this.map = new ConcurrentHashMap<Object, Node<T>>(capacity);
+    this.sketch = new FrequencySketch(capacity);
+    this.sketchCapacity = capacity;
+    this.readBuffer = new AtomicReferenceArray<Node<T>>(READ_BUFFER_STRIPES
+        * READ_BUFFER_SIZE);
+    this.readBufferWrites = new AtomicLongArray(READ_BUFFER_STRIPES);
+    this.readBufferReads = new AtomicLongArray(READ_BUFFER_STRIPES);
+  }
+
+  /**
+   * <code>true</code> if <code>candidate</code> should replace
+   * <code>victim</code>.
+   */
+  protected boolean admit(Node<T> candidate, Node<T> victim) {
+    int candidateFrequency = sketch.frequency(candidate.key);
+    int victimFrequency = sketch.frequency(victim.key);
+    if (candidateFrequency > victimFrequency) {
+      return true;
+    }
+    if (candidateFrequency <= 5) {
+      return false;
+    }
+    // admit a warm candidate now and then, this defends against an attacker
+    // that keeps the victim artificially "hot"
+    return (random.nextInt() & 127) == 0;
+  }
+
+  /**
+   * Clear all entries in the cache.
+   */
+  public void clear() {
+    evictionLock.lock();
+    try {
+      Node<T> node;
+      while ((node = window.removeFirst()) != null) {
+        node.queue = QUEUE_DEAD;
+      }
+      while ((node = probation.removeFirst()) != null) {
+        node.queue = QUEUE_DEAD;
+      }
+      while ((node = protectedList.removeFirst()) != null) {
+        node.queue = QUEUE_DEAD;
+      }
+      map.clear();
+      weightedSize = 0;
+      windowWeightedSize = 0;
+      protectedWeightedSize = 0;
+      drainReadBuffer();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Replay the recorded reads against the policy.
+   * <p>
+   * Must be called with the eviction lock held.
+   */
+  protected void drainReadBuffer() {
+    for (int stripe = 0; stripe < READ_BUFFER_STRIPES; stripe++) {
+      long reads = readBufferReads.get(stripe);
+      long writes = readBufferWrites.get(stripe);
+      int offset = stripe * READ_BUFFER_SIZE;
+      while (reads < writes) {
+        int index = offset + (int) (reads & READ_BUFFER_MASK);
+        Node<T> node = readBuffer.get(index);
+        if (node == null) {
+          // slot claimed but not yet published
+          break;
+        }
+        readBuffer.lazySet(index, null);
+        onAccess(node);
+        reads++;
+      }
+      readBufferReads.lazySet(stripe, reads);
+    }
+  }
+
+  /**
+   * Evict entries until the cache is within its size bound.
+   * <p>
+   * Must be called with the eviction lock held.
+   */
+  protected void evict() {
+    while (windowWeightedSize > windowMaximum) {
+      Node<T> node = window.removeFirst();
+      windowWeightedSize -= node.weight;
+      node.queue = QUEUE_PROBATION;
+      probation.addLast(node);
+    }
+    while (weightedSize > maximumWeight) {
+      Node<T> victim = probation.first();
+      Node<T> candidate = probation.last();
+      if (victim == null) {
+        victim = protectedList.first();
+        if (victim == null) {
+          victim = window.first();
+        }
+        evictNode(victim);
+      } else if (candidate != victim && admit(candidate, victim)) {
+        evictNode(victim);
+      } else {
+        evictNode(candidate);
+      }
+    }
+  }
+
+  protected void evictNode(Node<T> node) {
+    unlink(node);
+    map.remove(maskKey(node.key), node);
+    evictionCount.incrementAndGet();
+    if (evictionListener != null) {
+      evicted.add(node);
+    }
+  }
+
+  /**
+   * Remove the "least valuable" entry from the cache.
+   */
+  void evictVictim() {
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      Node<T> victim = probation.first();
+      if (victim == null) {
+        victim = window.first();
+      }
+      if (victim == null) {
+        victim = protectedList.first();
+      }
+      if (victim != null) {
+        evictNode(victim);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+    notifyEvicted();
+  }
+
+  /**
+   * The object with the key "key" or null.
+   *
+   * @param key The key to be used for looking up the cache.
+   * @return The object with the key "key" or null.
+   */
+  public T get(Object key) {
+    Object mapKey = maskKey(key);
+    Node<T> node = map.get(mapKey);
+    if (node == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    if (node.value instanceof ISynchronizable) {
+      if (((ISynchronizable) node.value).isOutOfSynch()) {
+        removeNode(mapKey, node);
+        missCount.incrementAndGet();
+        return null;
+      }
+    }
+    hitCount.incrementAndGet();
+    recordRead(node);
+    return node.value;
+  }
+
+  /**
+   * The number of entries evicted to keep within the bound.
+   *
+   * @return The number of entries evicted to keep within the bound.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  public IEvictionListener<? super T> getEvictionListener() {
+    return evictionListener;
+  }
+
+  /**
+   * The number of lookups that found an entry.
+   *
+   * @return The number of lookups that found an entry.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * The maximum weight of the elements held in the cache. This is the
+   * maximum number of elements if no {@link IWeigher} is used.
+   *
+   * @return The maximum weight of the elements held in the cache.
+   */
+  public long getMaximumWeight() {
+    return maximumWeight;
+  }
+
+  /**
+   * The number of lookups that found no entry.
+   *
+   * @return The number of lookups that found no entry.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * The sum of the weights of the elements held in the cache.
+   *
+   * @return The sum of the weights of the elements held in the cache.
+   */
+  public long getWeightedSize() {
+    evictionLock.lock();
+    try {
+      return weightedSize;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.component.ISynchronizable#isOutOfSynch()
+   */
+  public boolean isOutOfSynch() {
+    return false;
+  }
+
+  protected Object maskKey(Object key) {
+    return key == null ? NULL_KEY : key;
+  }
+
+  /**
+   * Pass the evicted entries to the listener. This is done outside the
+   * eviction lock.
+   */
+  protected void notifyEvicted() {
+    Node<T> node;
+    while ((node = evicted.poll()) != null) {
+      IEvictionListener<? super T> listener = evictionListener;
+      if (listener != null) {
+        listener.onEvicted(node.key, node.value);
+      }
+    }
+  }
+
+  /**
+   * Update the policy for a read access to <code>node</code>.
+   * <p>
+   * Must be called with the eviction lock held.
+   */
+  protected void onAccess(Node<T> node) {
+    if (node.queue == QUEUE_DEAD) {
+      return;
+    }
+    sketch.increment(node.key);
+    if (node.queue == QUEUE_WINDOW) {
+      window.moveToLast(node);
+    } else if (node.queue == QUEUE_PROBATION) {
+      probation.remove(node);
+      node.queue = QUEUE_PROTECTED;
+      protectedList.addLast(node);
+      protectedWeightedSize += node.weight;
+      while (protectedWeightedSize > protectedMaximum) {
+        Node<T> demoted = protectedList.removeFirst();
+        protectedWeightedSize -= demoted.weight;
+        demoted.queue = QUEUE_PROBATION;
+        probation.addLast(demoted);
+      }
+    } else {
+      protectedList.moveToLast(node);
+    }
+  }
+
+  /**
+   * Store the object "value" with the key "key" in the cache.
+   *
+   * @param key   The key to use for storing the object
+   * @param value The value to put in the cache.
+   */
+  public void put(Object key, T value) {
+    int weight = weigher == null ? 1 : weigher.weigh(key, value);
+    if (weight < 0) {
+      throw new IllegalArgumentException("weight must not be negative");
+    }
+    Node<T> node = new Node<T>(key, value, weight);
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      Node<T> old = map.put(maskKey(key), node);
+      if (old != null) {
+        unlink(old);
+      }
+      updateSketchCapacity();
+      sketch.increment(key);
+      node.queue = QUEUE_WINDOW;
+      window.addLast(node);
+      windowWeightedSize += weight;
+      weightedSize += weight;
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+    notifyEvicted();
+  }
+
+  /**
+   * Record a read access to node. The policy is updated in batches, when a
+   * buffer stripe fills up.
+   */
+  protected void recordRead(Node<T> node) {
+    int stripe = (int) Thread.currentThread().getId()
+        & (READ_BUFFER_STRIPES - 1);
+    long reads = readBufferReads.get(stripe);
+    long writes = readBufferWrites.get(stripe);
+    long pending = writes - reads;
+    if (pending < READ_BUFFER_SIZE
+        && readBufferWrites.compareAndSet(stripe, writes, writes + 1)) {
+      int index = stripe * READ_BUFFER_SIZE + (int) (writes & READ_BUFFER_MASK);
+      readBuffer.lazySet(index, node);
+      pending++;
+    }
+    // a lost read is acceptable, the policy is only an approximation
+    if (pending >= READ_BUFFER_THRESHOLD && evictionLock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Remove an object from the cache.
+   *
+   * @param key
+   */
+  public void remove(Object key) {
+    evictionLock.lock();
+    try {
+      Node<T> node = map.remove(maskKey(key));
+      if (node != null) {
+        unlink(node);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Remove <code>node</code> if it is still the current mapping for
+   * <code>mapKey</code>.
+   */
+  protected void removeNode(Object mapKey, Node<T> node) {
+    evictionLock.lock();
+    try {
+      if (map.remove(mapKey, node)) {
+        unlink(node);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Set the listener notified about entries dropped to keep within the bound.
+   *
+   * @param evictionListener
+   */
+  public void setEvictionListener(IEvictionListener<? super T> evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * The actual size of the cache.
+   *
+   * @return The actual size of the cache.
+   */
+  public int size() {
+    return map.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.component.ISynchronizable#synch()
+   */
+  public void synch() {
+    for (Iterator<Node<T>> it = map.values().iterator(); it.hasNext();) {
+      Node<T> node = it.next();
+      if (node.value instanceof ISynchronizable) {
+        ((ISynchronizable) node.value).synch();
+      }
+    }
+  }
+
+  /**
+   * A snapshot of the values currently held in the cache.
+   *
+   * @return A snapshot of the values currently held in the cache.
+   */
+  public List<T> values() {
+    List<T> result = new ArrayList<T>(map.size());
+    for (Iterator<Node<T>> it = map.values().iterator(); it.hasNext();) {
+      result.add(it.next().value);
+    }
+    return result;
+  }
+
+  /**
+   * Remove node from the policy.
+   * <p>
+   * Must be called with the eviction lock held.
+   */
+  protected void unlink(Node<T> node) {
+    if (node.queue == QUEUE_WINDOW) {
+      window.remove(node);
+      windowWeightedSize -= node.weight;
+    } else if (node.queue == QUEUE_PROBATION) {
+      probation.remove(node);
+    } else if (node.queue == QUEUE_PROTECTED) {
+      protectedList.remove(node);
+      protectedWeightedSize -= node.weight;
+    } else {
+      return;
+    }
+    node.queue = QUEUE_DEAD;
+    weightedSize -= node.weight;
+  }
+
+  /**
+   * Grow the frequency sketch along with the number of entries.
+   * <p>
+   * Must be called with the eviction lock held.
+   */
+  protected void updateSketchCapacity() {
+    int entries = map.size();
+    if (entries > sketchCapacity && sketchCapacity < (1 << 24)) {
+      sketchCapacity = Math.min(1 << 24, Math.max(entries, sketchCapacity * 2));
+      sketch.ensureCapacity(sketchCapacity);
+    }
+  }
+}
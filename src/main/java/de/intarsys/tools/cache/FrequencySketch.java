@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.cache;
+
+/**
+ * A probabilistic estimate of the popularity of keys within a recent time
+ * window.
+ * <p>
+ * This is a count-min sketch with four 4 bit counters per key, packed into
+ * <code>long</code> words. When the number of recorded events reaches the
+ * sample size, all counters are halved ("aging"), so that the sketch reflects
+ * recent history only. The sketch is used by {@link ConcurrentCache} to decide
+ * whether a new entry should be admitted at the cost of an existing one.
+ * <p>
+ * This object is not thread safe, callers must synchronize access.
+ */
+public class FrequencySketch {
+
+  /**
+   * The seeds for the four hash functions
+   */
+  private static final long[] SEEDS = new long[] { 0xc3a5c85c97cb3127L,
+      0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /**
+   * The counters, each long holding 16 4 bit counters
+   */
+  private long[] table;
+
+  /**
+   * Mask to compute the table index from a hash
+   */
+  private int tableMask;
+
+  /**
+   * The number of events until the counters are halved
+   */
+  private int sampleSize;
+
+  /**
+   * The number of events recorded since the last reset
+   */
+  private int size;
+
+  /**
+   * Create a sketch suitable for a cache with <code>maximumSize</code>
+   * entries.
+   *
+   * @param maximumSize The expected maximum number of entries.
+   */
+  public FrequencySketch(long maximumSize) {
+    super();
+    ensureCapacity(maximumSize);
+  }
+
+  /**
+   * Reallocate the sketch to support <code>maximumSize</code> entries. All
+   * frequency information is lost.
+   *
+   * @param maximumSize The expected maximum number of entries.
+   */
+  public void ensureCapacity(long maximumSize) {
+    int maximum = (int) Math.min(Math.max(maximumSize, 1), 1 << 30);
+    int length = Integer.highestOneBit(maximum - 1) << 1;
+    if (length <= 0) {
+      length = 1;
+    }
+    table = new long[length];
+    tableMask = Math.max(0, length - 1);
+    sampleSize = 10 * maximum;
+    if (sampleSize <= 0) {
+      sampleSize = Integer.MAX_VALUE;
+    }
+    size = 0;
+  }
+
+  /**
+   * The estimated number of occurrences of <code>key</code>, at most 15.
+   *
+   * @param key The key
+   * @return The estimated number of occurrences of <code>key</code>
+   */
+  public int frequency(Object key) {
+    int hash = spread(key == null ? 0 : key.hashCode());
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int offset = offsetOf(hash, i);
+      int count = (int) ((table[index] >>> offset) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Record an occurrence of <code>key</code>. When the sample size is reached
+   * all counters are aged.
+   *
+   * @param key The key
+   */
+  public void increment(Object key) {
+    int hash = spread(key == null ? 0 : key.hashCode());
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), offsetOf(hash, i));
+    }
+    if (added && (++size >= sampleSize)) {
+      reset();
+    }
+  }
+
+  protected boolean incrementAt(int index, int offset) {
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask) {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  protected int indexOf(int hash, int i) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  protected int offsetOf(int hash, int i) {
+    // 16 counters per word, each hash function selects one out of its own 4
+    int slot = (i << 2) + ((hash >>> (i << 3)) & 3);
+    return slot << 2;
+  }
+
+  /**
+   * Halve all counters.
+   */
+  protected void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = (size >>> 1) - (odd >>> 2);
+  }
+
+  protected int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
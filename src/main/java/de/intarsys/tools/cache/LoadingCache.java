@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.cache;
+
+import de.intarsys.tools.component.ISynchronizable;
+import de.intarsys.tools.concurrent.DaemonThreadFactory;
+import de.intarsys.tools.functor.Args;
+import de.intarsys.tools.functor.FunctorCall;
+import de.intarsys.tools.functor.FunctorInvocationException;
+import de.intarsys.tools.functor.IFunctor;
+import de.intarsys.tools.functor.IFunctorCall;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A cache that computes missing values on demand.
+ * <p>
+ * A value is computed by an {@link IFunctor} "loader", the key is passed as
+ * the argument {@link #ARG_KEY} (and at index 0). When many threads miss on
+ * the same key concurrently, the loader is performed only once and all
+ * callers wait for its result ("single flight").
+ * <p>
+ * When a "refresh after write" interval is set, a value older than this
+ * interval is still served while a single reload is performed in the
+ * background. The same applies to a value implementing
+ * {@link ISynchronizable} that reports to be out of synch.
+ */
+public class LoadingCache<T> implements ISynchronizable {
+
+  /**
+   * A cached value along with its load time.
+   */
+  protected static class LoadedValue<T> {
+
+    private final T value;
+
+    private final long writeTime;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    protected LoadedValue(T value, long writeTime) {
+      super();
+      this.value = value;
+      this.writeTime = writeTime;
+    }
+
+    public T getValue() {
+      return value;
+    }
+
+    public long getWriteTime() {
+      return writeTime;
+    }
+  }
+
+  /**
+   * The name of the argument holding the key in the loader call
+   */
+  public static final String ARG_KEY = "key";
+
+  private static ExecutorService DEFAULT_EXECUTOR;
+
+  /**
+   * Replacement for the "null" key, not supported by the underlying map
+   */
+  private static final Object NULL_KEY = new Object();
+
+  synchronized protected static ExecutorService getDefaultExecutor() {
+    if (DEFAULT_EXECUTOR == null) {
+      DEFAULT_EXECUTOR = Executors
+          .newCachedThreadPool(new DaemonThreadFactory("cache loader"));
+    }
+    return DEFAULT_EXECUTOR;
+  }
+
+  private final ConcurrentCache<LoadedValue<T>> cache;
+
+  /**
+   * The loads currently in progress
+   */
+  private final ConcurrentHashMap<Object, FutureTask<T>> loading = new ConcurrentHashMap<Object, FutureTask<T>>();
+
+  /**
+   * The time in milliseconds after which a value is reloaded, 0 if never.
+   */
+  private long refreshAfterWrite = 0;
+
+  private Executor executor;
+
+  /**
+   * Create a cache with a maximum size of size elements.
+   *
+   * @param size The maximum number of elements held in the cache.
+   */
+  public LoadingCache(int size) {
+    super();
+    this.cache = new ConcurrentCache<LoadedValue<T>>(size);
+  }
+
+  /**
+   * Clear all entries in the cache. Loads currently in progress are not
+   * affected.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  protected IFunctorCall createCall(Object key) {
+    Args args = new Args();
+    args.put(ARG_KEY, key);
+    return new FunctorCall(this, args);
+  }
+
+  /**
+   * A task performing <code>loader</code> for <code>key</code> and storing
+   * the result in the cache.
+   *
+   * @param key
+   * @param loader
+   * @param reuse  If <code>true</code>, a value already in the cache is
+   *               returned instead of performing the loader.
+   * @return The new task.
+   */
+  protected FutureTask<T> createLoadTask(final Object key,
+      final IFunctor<T> loader, final boolean reuse) {
+    return new FutureTask<T>(new Callable<T>() {
+      public T call() throws Exception {
+        if (reuse) {
+          // recheck, a load may have completed since the caller's lookup
+          LoadedValue<T> loaded = cache.get(key);
+          if (loaded != null) {
+            return loaded.getValue();
+          }
+        }
+        T value = loader.perform(createCall(key));
+        cache.put(key, new LoadedValue<T>(value, System.currentTimeMillis()));
+        return value;
+      }
+    });
+  }
+
+  /**
+   * The object with the key "key". If not yet available in the cache, the
+   * object is created by performing <code>loader</code>.
+   *
+   * @param key    The key to be used for looking up the cache.
+   * @param loader The functor creating a value for <code>key</code>
+   * @return The object with the key "key".
+   * @throws FunctorInvocationException
+   */
+  public T get(Object key, IFunctor<T> loader)
+      throws FunctorInvocationException {
+    LoadedValue<T> loaded = cache.get(key);
+    if (loaded != null) {
+      if (isRefreshRequired(loaded)) {
+        refreshAsync(key, loaded, loader);
+      }
+      return loaded.getValue();
+    }
+    return load(key, loader);
+  }
+
+  public Executor getExecutor() {
+    if (executor == null) {
+      return getDefaultExecutor();
+    }
+    return executor;
+  }
+
+  /**
+   * The object with the key "key" or null. No value is loaded.
+   *
+   * @param key The key to be used for looking up the cache.
+   * @return The object with the key "key" or null.
+   */
+  public T getIfPresent(Object key) {
+    LoadedValue<T> loaded = cache.get(key);
+    if (loaded == null) {
+      return null;
+    }
+    return loaded.getValue();
+  }
+
+  public long getRefreshAfterWrite() {
+    return refreshAfterWrite;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.component.ISynchronizable#isOutOfSynch()
+   */
+  public boolean isOutOfSynch() {
+    return false;
+  }
+
+  protected boolean isRefreshRequired(LoadedValue<T> loaded) {
+    if (refreshAfterWrite > 0
+        && System.currentTimeMillis() - loaded.getWriteTime() >= refreshAfterWrite) {
+      return true;
+    }
+    if (loaded.getValue() instanceof ISynchronizable) {
+      return ((ISynchronizable) loaded.getValue()).isOutOfSynch();
+    }
+    return false;
+  }
+
+  /**
+   * Load the value for key, or join a load already in progress.
+   */
+  protected T load(Object key, IFunctor<T> loader)
+      throws FunctorInvocationException {
+    Object mapKey = maskKey(key);
+    FutureTask<T> task = loading.get(mapKey);
+    if (task == null) {
+      FutureTask<T> newTask = createLoadTask(key, loader, true);
+      task = loading.putIfAbsent(mapKey, newTask);
+      if (task == null) {
+        task = newTask;
+        try {
+          task.run();
+        } finally {
+          loading.remove(mapKey, task);
+        }
+      }
+    }
+    return waitFor(task);
+  }
+
+  protected Object maskKey(Object key) {
+    return key == null ? NULL_KEY : key;
+  }
+
+  /**
+   * Store the object "value" with the key "key" in the cache.
+   *
+   * @param key   The key to use for storing the object
+   * @param value The value to put in the cache.
+   */
+  public void put(Object key, T value) {
+    cache.put(key, new LoadedValue<T>(value, System.currentTimeMillis()));
+  }
+
+  /**
+   * Reload the value for <code>key</code> in the background. The current
+   * value is served until the reload completes. A failed reload leaves the
+   * current value in place.
+   *
+   * @param key    The key to be reloaded.
+   * @param loader The functor creating a value for <code>key</code>
+   */
+  public void refresh(Object key, IFunctor<T> loader) {
+    refresh(key, loader, null);
+  }
+
+  /**
+   * Reload the value for <code>key</code> in the background. When the
+   * reload is finished, failed or not started at all, the refresh mark of
+   * <code>loaded</code> is cleared.
+   *
+   * @param key    The key to be reloaded.
+   * @param loader The functor creating a value for <code>key</code>
+   * @param loaded The value to be replaced, may be null.
+   */
+  protected void refresh(Object key, IFunctor<T> loader,
+      final LoadedValue<T> loaded) {
+    final Object mapKey = maskKey(key);
+    final FutureTask<T> task = createLoadTask(key, loader, false);
+    if (loading.putIfAbsent(mapKey, task) != null) {
+      // load already in progress
+      if (loaded != null) {
+        loaded.refreshing.set(false);
+      }
+      return;
+    }
+    boolean scheduled = false;
+    try {
+      getExecutor().execute(new Runnable() {
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            loading.remove(mapKey, task);
+            if (loaded != null) {
+              loaded.refreshing.set(false);
+            }
+          }
+        }
+      });
+      scheduled = true;
+    } finally {
+      if (!scheduled) {
+        loading.remove(mapKey, task);
+        if (loaded != null) {
+          loaded.refreshing.set(false);
+        }
+      }
+    }
+  }
+
+  protected void refreshAsync(Object key, LoadedValue<T> loaded,
+      IFunctor<T> loader) {
+    if (!loaded.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      refresh(key, loader, loaded);
+    } catch (RuntimeException e) {
+      // rejected, try again on next access
+    }
+  }
+
+  /**
+   * Remove an object from the cache.
+   *
+   * @param key
+   */
+  public void remove(Object key) {
+    cache.remove(key);
+  }
+
+  /**
+   * Set the executor for background reloads. By default a shared pool of
+   * daemon threads is used.
+   *
+   * @param executor
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Set the time in milliseconds after which a value is reloaded in the
+   * background on access, 0 to disable.
+   *
+   * @param refreshAfterWrite
+   */
+  public void setRefreshAfterWrite(long refreshAfterWrite) {
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  /**
+   * The actual size of the cache.
+   *
+   * @return The actual size of the cache.
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.component.ISynchronizable#synch()
+   */
+  public void synch() {
+    for (Iterator<LoadedValue<T>> it = cache.values().iterator(); it.hasNext();) {
+      T value = it.next().getValue();
+      if (value instanceof ISynchronizable) {
+        ((ISynchronizable) value).synch();
+      }
+    }
+  }
+
+  protected T waitFor(FutureTask<T> task) throws FunctorInvocationException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FunctorInvocationException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FunctorInvocationException) {
+        throw (FunctorInvocationException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new FunctorInvocationException(cause);
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded store for <code>byte[]</code> payloads outside the java heap.
+ * <p>
+ * The payloads are copied to fixed size blocks in "slabs", either direct
+ * {@link ByteBuffer} instances or memory mapped regions of a file. As only the
+ * block indices are held on the heap, the payload does not add to the garbage
+ * collector load. When the store runs out of blocks, the least recently used
+ * payloads are dropped.
+ * <p>
+ * This object is thread safe.
+ */
+public class OffHeapByteStore {
+
+  /**
+   * The location of a payload.
+   */
+  protected static class Extent {
+
+    private final int[] blocks;
+
+    private final int length;
+
+    protected Extent(int[] blocks, int length) {
+      super();
+      this.blocks = blocks;
+      this.length = length;
+    }
+  }
+
+  public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+  public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+  private final int blockSize;
+
+  private final int blocksPerSlab;
+
+  private final int totalBlocks;
+
+  private final ByteBuffer[] slabs;
+
+  /**
+   * The stack of free blocks
+   */
+  private final int[] freeBlocks;
+
+  private int freePtr = 0;
+
+  /**
+   * The next block never used before
+   */
+  private int nextBlock = 0;
+
+  private final Map<Object, Extent> entries = new LinkedHashMap<Object, Extent>(
+      16, 0.75f, true);
+
+  /**
+   * The file backing the slabs or null
+   */
+  private final File file;
+
+  private RandomAccessFile randomAccessFile;
+
+  private long hitCount;
+
+  private long missCount;
+
+  private long evictionCount;
+
+  private boolean closed = false;
+
+  /**
+   * Create a store in direct buffers holding at most
+   * <code>capacity</code> bytes.
+   *
+   * @param capacity The capacity in bytes
+   */
+  public OffHeapByteStore(long capacity) {
+    this(capacity, DEFAULT_BLOCK_SIZE, DEFAULT_SLAB_SIZE, null);
+  }
+
+  /**
+   * Create a store holding at most <code>capacity</code> bytes.
+   * <p>
+   * The slabs are memory mapped regions of <code>file</code> or direct
+   * buffers if <code>file</code> is null.
+   *
+   * @param capacity  The capacity in bytes
+   * @param blockSize The allocation unit in bytes
+   * @param slabSize  The size of a single slab in bytes
+   * @param file      The file backing the slabs or null.
+   */
+  public OffHeapByteStore(long capacity, int blockSize, int slabSize, File file) {
+    super();
+    if (blockSize <= 0 || slabSize < blockSize) {
+      throw new IllegalArgumentException("invalid block or slab size");
+    }
+    this.blockSize = blockSize;
+    this.blocksPerSlab = slabSize / blockSize;
+    this.totalBlocks = (int) Math.min(Integer.MAX_VALUE - 8, capacity
+        / blockSize);
+    this.slabs = new ByteBuffer[(totalBlocks + blocksPerSlab - 1)
+        / blocksPerSlab];
+    this.freeBlocks = new int[totalBlocks];
+    this.file = file;
+  }
+
+  protected int allocateBlock() throws IOException {
+    if (freePtr > 0) {
+      return freeBlocks[--freePtr];
+    }
+    int block = nextBlock++;
+    int slabIndex = block / blocksPerSlab;
+    if (slabs[slabIndex] == null) {
+      slabs[slabIndex] = createSlab(slabIndex);
+    }
+    return block;
+  }
+
+  protected int availableBlocks() {
+    return freePtr + (totalBlocks - nextBlock);
+  }
+
+  protected ByteBuffer blockBuffer(int block) {
+    ByteBuffer buffer = slabs[block / blocksPerSlab].duplicate();
+    buffer.position((block % blocksPerSlab) * blockSize);
+    return buffer;
+  }
+
+  /**
+   * Remove all payloads.
+   */
+  synchronized public void clear() {
+    for (Iterator<Extent> it = entries.values().iterator(); it.hasNext();) {
+      release(it.next());
+    }
+    entries.clear();
+  }
+
+  /**
+   * Remove all payloads and release the slabs.
+   * <p>
+   * The memory of direct buffers is reclaimed by the garbage collector when
+   * no longer referenced. A backing file is closed but not deleted.
+   *
+   * @throws IOException
+   */
+  synchronized public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    entries.clear();
+    for (int i = 0; i < slabs.length; i++) {
+      slabs[i] = null;
+    }
+    freePtr = 0;
+    nextBlock = totalBlocks;
+    if (randomAccessFile != null) {
+      randomAccessFile.close();
+      randomAccessFile = null;
+    }
+  }
+
+  synchronized public boolean containsKey(Object key) {
+    return entries.containsKey(key);
+  }
+
+  protected ByteBuffer createSlab(int slabIndex) throws IOException {
+    int blocks = Math.min(blocksPerSlab, totalBlocks - slabIndex
+        * blocksPerSlab);
+    int size = blocks * blockSize;
+    if (file == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    if (randomAccessFile == null) {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+    }
+    long position = (long) slabIndex * blocksPerSlab * blockSize;
+    return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+        position, size);
+  }
+
+  /**
+   * Drop the least recently used payload.
+   */
+  protected void evictEldest() {
+    Iterator<Extent> it = entries.values().iterator();
+    Extent extent = it.next();
+    it.remove();
+    release(extent);
+    evictionCount++;
+  }
+
+  /**
+   * A copy of the payload stored with <code>key</code> or null.
+   *
+   * @param key The key of the payload
+   * @return A copy of the payload stored with <code>key</code> or null.
+   */
+  synchronized public byte[] get(Object key) {
+    Extent extent = entries.get(key);
+    if (extent == null) {
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    return read(extent);
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * The capacity in bytes.
+   *
+   * @return The capacity in bytes.
+   */
+  public long getCapacity() {
+    return (long) totalBlocks * blockSize;
+  }
+
+  /**
+   * The number of payloads dropped to make room for new ones.
+   *
+   * @return The number of payloads dropped to make room for new ones.
+   */
+  synchronized public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  synchronized public long getHitCount() {
+    return hitCount;
+  }
+
+  synchronized public long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * The number of bytes currently allocated for payloads.
+   *
+   * @return The number of bytes currently allocated for payloads.
+   */
+  synchronized public long getUsedBytes() {
+    return (long) (totalBlocks - availableBlocks()) * blockSize;
+  }
+
+  /**
+   * Store a copy of <code>value</code> with <code>key</code>. Least recently
+   * used payloads are dropped as needed.
+   *
+   * @param key   The key of the payload
+   * @param value The payload
+   * @return <code>false</code> if the payload does not fit in the store at
+   * all
+   * @throws IOException
+   */
+  synchronized public boolean put(Object key, byte[] value)
+      throws IOException {
+    if (closed) {
+      throw new IllegalStateException("store closed");
+    }
+    Extent old = entries.remove(key);
+    if (old != null) {
+      release(old);
+    }
+    int count = (value.length + blockSize - 1) / blockSize;
+    if (count > totalBlocks) {
+      return false;
+    }
+    while (availableBlocks() < count) {
+      evictEldest();
+    }
+    int[] blocks = new int[count];
+    int offset = 0;
+    for (int i = 0; i < count; i++) {
+      blocks[i] = allocateBlock();
+      int length = Math.min(blockSize, value.length - offset);
+      blockBuffer(blocks[i]).put(value, offset, length);
+      offset += length;
+    }
+    entries.put(key, new Extent(blocks, value.length));
+    return true;
+  }
+
+  protected byte[] read(Extent extent) {
+    byte[] result = new byte[extent.length];
+    int offset = 0;
+    for (int i = 0; i < extent.blocks.length; i++) {
+      int length = Math.min(blockSize, extent.length - offset);
+      blockBuffer(extent.blocks[i]).get(result, offset, length);
+      offset += length;
+    }
+    return result;
+  }
+
+  protected void release(Extent extent) {
+    for (int i = 0; i < extent.blocks.length; i++) {
+      freeBlocks[freePtr++] = extent.blocks[i];
+    }
+  }
+
+  /**
+   * Remove the payload stored with <code>key</code>.
+   *
+   * @param key The key of the payload
+   * @return <code>true</code> if a payload was removed.
+   */
+  synchronized public boolean remove(Object key) {
+    Extent extent = entries.remove(key);
+    if (extent == null) {
+      return false;
+    }
+    release(extent);
+    return true;
+  }
+
+  /**
+   * The number of payloads in the store.
+   *
+   * @return The number of payloads in the store.
+   */
+  synchronized public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Remove the payload stored with <code>key</code> and return it.
+   *
+   * @param key The key of the payload
+   * @return The payload removed or null.
+   */
+  synchronized public byte[] take(Object key) {
+    Extent extent = entries.remove(key);
+    if (extent == null) {
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    byte[] result = read(extent);
+    release(extent);
+    return result;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.cache;
+
+import de.intarsys.tools.logging.LogTools;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache for <code>byte[]</code> content, bounded by the number of bytes.
+ * <p>
+ * The first tier is a {@link ConcurrentCache} on the heap. Content evicted
+ * from the first tier is moved to an optional second tier
+ * {@link OffHeapByteStore}, outside the java heap. A hit in the second tier
+ * moves the content back to the first tier.
+ * <p>
+ * The statistics are available per tier from {@link #getHeapCache()} and
+ * {@link #getOffHeapStore()}.
+ */
+public class TieredByteCache {
+
+  private final static Logger Log = LogTools.getLogger(TieredByteCache.class);
+
+  private final ConcurrentCache<byte[]> heapCache;
+
+  private final OffHeapByteStore offHeapStore;
+
+  /**
+   * Create a cache holding at most <code>heapBytes</code> on the heap.
+   *
+   * @param heapBytes    The maximum number of bytes on the heap
+   * @param offHeapStore The second tier or null
+   */
+  public TieredByteCache(long heapBytes, OffHeapByteStore offHeapStore) {
+    super();
+    this.heapCache = new ConcurrentCache<byte[]>(heapBytes,
+        new ByteArrayWeigher());
+    this.offHeapStore = offHeapStore;
+    if (offHeapStore != null) {
+      heapCache.setEvictionListener(new IEvictionListener<byte[]>() {
+        public void onEvicted(Object key, byte[] value) {
+          demote(key, value);
+        }
+      });
+    }
+  }
+
+  /**
+   * Clear all entries in both tiers.
+   */
+  public void clear() {
+    heapCache.clear();
+    if (offHeapStore != null) {
+      offHeapStore.clear();
+    }
+  }
+
+  protected void demote(Object key, byte[] value) {
+    if (value == null) {
+      return;
+    }
+    try {
+      offHeapStore.put(key, value);
+    } catch (IOException e) {
+      // a cache may always lose its content
+      Log.log(Level.FINE, "content for " + key + " not moved to second tier",
+          e);
+    } catch (IllegalStateException e) {
+      // store closed
+    }
+  }
+
+  /**
+   * The content with the key "key" or null.
+   *
+   * @param key The key to be used for looking up the cache.
+   * @return The content with the key "key" or null.
+   */
+  public byte[] get(Object key) {
+    byte[] result = heapCache.get(key);
+    if (result != null || offHeapStore == null) {
+      return result;
+    }
+    result = offHeapStore.take(key);
+    if (result != null) {
+      heapCache.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * The first tier, on the heap.
+   *
+   * @return The first tier, on the heap.
+   */
+  public ConcurrentCache<byte[]> getHeapCache() {
+    return heapCache;
+  }
+
+  /**
+   * The second tier, outside the heap, or null.
+   *
+   * @return The second tier, outside the heap, or null.
+   */
+  public OffHeapByteStore getOffHeapStore() {
+    return offHeapStore;
+  }
+
+  /**
+   * Store the content "value" with the key "key" in the cache.
+   *
+   * @param key   The key to use for storing the content
+   * @param value The content to put in the cache.
+   */
+  public void put(Object key, byte[] value) {
+    if (offHeapStore != null) {
+      offHeapStore.remove(key);
+    }
+    heapCache.put(key, value);
+  }
+
+  /**
+   * Remove content from the cache.
+   *
+   * @param key
+   */
+  public void remove(Object key) {
+    heapCache.remove(key);
+    if (offHeapStore != null) {
+      offHeapStore.remove(key);
+    }
+  }
+}
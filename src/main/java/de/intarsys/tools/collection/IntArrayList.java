@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.collection;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable list of primitive int values.
+ * <p>
+ * This implementation is not synchronized.
+ */
+public class IntArrayList {
+
+  private static final int[] EMPTY = new int[0];
+
+  private int[] elements;
+
+  private int size = 0;
+
+  public IntArrayList() {
+    super();
+    elements = EMPTY;
+  }
+
+  public IntArrayList(int initialCapacity) {
+    super();
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("Illegal Capacity: "
+          + initialCapacity);
+    }
+    elements = initialCapacity == 0 ? EMPTY : new int[initialCapacity];
+  }
+
+  public IntArrayList(int[] values) {
+    super();
+    elements = values.clone();
+    size = values.length;
+  }
+
+  public void add(int value) {
+    if (size == elements.length) {
+      grow(size + 1);
+    }
+    elements[size++] = value;
+  }
+
+  public void add(int index, int value) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+    if (size == elements.length) {
+      grow(size + 1);
+    }
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = value;
+    size++;
+  }
+
+  public void addAll(IntArrayList values) {
+    addAll(values.elements, 0, values.size);
+  }
+
+  public void addAll(int[] values) {
+    addAll(values, 0, values.length);
+  }
+
+  public void addAll(int[] values, int offset, int length) {
+    ensureCapacity(size + length);
+    System.arraycopy(values, offset, elements, size, length);
+    size += length;
+  }
+
+  /**
+   * Search <code>value</code> in this list, which must be sorted.
+   *
+   * @param value The value to search
+   * @return The index of <code>value</code> or (-(insertion point) - 1).
+   * @see Arrays#binarySearch(int[], int, int, int)
+   */
+  public int binarySearch(int value) {
+    return Arrays.binarySearch(elements, 0, size, value);
+  }
+
+  protected void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public boolean contains(int value) {
+    return indexOf(value) >= 0;
+  }
+
+  public void ensureCapacity(int minCapacity) {
+    if (minCapacity > elements.length) {
+      grow(minCapacity);
+    }
+  }
+
+  public int get(int index) {
+    checkIndex(index);
+    return elements[index];
+  }
+
+  protected void grow(int minCapacity) {
+    int capacity = Math.max(elements.length + (elements.length >> 1) + 1,
+        minCapacity);
+    elements = Arrays.copyOf(elements, capacity);
+  }
+
+  public int indexOf(int value) {
+    for (int i = 0; i < size; i++) {
+      if (elements[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public IIntIterator iterator() {
+    return new IIntIterator() {
+      private int index = 0;
+
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      public int nextInt() {
+        if (index >= size) {
+          throw new NoSuchElementException();
+        }
+        return elements[index++];
+      }
+    };
+  }
+
+  /**
+   * Remove the value at <code>index</code>.
+   *
+   * @param index The index of the value to remove
+   * @return The value removed.
+   */
+  public int removeAt(int index) {
+    checkIndex(index);
+    int old = elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    size--;
+    return old;
+  }
+
+  public int set(int index, int value) {
+    checkIndex(index);
+    int old = elements[index];
+    elements[index] = value;
+    return old;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Sort the values in ascending order.
+   */
+  public void sort() {
+    Arrays.sort(elements, 0, size);
+  }
+
+  /**
+   * A new array with the values in this list.
+   *
+   * @return A new array with the values in this list.
+   */
+  public int[] toArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('[');
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(elements[i]);
+    }
+    sb.append(']');
+    return sb.toString();
+  }
+
+  /**
+   * Reduce the capacity to the current size.
+   */
+  public void trimToSize() {
+    if (size < elements.length) {
+      elements = size == 0 ? EMPTY : Arrays.copyOf(elements, size);
+    }
+  }
+}
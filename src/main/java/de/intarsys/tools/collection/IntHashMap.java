@@ -34,16 +34,106 @@ package de.intarsys.tools.collection;
  * A hash map that uses primitive ints for the key rather than objects.
  * </p>
  * <p>
+ * The map uses open addressing with linear probing in parallel key and value
+ * arrays, no object is allocated per mapping. The key <code>0</code> is used
+ * to mark free slots in the table and is held separately.
+ * </p>
+ * <p>
+ * Use a {@link Cursor} to iterate the mappings without allocating objects per
+ * entry.
+ * </p>
  * <p>
- * Copied from Jakarta Commons Lang internal implementation. To be removed as
- * soon as Jakarta Commons Collections provides it.
+ * This implementation is not synchronized.
  * </p>
  */
 public class IntHashMap {
+
+  /**
+   * A cursor over the mappings in an {@link IntHashMap}.
+   * <p>
+   * The map must not be modified while iterating.
+   * </p>
+   */
+  public class Cursor {
+
+    private int index = -1;
+
+    private boolean zero = hasZeroKey;
+
+    private int key;
+
+    private Object value;
+
+    protected Cursor() {
+      super();
+    }
+
+    /**
+     * The key of the current mapping.
+     *
+     * @return The key of the current mapping.
+     */
+    public int key() {
+      return key;
+    }
+
+    /**
+     * Advance to the next mapping.
+     *
+     * @return <code>true</code> if there is a current mapping.
+     */
+    public boolean next() {
+      if (zero) {
+        zero = false;
+        key = 0;
+        value = zeroValue;
+        return true;
+      }
+      int[] tab = keys;
+      while (++index < tab.length) {
+        if (tab[index] != 0) {
+          key = tab[index];
+          value = values[index];
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * The value of the current mapping.
+     *
+     * @return The value of the current mapping.
+     */
+    public Object value() {
+      return value;
+    }
+  }
+
+  /**
+   * The hash table keys, 0 marks a free slot.
+   */
+  private transient int[] keys;
+
+  /**
+   * The hash table values.
+   */
+  private transient Object[] values;
+
+  /**
+   * Mask to compute the table index from a hash
+   */
+  private transient int mask;
+
+  /**
+   * <code>true</code> if the key 0 is mapped.
+   */
+  private transient boolean hasZeroKey;
+
   /**
-   * The hash table data.
+   * The value for the key 0.
    */
-  private transient Entry[] table;
+  private transient Object zeroValue;
 
   /**
    * The total number of entries in the hash table.
@@ -91,7 +181,8 @@ public class IntHashMap {
   /**
    * <p>
    * Constructs a new, empty hashtable with the specified initial capacity and
-   * the specified load factor.
+   * the specified load factor. The load factor is limited to
+   * <code>0.9</code>, as an open addressing table degrades when almost full.
    * </p>
    *
    * @param initialCapacity the initial capacity of the hashtable.
@@ -108,36 +199,53 @@ public class IntHashMap {
     if (loadFactor <= 0) {
       throw new IllegalArgumentException("Illegal Load: " + loadFactor);
     }
-    if (initialCapacity == 0) {
-      initialCapacity = 1;
-    }
+    this.loadFactor = Math.min(loadFactor, 0.9f);
+    allocate(tableSizeFor(initialCapacity, this.loadFactor));
+  }
 
-    this.loadFactor = loadFactor;
-    table = new Entry[initialCapacity];
-    threshold = (int) (initialCapacity * loadFactor);
+  /**
+   * The table size (a power of 2) to hold <code>capacity</code> entries with
+   * <code>loadFactor</code>.
+   */
+  static int tableSizeFor(int capacity, float loadFactor) {
+    long needed = (long) Math.ceil(Math.max(capacity, 1) / loadFactor) + 1;
+    int size = 2;
+    while (size < needed && size < (1 << 30)) {
+      size <<= 1;
+    }
+    return size;
   }
 
   /**
-   * <p>
-   * Returns the number of keys in this hashtable.
-   * </p>
-   *
-   * @return the number of keys in this hashtable.
+   * The table index for <code>key</code>.
    */
-  public int size() {
-    return count;
+  static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
   }
 
   /**
    * <p>
-   * Tests if this hashtable maps no keys to values.
+   * Clears this hashtable so that it contains no keys.
    * </p>
-   *
-   * @return <code>true</code> if this hashtable maps no keys to values;
-   * <code>false</code> otherwise.
    */
-  public boolean isEmpty() {
-    return count == 0;
+  public void clear() {
+    int[] tab = keys;
+    Object[] vals = values;
+    for (int index = tab.length; --index >= 0; ) {
+      tab[index] = 0;
+      vals[index] = null;
+    }
+    hasZeroKey = false;
+    zeroValue = null;
+    count = 0;
   }
 
   /**
@@ -164,18 +272,37 @@ public class IntHashMap {
     if (value == null) {
       throw new NullPointerException();
     }
-
-    Entry[] tab = table;
+    if (hasZeroKey && value.equals(zeroValue)) {
+      return true;
+    }
+    int[] tab = keys;
+    Object[] vals = values;
     for (int i = tab.length; i-- > 0; ) {
-      for (Entry e = tab[i]; e != null; e = e.next) {
-        if (e.value.equals(value)) {
-          return true;
-        }
+      if (tab[i] != 0 && value.equals(vals[i])) {
+        return true;
       }
     }
     return false;
   }
 
+  /**
+   * <p>
+   * Tests if the specified object is a key in this hashtable.
+   * </p>
+   *
+   * @param key possible key.
+   * @return <code>true</code> if and only if the specified object is a key
+   * in this hashtable, as determined by the <tt>equals</tt> method;
+   * <code>false</code> otherwise.
+   * @see #contains(Object)
+   */
+  public boolean containsKey(int key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return indexOf(key) >= 0;
+  }
+
   /**
    * <p>
    * Returns <code>true</code> if this HashMap maps one or more keys to this
@@ -197,26 +324,12 @@ public class IntHashMap {
   }
 
   /**
-   * <p>
-   * Tests if the specified object is a key in this hashtable.
-   * </p>
+   * A new {@link Cursor} over the mappings in this map.
    *
-   * @param key possible key.
-   * @return <code>true</code> if and only if the specified object is a key
-   * in this hashtable, as determined by the <tt>equals</tt> method;
-   * <code>false</code> otherwise.
-   * @see #contains(Object)
+   * @return A new {@link Cursor} over the mappings in this map.
    */
-  public boolean containsKey(int key) {
-    Entry[] tab = table;
-    int hash = key;
-    int index = (hash & 0x7FFFFFFF) % tab.length;
-    for (Entry e = tab[index]; e != null; e = e.next) {
-      if (e.hash == hash) {
-        return true;
-      }
-    }
-    return false;
+  public Cursor cursor() {
+    return new Cursor();
   }
 
   /**
@@ -231,54 +344,77 @@ public class IntHashMap {
    * @see #put(int, Object)
    */
   public Object get(int key) {
-    Entry[] tab = table;
-    int hash = key;
-    int index = (hash & 0x7FFFFFFF) % tab.length;
-    for (Entry e = tab[index]; e != null; e = e.next) {
-      if (e.hash == hash) {
-        return e.value;
+    if (key == 0) {
+      return zeroValue;
+    }
+    int[] tab = keys;
+    int index = mix(key) & mask;
+    while (true) {
+      int current = tab[index];
+      if (current == key) {
+        return values[index];
+      }
+      if (current == 0) {
+        return null;
       }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * The slot index for <code>key</code> or -1.
+   */
+  protected int indexOf(int key) {
+    int[] tab = keys;
+    int index = mix(key) & mask;
+    while (true) {
+      int current = tab[index];
+      if (current == key) {
+        return index;
+      }
+      if (current == 0) {
+        return -1;
+      }
+      index = (index + 1) & mask;
     }
-    return null;
   }
 
   /**
    * <p>
-   * Increases the capacity of and internally reorganizes this hashtable, in
-   * order to accommodate and access its entries more efficiently.
-   * </p>
-   * <p>
-   * <p>
-   * This method is called automatically when the number of keys in the
-   * hashtable exceeds this hashtable's capacity and load factor.
+   * Tests if this hashtable maps no keys to values.
    * </p>
+   *
+   * @return <code>true</code> if this hashtable maps no keys to values;
+   * <code>false</code> otherwise.
    */
-  protected void rehash() {
-    int oldCapacity = table.length;
-    Entry[] oldMap = table;
-
-    int newCapacity = (oldCapacity * 2) + 1;
-    Entry[] newMap = new Entry[newCapacity];
-
-    threshold = (int) (newCapacity * loadFactor);
-    table = newMap;
-
-    for (int i = oldCapacity; i-- > 0; ) {
-      for (Entry old = oldMap[i]; old != null; ) {
-        Entry e = old;
-        old = old.next;
+  public boolean isEmpty() {
+    return count == 0;
+  }
 
-        int index = (e.hash & 0x7FFFFFFF) % newCapacity;
-        e.next = newMap[index];
-        newMap[index] = e;
+  /**
+   * The keys in this map.
+   *
+   * @return A new array with the keys in this map.
+   */
+  public int[] keys() {
+    int[] result = new int[count];
+    int j = 0;
+    if (hasZeroKey) {
+      result[j++] = 0;
+    }
+    int[] tab = keys;
+    for (int i = 0; i < tab.length; i++) {
+      if (tab[i] != 0) {
+        result[j++] = tab[i];
       }
     }
+    return result;
   }
 
   /**
    * <p>
    * Maps the specified <code>key</code> to the specified <code>value</code>
-   * in this hashtable. The key cannot be <code>null</code>.
+   * in this hashtable.
    * </p>
    * <p>
    * <p>
@@ -290,37 +426,69 @@ public class IntHashMap {
    * @param value the value.
    * @return the previous value of the specified key in this hashtable, or
    * <code>null</code> if it did not have one.
-   * @throws NullPointerException if the key is <code>null</code>.
    * @see #get(int)
    */
   public Object put(int key, Object value) {
-    // Makes sure the key is not already in the hashtable.
-    Entry[] tab = table;
-    int hash = key;
-    int index = (hash & 0x7FFFFFFF) % tab.length;
-    for (Entry e = tab[index]; e != null; e = e.next) {
-      if (e.hash == hash) {
-        Object old = e.value;
-        e.value = value;
+    if (key == 0) {
+      Object old = zeroValue;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        count++;
+      }
+      zeroValue = value;
+      return old;
+    }
+    int[] tab = keys;
+    int index = mix(key) & mask;
+    while (true) {
+      int current = tab[index];
+      if (current == key) {
+        Object old = values[index];
+        values[index] = value;
         return old;
       }
+      if (current == 0) {
+        break;
+      }
+      index = (index + 1) & mask;
     }
-
-    if (count >= threshold) {
-      // Rehash the table if the threshold is exceeded
+    tab[index] = key;
+    values[index] = value;
+    if (++count >= threshold) {
       rehash();
-
-      tab = table;
-      index = (hash & 0x7FFFFFFF) % tab.length;
     }
-
-    // Creates the new entry.
-    Entry e = new Entry(hash, key, value, tab[index]);
-    tab[index] = e;
-    count++;
     return null;
   }
 
+  /**
+   * <p>
+   * Increases the capacity of and internally reorganizes this hashtable, in
+   * order to accommodate and access its entries more efficiently.
+   * </p>
+   * <p>
+   * <p>
+   * This method is called automatically when the number of keys in the
+   * hashtable exceeds this hashtable's capacity and load factor.
+   * </p>
+   */
+  protected void rehash() {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    int[] tab = keys;
+    for (int i = oldKeys.length; i-- > 0; ) {
+      int key = oldKeys[i];
+      if (key != 0) {
+        int index = mix(key) & mask;
+        while (tab[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        tab[index] = key;
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
   /**
    * <p>
    * Removes the key (and its corresponding value) from this hashtable.
@@ -335,68 +503,62 @@ public class IntHashMap {
    * <code>null</code> if the key did not have a mapping.
    */
   public Object remove(int key) {
-    Entry[] tab = table;
-    int hash = key;
-    int index = (hash & 0x7FFFFFFF) % tab.length;
-    for (Entry e = tab[index], prev = null; e != null; prev = e, e = e.next) {
-      if (e.hash == hash) {
-        if (prev != null) {
-          prev.next = e.next;
-        } else {
-          tab[index] = e.next;
-        }
-        count--;
-        Object oldValue = e.value;
-        e.value = null;
-        return oldValue;
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return null;
       }
+      Object old = zeroValue;
+      hasZeroKey = false;
+      zeroValue = null;
+      count--;
+      return old;
     }
-    return null;
+    int index = indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    Object old = values[index];
+    shiftKeys(index);
+    count--;
+    return old;
   }
 
   /**
-   * <p>
-   * Clears this hashtable so that it contains no keys.
-   * </p>
+   * Free the slot at <code>index</code> and move following entries of the
+   * probe sequence backwards, so that no "deleted" markers are needed.
    */
-  public synchronized void clear() {
-    Entry[] tab = table;
-    for (int index = tab.length; --index >= 0; ) {
-      tab[index] = null;
+  protected void shiftKeys(int index) {
+    int[] tab = keys;
+    Object[] vals = values;
+    int free = index;
+    int current = index;
+    while (true) {
+      current = (current + 1) & mask;
+      int key = tab[current];
+      if (key == 0) {
+        break;
+      }
+      int home = mix(key) & mask;
+      // move the entry if its home slot is not between free and current
+      if (free <= current ? (free >= home || home > current)
+          : (free >= home && home > current)) {
+        tab[free] = key;
+        vals[free] = vals[current];
+        free = current;
+      }
     }
-    count = 0;
+    tab[free] = 0;
+    vals[free] = null;
   }
 
   /**
    * <p>
-   * Innerclass that acts as a datastructure to create a new entry in the
-   * table.
+   * Returns the number of keys in this hashtable.
    * </p>
+   *
+   * @return the number of keys in this hashtable.
    */
-  private static class Entry {
-    int hash;
-
-    int key;
-
-    Object value;
-
-    Entry next;
-
-    /**
-     * <p>
-     * Create a new entry with the given values.
-     * </p>
-     *
-     * @param hash  The code used to hash the object with
-     * @param key   The key used to enter this in the table
-     * @param value The value for this key
-     * @param next  A reference to the next entry in the table
-     */
-    protected Entry(int hash, int key, Object value, Entry next) {
-      this.hash = hash;
-      this.key = key;
-      this.value = value;
-      this.next = next;
-    }
+  public int size() {
+    return count;
   }
 }
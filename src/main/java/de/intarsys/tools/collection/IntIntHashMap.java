@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.collection;
+
+/**
+ * A hash map from primitive int keys to primitive int values.
+ * <p>
+ * The map uses open addressing with linear probing like {@link IntHashMap},
+ * no object is allocated per mapping. As values can not be
+ * <code>null</code>, lookups for unmapped keys return a "missing value",
+ * which is <code>0</code> by default.
+ * <p>
+ * This implementation is not synchronized.
+ */
+public class IntIntHashMap {
+
+  /**
+   * A cursor over the mappings in an {@link IntIntHashMap}.
+   * <p>
+   * The map must not be modified while iterating, except for changing the
+   * value of the current mapping using {@link #setValue(int)}.
+   */
+  public class Cursor {
+
+    private int index = -1;
+
+    private boolean zero = hasZeroKey;
+
+    private int key;
+
+    protected Cursor() {
+      super();
+    }
+
+    /**
+     * The key of the current mapping.
+     *
+     * @return The key of the current mapping.
+     */
+    public int key() {
+      return key;
+    }
+
+    /**
+     * Advance to the next mapping.
+     *
+     * @return <code>true</code> if there is a current mapping.
+     */
+    public boolean next() {
+      if (zero) {
+        zero = false;
+        index = -1;
+        key = 0;
+        return true;
+      }
+      int[] tab = keys;
+      while (++index < tab.length) {
+        if (tab[index] != 0) {
+          key = tab[index];
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Change the value of the current mapping.
+     *
+     * @param value The new value
+     */
+    public void setValue(int value) {
+      if (key == 0) {
+        zeroValue = value;
+      } else {
+        values[index] = value;
+      }
+    }
+
+    /**
+     * The value of the current mapping.
+     *
+     * @return The value of the current mapping.
+     */
+    public int value() {
+      return key == 0 ? zeroValue : values[index];
+    }
+  }
+
+  /**
+   * The hash table keys, 0 marks a free slot.
+   */
+  private int[] keys;
+
+  private int[] values;
+
+  private int mask;
+
+  private boolean hasZeroKey;
+
+  private int zeroValue;
+
+  private int count;
+
+  private int threshold;
+
+  private final float loadFactor;
+
+  /**
+   * The value returned for unmapped keys
+   */
+  private final int missingValue;
+
+  public IntIntHashMap() {
+    this(16, 0);
+  }
+
+  /**
+   * Create a map.
+   *
+   * @param initialCapacity The number of mappings held without rehash
+   * @param missingValue    The value returned for unmapped keys
+   */
+  public IntIntHashMap(int initialCapacity, int missingValue) {
+    super();
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("Illegal Capacity: "
+          + initialCapacity);
+    }
+    this.loadFactor = 0.75f;
+    this.missingValue = missingValue;
+    allocate(IntHashMap.tableSizeFor(initialCapacity, loadFactor));
+  }
+
+  /**
+   * Add <code>delta</code> to the value mapped to <code>key</code>. An
+   * unmapped key starts with the "missing value".
+   *
+   * @param key   The key
+   * @param delta The value to add
+   * @return The new value
+   */
+  public int addTo(int key, int delta) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        zeroValue = missingValue;
+        count++;
+      }
+      zeroValue += delta;
+      return zeroValue;
+    }
+    int index = insertionIndex(key);
+    if (keys[index] == key) {
+      values[index] += delta;
+      return values[index];
+    }
+    int result = missingValue + delta;
+    insert(index, key, result);
+    return result;
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+  }
+
+  public void clear() {
+    int[] tab = keys;
+    for (int index = tab.length; --index >= 0; ) {
+      tab[index] = 0;
+    }
+    hasZeroKey = false;
+    count = 0;
+  }
+
+  public boolean containsKey(int key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return keys[insertionIndex(key)] == key;
+  }
+
+  /**
+   * A new {@link Cursor} over the mappings in this map.
+   *
+   * @return A new {@link Cursor} over the mappings in this map.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * The value mapped to <code>key</code> or the "missing value".
+   *
+   * @param key The key
+   * @return The value mapped to <code>key</code> or the "missing value".
+   */
+  public int get(int key) {
+    return get(key, missingValue);
+  }
+
+  /**
+   * The value mapped to <code>key</code> or <code>defaultValue</code>.
+   *
+   * @param key          The key
+   * @param defaultValue The value returned if <code>key</code> is not mapped
+   * @return The value mapped to <code>key</code> or
+   * <code>defaultValue</code>.
+   */
+  public int get(int key, int defaultValue) {
+    if (key == 0) {
+      return hasZeroKey ? zeroValue : defaultValue;
+    }
+    int[] tab = keys;
+    int index = IntHashMap.mix(key) & mask;
+    while (true) {
+      int current = tab[index];
+      if (current == key) {
+        return values[index];
+      }
+      if (current == 0) {
+        return defaultValue;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  public int getMissingValue() {
+    return missingValue;
+  }
+
+  private void insert(int index, int key, int value) {
+    keys[index] = key;
+    values[index] = value;
+    if (++count >= threshold) {
+      rehash();
+    }
+  }
+
+  /**
+   * The slot holding <code>key</code> or the free slot where it should be
+   * inserted.
+   */
+  protected int insertionIndex(int key) {
+    int[] tab = keys;
+    int index = IntHashMap.mix(key) & mask;
+    while (true) {
+      int current = tab[index];
+      if (current == key || current == 0) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * The keys in this map.
+   *
+   * @return A new array with the keys in this map.
+   */
+  public int[] keys() {
+    int[] result = new int[count];
+    int j = 0;
+    if (hasZeroKey) {
+      result[j++] = 0;
+    }
+    int[] tab = keys;
+    for (int i = 0; i < tab.length; i++) {
+      if (tab[i] != 0) {
+        result[j++] = tab[i];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Map <code>key</code> to <code>value</code>.
+   *
+   * @param key   The key
+   * @param value The value
+   * @return The previous value or the "missing value".
+   */
+  public int put(int key, int value) {
+    if (key == 0) {
+      int old = hasZeroKey ? zeroValue : missingValue;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        count++;
+      }
+      zeroValue = value;
+      return old;
+    }
+    int index = insertionIndex(key);
+    if (keys[index] == key) {
+      int old = values[index];
+      values[index] = value;
+      return old;
+    }
+    insert(index, key, value);
+    return missingValue;
+  }
+
+  protected void rehash() {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    int[] tab = keys;
+    for (int i = oldKeys.length; i-- > 0; ) {
+      int key = oldKeys[i];
+      if (key != 0) {
+        int index = IntHashMap.mix(key) & mask;
+        while (tab[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        tab[index] = key;
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * Remove the mapping for <code>key</code>.
+   *
+   * @param key The key
+   * @return The value removed or the "missing value".
+   */
+  public int remove(int key) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return missingValue;
+      }
+      hasZeroKey = false;
+      count--;
+      return zeroValue;
+    }
+    int index = insertionIndex(key);
+    if (keys[index] != key) {
+      return missingValue;
+    }
+    int old = values[index];
+    shiftKeys(index);
+    count--;
+    return old;
+  }
+
+  /**
+   * Free the slot at <code>index</code> and move following entries of the
+   * probe sequence backwards.
+   */
+  protected void shiftKeys(int index) {
+    int[] tab = keys;
+    int[] vals = values;
+    int free = index;
+    int current = index;
+    while (true) {
+      current = (current + 1) & mask;
+      int key = tab[current];
+      if (key == 0) {
+        break;
+      }
+      int home = IntHashMap.mix(key) & mask;
+      if (free <= current ? (free >= home || home > current)
+          : (free >= home && home > current)) {
+        tab[free] = key;
+        vals[free] = vals[current];
+        free = current;
+      }
+    }
+    tab[free] = 0;
+  }
+
+  public int size() {
+    return count;
+  }
+}
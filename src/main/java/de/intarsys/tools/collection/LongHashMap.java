@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.collection;
+
+/**
+ * <p>
+ * A hash map that uses primitive longs for the key rather than objects.
+ * </p>
+ * <p>
+ * The map uses open addressing with linear probing in parallel key and value
+ * arrays, no object is allocated per mapping. The key <code>0</code> is used
+ * to mark free slots in the table and is held separately.
+ * </p>
+ * <p>
+ * Use a {@link Cursor} to iterate the mappings without allocating objects per
+ * entry.
+ * </p>
+ * <p>
+ * This implementation is not synchronized.
+ * </p>
+ */
+public class LongHashMap {
+
+  /**
+   * A cursor over the mappings in an {@link LongHashMap}.
+   * <p>
+   * The map must not be modified while iterating.
+   * </p>
+   */
+  public class Cursor {
+
+    private int index = -1;
+
+    private boolean zero = hasZeroKey;
+
+    private long key;
+
+    private Object value;
+
+    protected Cursor() {
+      super();
+    }
+
+    /**
+     * The key of the current mapping.
+     *
+     * @return The key of the current mapping.
+     */
+    public long key() {
+      return key;
+    }
+
+    /**
+     * Advance to the next mapping.
+     *
+     * @return <code>true</code> if there is a current mapping.
+     */
+    public boolean next() {
+      if (zero) {
+        zero = false;
+        key = 0;
+        value = zeroValue;
+        return true;
+      }
+      long[] tab = keys;
+      while (++index < tab.length) {
+        if (tab[index] != 0) {
+          key = tab[index];
+          value = values[index];
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * The value of the current mapping.
+     *
+     * @return The value of the current mapping.
+     */
+    public Object value() {
+      return value;
+    }
+  }
+
+  /**
+   * The hash table keys, 0 marks a free slot.
+   */
+  private transient long[] keys;
+
+  /**
+   * The hash table values.
+   */
+  private transient Object[] values;
+
+  /**
+   * Mask to compute the table index from a hash
+   */
+  private transient int mask;
+
+  /**
+   * <code>true</code> if the key 0 is mapped.
+   */
+  private transient boolean hasZeroKey;
+
+  /**
+   * The value for the key 0.
+   */
+  private transient Object zeroValue;
+
+  /**
+   * The total number of entries in the hash table.
+   */
+  private transient int count;
+
+  /**
+   * The table is rehashed when its size exceeds this threshold. (The value of
+   * this field is (int)(capacity * loadFactor).)
+   *
+   * @serial
+   */
+  private int threshold;
+
+  /**
+   * The load factor for the hashtable.
+   *
+   * @serial
+   */
+  private float loadFactor;
+
+  /**
+   * <p>
+   * Constructs a new, empty hashtable with a default capacity and load
+   * factor, which is <code>20</code> and <code>0.75</code> respectively.
+   * </p>
+   */
+  public LongHashMap() {
+    this(20, 0.75f);
+  }
+
+  /**
+   * <p>
+   * Constructs a new, empty hashtable with the specified initial capacity and
+   * default load factor, which is <code>0.75</code>.
+   * </p>
+   *
+   * @param initialCapacity the initial capacity of the hashtable.
+   * @throws IllegalArgumentException if the initial capacity is less than zero.
+   */
+  public LongHashMap(int initialCapacity) {
+    this(initialCapacity, 0.75f);
+  }
+
+  /**
+   * <p>
+   * Constructs a new, empty hashtable with the specified initial capacity and
+   * the specified load factor. The load factor is limited to
+   * <code>0.9</code>, as an open addressing table degrades when almost full.
+   * </p>
+   *
+   * @param initialCapacity the initial capacity of the hashtable.
+   * @param loadFactor      the load factor of the hashtable.
+   * @throws IllegalArgumentException if the initial capacity is less than zero, or if the load
+   *                                  factor is nonpositive.
+   */
+  public LongHashMap(int initialCapacity, float loadFactor) {
+    super();
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("Illegal Capacity: "
+          + initialCapacity);
+    }
+    if (loadFactor <= 0) {
+      throw new IllegalArgumentException("Illegal Load: " + loadFactor);
+    }
+    this.loadFactor = Math.min(loadFactor, 0.9f);
+    allocate(IntHashMap.tableSizeFor(initialCapacity, this.loadFactor));
+  }
+
+  /**
+   * The table index for <code>key</code>.
+   */
+  static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 32;
+    return (int) (h ^ (h >>> 16));
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+  }
+
+  /**
+   * <p>
+   * Clears this hashtable so that it contains no keys.
+   * </p>
+   */
+  public void clear() {
+    long[] tab = keys;
+    Object[] vals = values;
+    for (int index = tab.length; --index >= 0; ) {
+      tab[index] = 0;
+      vals[index] = null;
+    }
+    hasZeroKey = false;
+    zeroValue = null;
+    count = 0;
+  }
+
+  /**
+   * <p>
+   * Tests if some key maps into the specified value in this hashtable. This
+   * operation is more expensive than the <code>containsKey</code> method.
+   * </p>
+   * <p>
+   * <p>
+   * Note that this method is identical in functionality to containsValue,
+   * (which is part of the Map interface in the collections framework).
+   * </p>
+   *
+   * @param value a value to search for.
+   * @return <code>true</code> if and only if some key maps to the
+   * <code>value</code> argument in this hashtable as determined by
+   * the <tt>equals</tt> method; <code>false</code> otherwise.
+   * @throws NullPointerException if the value is <code>null</code>.
+   * @see #containsKey(long)
+   * @see #containsValue(Object)
+   * @see java.util.Map
+   */
+  public boolean contains(Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    if (hasZeroKey && value.equals(zeroValue)) {
+      return true;
+    }
+    long[] tab = keys;
+    Object[] vals = values;
+    for (int i = tab.length; i-- > 0; ) {
+      if (tab[i] != 0 && value.equals(vals[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * <p>
+   * Tests if the specified object is a key in this hashtable.
+   * </p>
+   *
+   * @param key possible key.
+   * @return <code>true</code> if and only if the specified object is a key
+   * in this hashtable, as determined by the <tt>equals</tt> method;
+   * <code>false</code> otherwise.
+   * @see #contains(Object)
+   */
+  public boolean containsKey(long key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if this HashMap maps one or more keys to this
+   * value.
+   * </p>
+   * <p>
+   * <p>
+   * Note that this method is identical in functionality to contains (which
+   * predates the Map interface).
+   * </p>
+   *
+   * @param value value whose presence in this HashMap is to be tested.
+   * @return boolean <code>true</code> if the value is contained
+   * @see java.util.Map
+   * @since JDK1.2
+   */
+  public boolean containsValue(Object value) {
+    return contains(value);
+  }
+
+  /**
+   * A new {@link Cursor} over the mappings in this map.
+   *
+   * @return A new {@link Cursor} over the mappings in this map.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * <p>
+   * Returns the value to which the specified key is mapped in this map.
+   * </p>
+   *
+   * @param key a key in the hashtable.
+   * @return the value to which the key is mapped in this hashtable;
+   * <code>null</code> if the key is not mapped to any value in this
+   * hashtable.
+   * @see #put(long, Object)
+   */
+  public Object get(long key) {
+    if (key == 0) {
+      return zeroValue;
+    }
+    long[] tab = keys;
+    int index = mix(key) & mask;
+    while (true) {
+      long current = tab[index];
+      if (current == key) {
+        return values[index];
+      }
+      if (current == 0) {
+        return null;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * The slot index for <code>key</code> or -1.
+   */
+  protected int indexOf(long key) {
+    long[] tab = keys;
+    int index = mix(key) & mask;
+    while (true) {
+      long current = tab[index];
+      if (current == key) {
+        return index;
+      }
+      if (current == 0) {
+        return -1;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * <p>
+   * Tests if this hashtable maps no keys to values.
+   * </p>
+   *
+   * @return <code>true</code> if this hashtable maps no keys to values;
+   * <code>false</code> otherwise.
+   */
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * The keys in this map.
+   *
+   * @return A new array with the keys in this map.
+   */
+  public long[] keys() {
+    long[] result = new long[count];
+    int j = 0;
+    if (hasZeroKey) {
+      result[j++] = 0;
+    }
+    long[] tab = keys;
+    for (int i = 0; i < tab.length; i++) {
+      if (tab[i] != 0) {
+        result[j++] = tab[i];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * <p>
+   * Maps the specified <code>key</code> to the specified <code>value</code>
+   * in this hashtable.
+   * </p>
+   * <p>
+   * <p>
+   * The value can be retrieved by calling the <code>get</code> method with
+   * a key that is equal to the original key.
+   * </p>
+   *
+   * @param key   the hashtable key.
+   * @param value the value.
+   * @return the previous value of the specified key in this hashtable, or
+   * <code>null</code> if it did not have one.
+   * @see #get(long)
+   */
+  public Object put(long key, Object value) {
+    if (key == 0) {
+      Object old = zeroValue;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        count++;
+      }
+      zeroValue = value;
+      return old;
+    }
+    long[] tab = keys;
+    int index = mix(key) & mask;
+    while (true) {
+      long current = tab[index];
+      if (current == key) {
+        Object old = values[index];
+        values[index] = value;
+        return old;
+      }
+      if (current == 0) {
+        break;
+      }
+      index = (index + 1) & mask;
+    }
+    tab[index] = key;
+    values[index] = value;
+    if (++count >= threshold) {
+      rehash();
+    }
+    return null;
+  }
+
+  /**
+   * <p>
+   * Increases the capacity of and internally reorganizes this hashtable, in
+   * order to accommodate and access its entries more efficiently.
+   * </p>
+   * <p>
+   * <p>
+   * This method is called automatically when the number of keys in the
+   * hashtable exceeds this hashtable's capacity and load factor.
+   * </p>
+   */
+  protected void rehash() {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    long[] tab = keys;
+    for (int i = oldKeys.length; i-- > 0; ) {
+      long key = oldKeys[i];
+      if (key != 0) {
+        int index = mix(key) & mask;
+        while (tab[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        tab[index] = key;
+        values[index] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Removes the key (and its corresponding value) from this hashtable.
+   * </p>
+   * <p>
+   * <p>
+   * This method does nothing if the key is not present in the hashtable.
+   * </p>
+   *
+   * @param key the key that needs to be removed.
+   * @return the value to which the key had been mapped in this hashtable, or
+   * <code>null</code> if the key did not have a mapping.
+   */
+  public Object remove(long key) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return null;
+      }
+      Object old = zeroValue;
+      hasZeroKey = false;
+      zeroValue = null;
+      count--;
+      return old;
+    }
+    int index = indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    Object old = values[index];
+    shiftKeys(index);
+    count--;
+    return old;
+  }
+
+  /**
+   * Free the slot at <code>index</code> and move following entries of the
+   * probe sequence backwards, so that no "deleted" markers are needed.
+   */
+  protected void shiftKeys(int index) {
+    long[] tab = keys;
+    Object[] vals = values;
+    int free = index;
+    int current = index;
+    while (true) {
+      current = (current + 1) & mask;
+      long key = tab[current];
+      if (key == 0) {
+        break;
+      }
+      int home = mix(key) & mask;
+      // move the entry if its home slot is not between free and current
+      if (free <= current ? (free >= home || home > current)
+          : (free >= home && home > current)) {
+        tab[free] = key;
+        vals[free] = vals[current];
+        free = current;
+      }
+    }
+    tab[free] = 0;
+    vals[free] = null;
+  }
+
+  /**
+   * <p>
+   * Returns the number of keys in this hashtable.
+   * </p>
+   *
+   * @return the number of keys in this hashtable.
+   */
+  public int size() {
+    return count;
+  }
+}
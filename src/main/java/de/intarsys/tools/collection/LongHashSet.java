@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.collection;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A hash set of primitive long values.
+ * <p>
+ * The set uses open addressing with linear probing like {@link LongHashMap},
+ * no object is allocated per value.
+ * <p>
+ * This implementation is not synchronized.
+ */
+public class LongHashSet {
+
+  /**
+   * The hash table, 0 marks a free slot.
+   */
+  private long[] keys;
+
+  private int mask;
+
+  /**
+   * <code>true</code> if the value 0 is contained.
+   */
+  private boolean hasZeroKey;
+
+  private int count;
+
+  private int threshold;
+
+  private final float loadFactor;
+
+  public LongHashSet() {
+    this(16, 0.75f);
+  }
+
+  public LongHashSet(int initialCapacity) {
+    this(initialCapacity, 0.75f);
+  }
+
+  public LongHashSet(int initialCapacity, float loadFactor) {
+    super();
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("Illegal Capacity: "
+          + initialCapacity);
+    }
+    if (loadFactor <= 0) {
+      throw new IllegalArgumentException("Illegal Load: " + loadFactor);
+    }
+    this.loadFactor = Math.min(loadFactor, 0.9f);
+    allocate(IntHashMap.tableSizeFor(initialCapacity, this.loadFactor));
+  }
+
+  /**
+   * Add <code>value</code> to the set.
+   *
+   * @param value The value to add
+   * @return <code>true</code> if the set did not contain <code>value</code>
+   */
+  public boolean add(long value) {
+    if (value == 0) {
+      if (hasZeroKey) {
+        return false;
+      }
+      hasZeroKey = true;
+      count++;
+      return true;
+    }
+    long[] tab = keys;
+    int index = LongHashMap.mix(value) & mask;
+    while (true) {
+      long current = tab[index];
+      if (current == value) {
+        return false;
+      }
+      if (current == 0) {
+        break;
+      }
+      index = (index + 1) & mask;
+    }
+    tab[index] = value;
+    if (++count >= threshold) {
+      rehash();
+    }
+    return true;
+  }
+
+  public void addAll(long[] values) {
+    for (int i = 0; i < values.length; i++) {
+      add(values[i]);
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    mask = capacity - 1;
+    threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+  }
+
+  public void clear() {
+    long[] tab = keys;
+    for (int index = tab.length; --index >= 0; ) {
+      tab[index] = 0;
+    }
+    hasZeroKey = false;
+    count = 0;
+  }
+
+  public boolean contains(long value) {
+    if (value == 0) {
+      return hasZeroKey;
+    }
+    return indexOf(value) >= 0;
+  }
+
+  protected int indexOf(long value) {
+    long[] tab = keys;
+    int index = LongHashMap.mix(value) & mask;
+    while (true) {
+      long current = tab[index];
+      if (current == value) {
+        return index;
+      }
+      if (current == 0) {
+        return -1;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * An iterator over the values. The set must not be modified while
+   * iterating.
+   *
+   * @return An iterator over the values.
+   */
+  public ILongIterator iterator() {
+    return new ILongIterator() {
+      private boolean zero = hasZeroKey;
+
+      private int index = nextIndex(-1);
+
+      public boolean hasNext() {
+        return zero || index < keys.length;
+      }
+
+      public long nextLong() {
+        if (zero) {
+          zero = false;
+          return 0;
+        }
+        if (index >= keys.length) {
+          throw new NoSuchElementException();
+        }
+        long result = keys[index];
+        index = nextIndex(index);
+        return result;
+      }
+    };
+  }
+
+  protected int nextIndex(int index) {
+    long[] tab = keys;
+    while (++index < tab.length) {
+      if (tab[index] != 0) {
+        break;
+      }
+    }
+    return index;
+  }
+
+  protected void rehash() {
+    long[] oldKeys = keys;
+    allocate(oldKeys.length * 2);
+    long[] tab = keys;
+    for (int i = oldKeys.length; i-- > 0; ) {
+      long value = oldKeys[i];
+      if (value != 0) {
+        int index = LongHashMap.mix(value) & mask;
+        while (tab[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        tab[index] = value;
+      }
+    }
+  }
+
+  /**
+   * Remove <code>value</code> from the set.
+   *
+   * @param value The value to remove
+   * @return <code>true</code> if the set contained <code>value</code>
+   */
+  public boolean remove(long value) {
+    if (value == 0) {
+      if (!hasZeroKey) {
+        return false;
+      }
+      hasZeroKey = false;
+      count--;
+      return true;
+    }
+    int index = indexOf(value);
+    if (index < 0) {
+      return false;
+    }
+    shiftKeys(index);
+    count--;
+    return true;
+  }
+
+  /**
+   * Free the slot at <code>index</code> and move following entries of the
+   * probe sequence backwards.
+   */
+  protected void shiftKeys(int index) {
+    long[] tab = keys;
+    int free = index;
+    int current = index;
+    while (true) {
+      current = (current + 1) & mask;
+      long value = tab[current];
+      if (value == 0) {
+        break;
+      }
+      int home = LongHashMap.mix(value) & mask;
+      if (free <= current ? (free >= home || home > current)
+          : (free >= home && home > current)) {
+        tab[free] = value;
+        free = current;
+      }
+    }
+    tab[free] = 0;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  /**
+   * A new array with the values in this set, in no particular order.
+   *
+   * @return A new array with the values in this set.
+   */
+  public long[] toArray() {
+    long[] result = new long[count];
+    int j = 0;
+    if (hasZeroKey) {
+      result[j++] = 0;
+    }
+    long[] tab = keys;
+    for (int i = 0; i < tab.length; i++) {
+      if (tab[i] != 0) {
+        result[j++] = tab[i];
+      }
+    }
+    return result;
+  }
+}
@@ -27,6 +27,7 @@
  */
 package de.intarsys.tools.file;
 
+import de.intarsys.tools.stream.ParallelGZIPOutputStream;
 import de.intarsys.tools.stream.StreamTools;
 
 import java.io.File;
@@ -38,6 +39,7 @@ import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 public class ArchiveTools {
 
@@ -46,6 +48,13 @@ public class ArchiveTools {
   //
   private static Map dumpDirs = new HashMap();
 
+  // the compression level for compressed archives
+  private static int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+  // the number of threads used for compressed archives, 0 for one per
+  // processor
+  private static int compressionParallelism = 0;
+
   static {
     theFormat = NumberFormat.getNumberInstance();
     theFormat.setMaximumFractionDigits(0);
@@ -129,15 +138,45 @@ public class ArchiveTools {
    */
   public static String archive(File root, String relativePath,
                                String filename, InputStream is, int max) throws IOException {
+    return archive(root, relativePath, filename, is, max, false);
+  }
+
+  /**
+   * Create a archive file and dump the input stream to this file. Calls
+   * createArchive, and then copies the is to the output stream.
+   * <p>
+   * If <code>compress</code> is true, the archive is gzip compressed in
+   * parallel and ".gz" is appended to its name.
+   *
+   * @param root         The root for relative addressing.
+   * @param relativePath The path relative to root where to create the archive.
+   * @param filename     The file to archive.
+   * @param is           The input stream to be dumped.
+   * @param max          The maximum number of archive files allowed.
+   * @param compress     Flag if the archive should be compressed.
+   * @return The name of the archived file, or null.
+   * @throws IOException
+   */
+  public static String archive(File root, String relativePath,
+                               String filename, InputStream is, int max, boolean compress)
+      throws IOException {
     if ((max == 0) || (root == null)) {
       // no archiving desired
       return null;
     }
 
+    if (compress) {
+      filename = filename + ".gz";
+    }
     File archive = createArchive(root, relativePath, filename, max);
-    FileOutputStream os = new FileOutputStream(archive);
+    OutputStream os = new FileOutputStream(archive);
     try {
-      StreamTools.copyStream(is, os);
+      if (compress) {
+        os = createCompressingOutputStream(os);
+      }
+      StreamTools.copyStream(is, true, os, false);
+      // close explicitly, a compressing stream writes its trailer here
+      os.close();
     } catch (Exception e) {
       throw new IOException("archiving failed (" + e.getMessage() + ")");
     } finally {
@@ -176,15 +215,80 @@ public class ArchiveTools {
     return archive;
   }
 
+  /**
+   * Wrap <code>os</code> in a parallel gzip compressing stream, using the
+   * current compression level and parallelism.
+   *
+   * @param os
+   * @return The compressing {@link OutputStream}
+   * @throws IOException
+   */
+  public static OutputStream createCompressingOutputStream(OutputStream os)
+      throws IOException {
+    return new ParallelGZIPOutputStream(os, getCompressionLevel(),
+        getCompressionParallelism());
+  }
+
   public static OutputStream createOutputStream(File root, String filename,
                                                 int max) throws IOException {
+    return createOutputStream(root, filename, max, false);
+  }
+
+  /**
+   * An {@link OutputStream} to a new archive file. If <code>compress</code>
+   * is true, the output is gzip compressed in parallel and ".gz" is appended
+   * to the file name.
+   *
+   * @param root     The root directory of the archive.
+   * @param filename The file to archive.
+   * @param max      The maximum number of archive files allowed.
+   * @param compress Flag if the archive should be compressed.
+   * @return The {@link OutputStream} to the archive, or null.
+   * @throws IOException
+   */
+  public static OutputStream createOutputStream(File root, String filename,
+                                                int max, boolean compress) throws IOException {
     if ((max == 0) || (root == null)) {
       // no archiving desired
       return null;
     }
+    if (compress) {
+      filename = filename + ".gz";
+    }
     DumpDirectory d = DumpDirectory.get(root);
     File archive = d.getDumpFile(filename, max);
-    return new FileOutputStream(archive);
+    OutputStream os = new FileOutputStream(archive);
+    if (compress) {
+      return createCompressingOutputStream(os);
+    }
+    return os;
+  }
+
+  public static int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  public static int getCompressionParallelism() {
+    return compressionParallelism;
+  }
+
+  /**
+   * The {@link Deflater} level used for compressed archives.
+   *
+   * @param level
+   */
+  public static void setCompressionLevel(int level) {
+    compressionLevel = level;
+  }
+
+  /**
+   * The number of threads used for compressed archives, 0 for one per
+   * processor.
+   *
+   * @param parallelism
+   */
+  public static void setCompressionParallelism(int parallelism) {
+    compressionParallelism = parallelism;
   }
 
   /**
@@ -46,9 +46,30 @@ public class Args implements IArgs {
 
   static final private Binding[] EMPTY = new Binding[0];
   private static final Object UNDEFINED = new Object();
+
+  /**
+   * The number of bindings from which on named lookup uses a hash index
+   * instead of a linear scan.
+   */
+  protected static final int INDEX_THRESHOLD = 16;
+
   private Binding[] entries = EMPTY;
   private int ptr = 0;
 
+  /**
+   * Open addressed index from name to binding slot. Each element holds the
+   * slot + 1, 0 marks an empty element. Only the first binding for a name is
+   * indexed. The index is created lazily when named lookup is performed on
+   * more than {@link #INDEX_THRESHOLD} bindings. A new index is completely
+   * built before it is assigned, so that concurrent readers never see a
+   * partial index.
+   */
+  private volatile int[] index;
+
+  private int indexSize;
+
+  private int modCount;
+
   public Args() {
     super();
   }
@@ -152,6 +173,7 @@ public class Args implements IArgs {
     ensureCapacity(ptr);
     Binding tempBinding = new Binding(null, object);
     entries[ptr++] = tempBinding;
+    modCount++;
     return tempBinding;
   }
 
@@ -165,6 +187,9 @@ public class Args implements IArgs {
       entries[i] = null;
     }
     ptr = 0;
+    index = null;
+    indexSize = 0;
+    modCount++;
   }
 
   @Override
@@ -176,24 +201,26 @@ public class Args implements IArgs {
   public IBinding declare(String name) {
     Binding tempBinding;
     // first check all bindings if already available
-    for (int i = 0; i < ptr; i++) {
-      tempBinding = entries[i];
-      if (name.equals(tempBinding.name)) {
-        return tempBinding;
-      }
+    int slot = indexOf(name);
+    if (slot >= 0) {
+      return entries[slot];
     }
     // try to bind get the unnamed binding
     for (int i = 0; i < ptr; i++) {
       tempBinding = entries[i];
       if (tempBinding.name == null) {
         tempBinding.name = name;
+        indexAdd(i);
+        modCount++;
         return tempBinding;
       }
     }
     // add new entry
     ensureCapacity(ptr);
     tempBinding = new Binding(name);
-    entries[ptr++] = tempBinding;
+    entries[ptr] = tempBinding;
+    indexAdd(ptr++);
+    modCount++;
     return tempBinding;
   }
 
@@ -228,32 +255,123 @@ public class Args implements IArgs {
   }
 
   public Object get(String name) {
-    for (int i = 0; i < ptr; i++) {
-      Binding entry = entries[i];
-      if (name.equals(entry.name) && entry.isDefined()) {
-        return entry.value;
-      }
+    int slot = indexOf(name);
+    if (slot >= 0 && entries[slot].isDefined()) {
+      return entries[slot].value;
     }
     return null;
   }
 
   public Object get(String name, Object defaultValue) {
-    for (int i = 0; i < ptr; i++) {
-      Binding entry = entries[i];
-      if (name.equals(entry.name) && entry.isDefined()) {
-        return entry.value;
-      }
+    int slot = indexOf(name);
+    if (slot >= 0 && entries[slot].isDefined()) {
+      return entries[slot].value;
     }
     return defaultValue;
   }
 
-  public boolean isDefined(String name) {
+  /**
+   * A counter that is incremented whenever a binding is added, removed,
+   * named or changes its value through this. A value set directly on an
+   * {@link IBinding} is not counted.
+   * <p>
+   * Clients may use this to validate information derived from this.
+   *
+   * @return The current modification count.
+   */
+  public int getModificationCount() {
+    return modCount;
+  }
+
+  /**
+   * Add the binding at <code>slot</code> to the name index, if the index is
+   * already in use.
+   */
+  private void indexAdd(int slot) {
+    if (index == null) {
+      return;
+    }
+    if ((indexSize + 1) * 2 > index.length) {
+      // keep load factor below 0.5 for short probe sequences
+      indexRebuild();
+    } else if (indexInsert(index, slot)) {
+      indexSize++;
+    }
+  }
+
+  private static int indexHash(String name) {
+    int h = name.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private boolean indexInsert(int[] table, int slot) {
+    String name = entries[slot].name;
+    if (name == null) {
+      return false;
+    }
+    int mask = table.length - 1;
+    int i = indexHash(name) & mask;
+    while (table[i] != 0) {
+      if (name.equals(entries[table[i] - 1].name)) {
+        // first binding wins
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+    table[i] = slot + 1;
+    return true;
+  }
+
+  /**
+   * The slot of the first binding named <code>name</code> or -1.
+   */
+  protected int indexOf(String name) {
+    if (ptr <= INDEX_THRESHOLD) {
+      for (int i = 0; i < ptr; i++) {
+        if (name.equals(entries[i].name)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    int[] table = index;
+    if (table == null) {
+      table = indexRebuild();
+    }
+    int mask = table.length - 1;
+    int i = indexHash(name) & mask;
+    int slot;
+    while ((slot = table[i]) != 0) {
+      if (name.equals(entries[slot - 1].name)) {
+        return slot - 1;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  private int[] indexRebuild() {
+    int size = 8;
+    while (size < ptr * 2 + 2) {
+      size <<= 1;
+    }
+    int[] table = new int[size];
+    int count = 0;
     for (int i = 0; i < ptr; i++) {
-      Binding entry = entries[i];
-      if (name.equals(entry.name)) {
-        return entry.isDefined();
+      if (indexInsert(table, i)) {
+        count++;
       }
     }
+    indexSize = count;
+    index = table;
+    return table;
+  }
+
+  public boolean isDefined(String name) {
+    int slot = indexOf(name);
+    if (slot >= 0) {
+      return entries[slot].isDefined();
+    }
     return false;
   }
 
@@ -292,26 +410,29 @@ public class Args implements IArgs {
       tempBinding = new Binding(null, value);
       entries[index] = tempBinding;
       ptr = index + 1;
+      modCount++;
     } else {
       tempBinding = entries[index];
       entries[index].setValue(value);
+      modCount++;
     }
     return tempBinding;
   }
 
   public IBinding put(String name, Object value) {
     Binding tempBinding;
-    for (int i = 0; i < ptr; i++) {
-      Binding entry = entries[i];
-      if (name.equals(entry.name)) {
-        tempBinding = entry;
-        entry.setValue(value);
-        return tempBinding;
-      }
+    int slot = indexOf(name);
+    if (slot >= 0) {
+      tempBinding = entries[slot];
+      tempBinding.setValue(value);
+      modCount++;
+      return tempBinding;
     }
     ensureCapacity(ptr);
     tempBinding = new Binding(name, value);
-    entries[ptr++] = tempBinding;
+    entries[ptr] = tempBinding;
+    indexAdd(ptr++);
+    modCount++;
     return tempBinding;
   }
 
@@ -327,16 +448,16 @@ public class Args implements IArgs {
   public void undefine(int index) {
     if (index < ptr) {
       entries[index].setValue(UNDEFINED);
+      modCount++;
     }
   }
 
   public void undefine(String name) {
-    Binding tempBinding;
     for (int i = 0; i < ptr; i++) {
       Binding entry = entries[i];
       if (name.equals(entry.name)) {
-        tempBinding = entry;
         entry.setValue(UNDEFINED);
+        modCount++;
       }
     }
   }
@@ -29,8 +29,12 @@
  */
 package de.intarsys.tools.functor;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -38,12 +42,36 @@ import java.util.Set;
  * An {@link IArgs} implementation allowing to concat two {@link IArgs}
  * together. Lookup will be performed in "args" first. If nothing is found,
  * lookup is done in "fallbackArgs".
+ * <p>
+ * When chains get deep, each lookup walks all of them. In "flattened" mode
+ * the visible named values of the whole chain are collected once in a single
+ * index that is reused until one of the underlying {@link Args} reports a
+ * modification. The index refers to the bindings, so values set directly on
+ * a binding are seen as well. Flattening is only possible if the chain is built from
+ * {@link Args} and {@link ChainedArgs} alone, otherwise lookup falls back to
+ * walking the chain.
  */
 public class ChainedArgs implements IArgs {
 
   private IArgs args;
   private IArgs fallbackArgs;
 
+  private boolean flattened;
+
+  /**
+   * The leaf {@link Args} of this chain in lookup order, null if not yet
+   * computed, an empty array if the chain can not be flattened.
+   */
+  private Args[] flatLayers;
+
+  /**
+   * The modification counts of {@link #flatLayers} when {@link #flatIndex}
+   * was built.
+   */
+  private int[] flatStamps;
+
+  private Map<String, IBinding> flatIndex;
+
   /**
    * Create new {@link ChainedArgs} where <code>args</code> are always looked
    * up first. If lookup fails, <code>fallbackArgs</code> are used.
@@ -142,6 +170,25 @@ public class ChainedArgs implements IArgs {
     };
   }
 
+  /**
+   * Collect the leaf {@link Args} of <code>value</code> in lookup order.
+   *
+   * @return <code>false</code> if the chain contains other {@link IArgs}
+   * implementations.
+   */
+  protected static boolean collectLayers(IArgs value, List<Args> layers) {
+    if (value instanceof Args) {
+      layers.add((Args) value);
+      return true;
+    }
+    if (value instanceof ChainedArgs) {
+      ChainedArgs chained = (ChainedArgs) value;
+      return collectLayers(chained.args, layers)
+          && collectLayers(chained.fallbackArgs, layers);
+    }
+    return false;
+  }
+
   public void clear() {
     args.clear();
   }
@@ -211,6 +258,19 @@ public class ChainedArgs implements IArgs {
    * @see de.intarsys.tools.functor.IArgs#get(java.lang.String)
    */
   public Object get(String name) {
+    Map<String, IBinding> index = getFlatIndex();
+    if (index != null) {
+      IBinding binding = index.get(name);
+      if (binding == null) {
+        // not defined anywhere
+        return null;
+      }
+      Object value = binding.getValue();
+      if (!(value instanceof IArgs)) {
+        return value;
+      }
+      // nested args are merged and created on demand by the chain
+    }
     Object result = args.get(name);
     if (result == null) {
       if (!args.isDefined(name)) {
@@ -266,13 +326,83 @@ public class ChainedArgs implements IArgs {
     return fallbackArgs;
   }
 
+  /**
+   * The flattened index for named lookup, rebuilt if one of the layers was
+   * modified since its creation. <code>null</code> if not in flattened mode
+   * or the chain can not be flattened.
+   *
+   * @return The flattened index for named lookup.
+   */
+  protected Map<String, IBinding> getFlatIndex() {
+    if (!flattened) {
+      return null;
+    }
+    if (flatLayers == null) {
+      List<Args> layers = new ArrayList<Args>();
+      if (collectLayers(this, layers)) {
+        flatLayers = layers.toArray(new Args[layers.size()]);
+      } else {
+        flatLayers = new Args[0];
+      }
+    }
+    if (flatLayers.length == 0) {
+      return null;
+    }
+    if (flatIndex != null) {
+      int i = 0;
+      while (i < flatLayers.length
+          && flatLayers[i].getModificationCount() == flatStamps[i]) {
+        i++;
+      }
+      if (i == flatLayers.length) {
+        return flatIndex;
+      }
+    }
+    Map<String, IBinding> index = new HashMap<String, IBinding>();
+    Set<String> names = new HashSet<String>();
+    int[] stamps = new int[flatLayers.length];
+    // visit from the last fallback to the front, so that earlier layers win
+    for (int i = flatLayers.length - 1; i >= 0; i--) {
+      Args layer = flatLayers[i];
+      stamps[i] = layer.getModificationCount();
+      names.clear();
+      for (Iterator<IBinding> it = layer.bindings(); it.hasNext(); ) {
+        IBinding binding = it.next();
+        String name = binding.getName();
+        // like Args, only the first binding of a name is visible
+        if (name == null || !names.add(name) || !binding.isDefined()) {
+          continue;
+        }
+        index.put(name, binding);
+      }
+    }
+    flatIndex = index;
+    flatStamps = stamps;
+    return flatIndex;
+  }
+
   public boolean isDefined(String name) {
+    Map<String, IBinding> index = getFlatIndex();
+    if (index != null) {
+      return index.containsKey(name);
+    }
     if (args.isDefined(name)) {
       return true;
     }
     return fallbackArgs.isDefined(name);
   }
 
+  /**
+   * <code>true</code> if named lookup uses a flattened index of the whole
+   * chain.
+   *
+   * @return <code>true</code> if named lookup uses a flattened index of the
+   * whole chain.
+   */
+  public boolean isFlattened() {
+    return flattened;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -310,6 +440,19 @@ public class ChainedArgs implements IArgs {
     return args.put(name, value);
   }
 
+  /**
+   * Switch flattened lookup on or off.
+   *
+   * @param flattened <code>true</code> if named lookup should use a flattened
+   *                  index of the whole chain.
+   */
+  public void setFlattened(boolean flattened) {
+    this.flattened = flattened;
+    flatLayers = null;
+    flatIndex = null;
+    flatStamps = null;
+  }
+
   public int size() {
     return names().size();
   }
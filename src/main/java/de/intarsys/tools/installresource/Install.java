@@ -31,6 +31,7 @@ package de.intarsys.tools.installresource;
 
 import de.intarsys.tools.exception.ExceptionTools;
 import de.intarsys.tools.file.FileTools;
+import de.intarsys.tools.locator.ClassPathResourceIndex;
 import de.intarsys.tools.stream.StreamTools;
 import de.intarsys.tools.string.StringTools;
 import de.intarsys.tools.system.SystemTools;
@@ -341,6 +342,11 @@ abstract public class Install {
 
   protected Enumeration<URL> open(String name) throws IOException {
     String resourceName = prefix(name);
+    ClassPathResourceIndex index = ClassPathResourceIndex
+        .lookup(getClassLoader());
+    if (index != null && index.covers(resourceName)) {
+      return index.getResourcesEnumeration(resourceName);
+    }
     return getClassLoader().getResources(resourceName);
   }
 
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.locator;
+
+import de.intarsys.tools.charset.ICharsetSupport;
+import de.intarsys.tools.component.ISynchronizable;
+import de.intarsys.tools.randomaccess.IRandomAccess;
+import de.intarsys.tools.randomaccess.RandomAccessByteArray;
+import de.intarsys.tools.stream.StreamTools;
+import de.intarsys.tools.string.StringTools;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+
+/**
+ * An {@link ILocator} serving its content from a cache held by a
+ * {@link CachingLocatorFactory}.
+ * <p>
+ * The content of the delegate is read completely on first access and shared
+ * by all {@link CachingLocator} instances with the same full name. Cached
+ * content is validated against the modification time and length of the
+ * delegate, or against {@link ILocator#isOutOfSynch()} if the modification
+ * time is not known.
+ * Validation is performed at most once per validation interval of the
+ * factory.
+ * <p>
+ * Content larger than the factory's maximum content size is not cached, and
+ * at most this many bytes are read to find out.
+ * <p>
+ * Writing through the locator invalidates the cached content.
+ */
+public class CachingLocator extends DelegatingLocator {
+
+  /**
+   * The cached content of a locator.
+   */
+  static class Content implements ISynchronizable {
+
+    final private ILocator source;
+
+    final private byte[] bytes;
+
+    final private long lastModified;
+
+    final private long length;
+
+    final private CachingLocatorFactory factory;
+
+    private volatile long validated;
+
+    private volatile boolean outOfSynch;
+
+    protected Content(ILocator source, byte[] bytes, long lastModified,
+                      long length, CachingLocatorFactory factory) {
+      this.source = source;
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.factory = factory;
+      this.validated = System.currentTimeMillis();
+    }
+
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see de.intarsys.tools.component.ISynchronizable#isOutOfSynch()
+     */
+    public boolean isOutOfSynch() {
+      if (outOfSynch) {
+        return true;
+      }
+      long now = System.currentTimeMillis();
+      if (now - validated < factory.getValidationInterval()) {
+        return false;
+      }
+      validated = now;
+      if (lastModified == -1) {
+        // a different length is conclusive, otherwise ask the source
+        outOfSynch = (length != -1 && length != getLength(source))
+            || source.isOutOfSynch();
+      } else {
+        outOfSynch = lastModified != getLastModified(source)
+            || length != getLength(source);
+      }
+      return outOfSynch;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see de.intarsys.tools.component.ISynchronizable#synch()
+     */
+    public void synch() {
+      // force validation on next access
+      validated = 0;
+    }
+  }
+
+  /**
+   * The modification time of <code>locator</code>, or -1 if unknown.
+   */
+  protected static long getLastModified(ILocator locator) {
+    if (locator instanceof FileLocator) {
+      File file = ((FileLocator) locator).getFile();
+      if (file != null && file.exists()) {
+        return file.lastModified();
+      }
+      return 0;
+    }
+    return -1;
+  }
+
+  /**
+   * The length of <code>locator</code>, or -1 if unknown.
+   */
+  protected static long getLength(ILocator locator) {
+    try {
+      return locator.getLength();
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  final private CachingLocatorFactory factory;
+
+  public CachingLocator(ILocator delegate, CachingLocatorFactory factory) {
+    super(delegate);
+    this.factory = factory;
+  }
+
+  @Override
+  public void delete() throws IOException {
+    invalidate();
+    super.delete();
+  }
+
+  @Override
+  public ILocator getChild(String name) {
+    return wrap(super.getChild(name));
+  }
+
+  /**
+   * The cached content, or null if the content is too large to be cached.
+   *
+   * @return The cached content, or null.
+   * @throws IOException
+   */
+  protected Content getContent() throws IOException {
+    return getContent(null);
+  }
+
+  /**
+   * The cached content, or null if the content is too large to be cached.
+   * <p>
+   * If the content turns out to be too large while reading and
+   * <code>overflow</code> is not null, a stream on the complete content is
+   * stored in <code>overflow[0]</code>. Otherwise the stream is closed.
+   *
+   * @param overflow Receives the stream on content too large to be cached.
+   * @return The cached content, or null.
+   * @throws IOException
+   */
+  protected Content getContent(InputStream[] overflow) throws IOException {
+    String key = getFullName();
+    Content content = factory.getCache().get(key);
+    if (content != null) {
+      return content;
+    }
+    ILocator source = getDelegate();
+    long lastModified = getLastModified(source);
+    if (lastModified == -1 && source.isOutOfSynch()) {
+      // validate the new content against the current state
+      source.synch();
+    }
+    long length = getLength(source);
+    if (length > factory.getMaxContentSize()) {
+      return null;
+    }
+    int maxSize = factory.getMaxContentSize();
+    InputStream is = source.getInputStream();
+    byte[] bytes = readContent(is, (int) Math.max(0, length), maxSize);
+    if (bytes.length > maxSize) {
+      if (overflow == null) {
+        StreamTools.close(is);
+      } else {
+        overflow[0] = new SequenceInputStream(new ByteArrayInputStream(
+            bytes), is);
+      }
+      return null;
+    }
+    content = new Content(source, bytes, lastModified, length, factory);
+    factory.getCache().put(key, content);
+    return content;
+  }
+
+  public CachingLocatorFactory getFactory() {
+    return factory;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    InputStream[] overflow = new InputStream[1];
+    Content content = getContent(overflow);
+    if (content == null) {
+      if (overflow[0] != null) {
+        return overflow[0];
+      }
+      return super.getInputStream();
+    }
+    return new ByteArrayInputStream(content.getBytes());
+  }
+
+  @Override
+  public long getLength() throws IOException {
+    Content content = factory.getCache().get(getFullName());
+    if (content != null) {
+      return content.getBytes().length;
+    }
+    return super.getLength();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    invalidate();
+    return new FilterOutputStream(super.getOutputStream()) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          invalidate();
+        }
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+    };
+  }
+
+  @Override
+  public ILocator getParent() {
+    return wrap(super.getParent());
+  }
+
+  /**
+   * A read only {@link IRandomAccess} on a copy of the cached content.
+   *
+   * @see de.intarsys.tools.locator.DelegatingLocator#getRandomAccess()
+   */
+  @Override
+  public IRandomAccess getRandomAccess() throws IOException {
+    Content content = getContent();
+    if (content == null) {
+      return super.getRandomAccess();
+    }
+    // the array must not be modified
+    return new RandomAccessByteArray(content.getBytes().clone());
+  }
+
+  @Override
+  public Reader getReader() throws IOException {
+    String charset = null;
+    ILocator delegate = getDelegate();
+    if (delegate instanceof ICharsetSupport) {
+      charset = ((ICharsetSupport) delegate).getCharset();
+    }
+    return getReader(charset);
+  }
+
+  @Override
+  public Reader getReader(String encoding) throws IOException {
+    Content content = getContent();
+    if (content == null) {
+      if (StringTools.isEmpty(encoding)) {
+        return super.getReader();
+      }
+      return super.getReader(encoding);
+    }
+    InputStream is = new ByteArrayInputStream(content.getBytes());
+    if (StringTools.isEmpty(encoding)) {
+      return new InputStreamReader(is);
+    }
+    return new InputStreamReader(is, encoding);
+  }
+
+  @Override
+  public Writer getWriter() throws IOException {
+    String charset = null;
+    ILocator delegate = getDelegate();
+    if (delegate instanceof ICharsetSupport) {
+      charset = ((ICharsetSupport) delegate).getCharset();
+    }
+    return getWriter(charset);
+  }
+
+  @Override
+  public Writer getWriter(String encoding) throws IOException {
+    if (StringTools.isEmpty(encoding)) {
+      return new OutputStreamWriter(getOutputStream());
+    }
+    return new OutputStreamWriter(getOutputStream(), encoding);
+  }
+
+  /**
+   * Remove the content of this locator from the cache.
+   */
+  public void invalidate() {
+    factory.getCache().remove(getFullName());
+  }
+
+  @Override
+  public ILocator[] listLocators(ILocatorNameFilter filter)
+      throws IOException {
+    ILocator[] result = super.listLocators(filter);
+    if (result != null) {
+      for (int i = 0; i < result.length; i++) {
+        result[i] = wrap(result[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read at most <code>maxSize</code> + 1 bytes from <code>is</code>.
+   * <p>
+   * If the content fits in <code>maxSize</code> bytes, it is returned and the
+   * stream is closed. Otherwise the first <code>maxSize</code> + 1 bytes are
+   * returned and the stream is left open.
+   */
+  protected byte[] readContent(InputStream is, int sizeHint, int maxSize)
+      throws IOException {
+    boolean keepOpen = false;
+    try {
+      byte[] result = new byte[Math.min(sizeHint > 0 ? sizeHint : 4096,
+          maxSize) + 1];
+      int count = 0;
+      while (count <= maxSize) {
+        if (count == result.length) {
+          byte[] newResult = new byte[(int) Math.min(
+              (long) result.length * 2, (long) maxSize + 1)];
+          System.arraycopy(result, 0, newResult, 0, count);
+          result = newResult;
+        }
+        int read = is.read(result, count, result.length - count);
+        if (read == -1) {
+          break;
+        }
+        count += read;
+      }
+      if (count > maxSize) {
+        keepOpen = true;
+        return result;
+      }
+      if (count == result.length) {
+        return result;
+      }
+      byte[] shortResult = new byte[count];
+      System.arraycopy(result, 0, shortResult, 0, count);
+      return shortResult;
+    } finally {
+      if (!keepOpen) {
+        StreamTools.close(is);
+      }
+    }
+  }
+
+  @Override
+  public void rename(String newName) throws IOException {
+    invalidate();
+    super.rename(newName);
+  }
+
+  @Override
+  public void synch() {
+    super.synch();
+    Content content = factory.getCache().get(getFullName());
+    if (content != null) {
+      content.synch();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getFullName();
+  }
+
+  protected ILocator wrap(ILocator locator) {
+    if (locator == null || locator instanceof CachingLocator) {
+      return locator;
+    }
+    return new CachingLocator(locator, factory);
+  }
+}
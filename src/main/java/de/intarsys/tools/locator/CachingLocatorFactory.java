@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.locator;
+
+import de.intarsys.tools.cache.ConcurrentCache;
+import de.intarsys.tools.cache.IWeigher;
+
+import java.io.IOException;
+
+/**
+ * An {@link ILocatorFactory} wrapping the locators of another factory in
+ * {@link CachingLocator} instances, sharing a content cache bounded by size
+ * in bytes.
+ */
+public class CachingLocatorFactory extends DelegatingLocatorFactory {
+
+  public static final long DEFAULT_MAXIMUM_SIZE = 16 * 1024 * 1024;
+
+  public static final int DEFAULT_MAX_CONTENT_SIZE = 1024 * 1024;
+
+  public static final long DEFAULT_VALIDATION_INTERVAL = 1000;
+
+  /**
+   * The approximate overhead of a cache entry
+   */
+  private static final int ENTRY_OVERHEAD = 128;
+
+  final private ConcurrentCache<CachingLocator.Content> cache;
+
+  private int maxContentSize = DEFAULT_MAX_CONTENT_SIZE;
+
+  private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+
+  public CachingLocatorFactory(ILocatorFactory factory) {
+    this(factory, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * @param factory     The factory creating the locators to be cached.
+   * @param maximumSize The maximum number of bytes held in the cache.
+   */
+  public CachingLocatorFactory(ILocatorFactory factory, long maximumSize) {
+    super(factory);
+    this.cache = new ConcurrentCache<CachingLocator.Content>(maximumSize,
+        new IWeigher<CachingLocator.Content>() {
+          public int weigh(Object key, CachingLocator.Content value) {
+            return value.getBytes().length + ENTRY_OVERHEAD;
+          }
+        });
+  }
+
+  /**
+   * Remove all content from the cache.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  @Override
+  public ILocator createLocator(String location) throws IOException {
+    ILocator locator = super.createLocator(location);
+    if (locator == null) {
+      return null;
+    }
+    return new CachingLocator(locator, this);
+  }
+
+  protected ConcurrentCache<CachingLocator.Content> getCache() {
+    return cache;
+  }
+
+  public long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  public int getMaxContentSize() {
+    return maxContentSize;
+  }
+
+  public long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  public long getValidationInterval() {
+    return validationInterval;
+  }
+
+  /**
+   * The maximum size of a single content to be cached. Larger content is
+   * always read from the source.
+   *
+   * @param maxContentSize
+   */
+  public void setMaxContentSize(int maxContentSize) {
+    this.maxContentSize = maxContentSize;
+  }
+
+  /**
+   * The minimum time in milliseconds between two validations of cached
+   * content. 0 validates on every access.
+   *
+   * @param validationInterval
+   */
+  public void setValidationInterval(long validationInterval) {
+    this.validationInterval = validationInterval;
+  }
+}
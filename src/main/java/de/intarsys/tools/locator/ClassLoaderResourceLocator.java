@@ -40,6 +40,8 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An {@link ILocator} for java resources identified directly by a class loader.
@@ -83,6 +85,10 @@ public class ClassLoaderResourceLocator extends CommonLocator {
    * @see de.intarsys.tools.locator.ILocator#exists()
    */
   public boolean exists() {
+    ClassPathResourceIndex index = getIndex();
+    if (index != null) {
+      return index.exists(getName());
+    }
     return getClassLoader().getResource(getName()) != null;
   }
 
@@ -107,6 +113,20 @@ public class ClassLoaderResourceLocator extends CommonLocator {
     return classLoader;
   }
 
+  /**
+   * The {@link ClassPathResourceIndex} answering lookups for this, or null.
+   *
+   * @return The {@link ClassPathResourceIndex} answering lookups for this.
+   */
+  protected ClassPathResourceIndex getIndex() {
+    ClassPathResourceIndex index = ClassPathResourceIndex
+        .lookup(getClassLoader());
+    if (index != null && index.covers(getName())) {
+      return index;
+    }
+    return null;
+  }
+
   protected String getEncoding() {
     return encoding;
   }
@@ -130,6 +150,10 @@ public class ClassLoaderResourceLocator extends CommonLocator {
    * @see de.intarsys.tools.locator.ILocator#getInputStream()
    */
   public InputStream getInputStream() throws IOException {
+    ClassPathResourceIndex index = getIndex();
+    if (index != null && !index.exists(getName())) {
+      return null;
+    }
     return getClassLoader().getResourceAsStream(getName());
   }
 
@@ -275,6 +299,10 @@ public class ClassLoaderResourceLocator extends CommonLocator {
    * @see de.intarsys.tools.locator.ILocator#isDirectory()
    */
   public boolean isDirectory() {
+    ClassPathResourceIndex index = getIndex();
+    if (index != null) {
+      return index.isDirectory(getName());
+    }
     return false;
   }
 
@@ -315,7 +343,21 @@ public class ClassLoaderResourceLocator extends CommonLocator {
    */
   public ILocator[] listLocators(final ILocatorNameFilter filter)
       throws IOException {
-    return new ILocator[0];
+    ClassPathResourceIndex index = getIndex();
+    if (index == null) {
+      return new ILocator[0];
+    }
+    String[] names = index.list(getName());
+    if (names == null) {
+      return new ILocator[0];
+    }
+    List<ILocator> result = new ArrayList<ILocator>(names.length);
+    for (String childName : names) {
+      if (filter == null || filter.accept(this, childName)) {
+        result.add(getChild(childName));
+      }
+    }
+    return result.toArray(new ILocator[result.size()]);
   }
 
   /*
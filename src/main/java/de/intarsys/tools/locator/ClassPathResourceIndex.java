@@ -0,0 +1,728 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.locator;
+
+import de.intarsys.tools.concurrent.DaemonThreadFactory;
+import de.intarsys.tools.logging.LogTools;
+import de.intarsys.tools.stream.StreamTools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+/**
+ * An index of the resources visible to a {@link ClassLoader}, built once by
+ * listing the jar files and directories of its class path.
+ * <p>
+ * Resource lookups via the {@link ClassLoader} search every class path entry
+ * on each miss. The index answers {@link #exists(String)},
+ * {@link #getResources(String)} and {@link #list(String)} from a hash map,
+ * including negative answers.
+ * <p>
+ * The class path entries are indexed in parallel. Jar files, including those
+ * referenced by a manifest "Class-Path", are indexed in class loader order.
+ * With a cache directory the listing of the jar files is persisted to a
+ * file named by the hash of the class path and reused as long as the jar
+ * files are unchanged. Directories are always listed.
+ * <p>
+ * The index is only usable if all class path entries of the class loader
+ * chain are local files ({@link #isComplete()}). The resources of the Java
+ * runtime are indexed if it provides a boot class path. Otherwise names not
+ * found in the index are looked up in the class loader of the runtime.
+ * <p>
+ * Indexes are made available to the locators and other lookups in this
+ * library using {@link #register(ClassLoader, ClassPathResourceIndex)}. If
+ * the system property {@link #PROPERTY_INDEX} is set, an index for the
+ * system class loader is created on first lookup. Its value is either "true"
+ * or the cache directory.
+ */
+public class ClassPathResourceIndex {
+
+  public static final String PROPERTY_INDEX = "de.intarsys.tools.locator.classPathIndex";
+
+  private static final Logger Log = LogTools
+      .getLogger(ClassPathResourceIndex.class);
+
+  private static final int CACHE_MAGIC = 0x49445831;
+
+  private static final Map<ClassLoader, ClassPathResourceIndex> Indexes = new WeakHashMap<ClassLoader, ClassPathResourceIndex>();
+
+  private static boolean systemIndexChecked = false;
+
+  /**
+   * The listing of a single class path entry.
+   */
+  static class Root {
+
+    final URL url;
+
+    final File file;
+
+    final boolean jar;
+
+    long lastModified;
+
+    long length;
+
+    List<String> names = new ArrayList<String>();
+
+    List<URL> classPath = new ArrayList<URL>();
+
+    Root(URL url, File file) {
+      this.url = url;
+      this.file = file;
+      this.jar = !file.isDirectory();
+    }
+
+    boolean isUnchanged(Root other) {
+      return other != null && jar && other.jar
+          && lastModified == other.lastModified && length == other.length;
+    }
+  }
+
+  /**
+   * Create an index for <code>loader</code>. If <code>cacheDirectory</code>
+   * is not null the listing of the jar files is cached in this directory.
+   *
+   * @param loader
+   * @param cacheDirectory
+   * @return The new index
+   * @throws IOException
+   */
+  public static ClassPathResourceIndex create(ClassLoader loader,
+                                              File cacheDirectory) throws IOException {
+    ClassPathResourceIndex index = new ClassPathResourceIndex();
+    index.build(loader, cacheDirectory);
+    return index;
+  }
+
+  protected static File toFile(URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException e) {
+      try {
+        return new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+      } catch (UnsupportedEncodingException ex) {
+        return null;
+      }
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The index registered for <code>loader</code>, or null.
+   *
+   * @param loader
+   * @return The index registered for <code>loader</code>, or null.
+   */
+  synchronized public static ClassPathResourceIndex lookup(ClassLoader loader) {
+    if (loader == null) {
+      return null;
+    }
+    ClassPathResourceIndex index = Indexes.get(loader);
+    if (index == null && !systemIndexChecked
+        && loader == ClassLoader.getSystemClassLoader()) {
+      systemIndexChecked = true;
+      String value = System.getProperty(PROPERTY_INDEX);
+      if (value != null && !"false".equals(value)) {
+        File cacheDirectory = "true".equals(value) ? null : new File(value);
+        try {
+          index = create(loader, cacheDirectory);
+          Indexes.put(loader, index);
+        } catch (IOException e) {
+          Log.log(Level.WARNING, "class path index failed", e);
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Make <code>index</code> available for lookups via <code>loader</code>.
+   *
+   * @param loader
+   * @param index
+   */
+  synchronized public static void register(ClassLoader loader,
+                                           ClassPathResourceIndex index) {
+    Indexes.put(loader, index);
+  }
+
+  synchronized public static void unregister(ClassLoader loader) {
+    Indexes.remove(loader);
+  }
+
+  private boolean complete = true;
+
+  private boolean runtimeIndexed = false;
+
+  /**
+   * The class loader serving the Java runtime if its resources are not
+   * indexed.
+   */
+  private ClassLoader runtimeLoader;
+
+  private final List<Root> roots = new ArrayList<Root>();
+
+  /**
+   * The indexes of the roots containing a resource, in class path order
+   */
+  private final Map<String, int[]> resources = new HashMap<String, int[]>();
+
+  /**
+   * The child names of each directory, "" is the root
+   */
+  private final Map<String, Set<String>> directories = new HashMap<String, Set<String>>();
+
+  protected ClassPathResourceIndex() {
+    super();
+    directories.put("", new LinkedHashSet<String>());
+  }
+
+  protected void addDirectory(String dir, int rootIndex) {
+    if (!directories.containsKey(dir)) {
+      directories.put(dir, new LinkedHashSet<String>());
+    }
+    if (!addResource(dir, rootIndex)) {
+      return;
+    }
+    int pos = dir.lastIndexOf('/');
+    String parent = pos < 0 ? "" : dir.substring(0, pos);
+    if (parent.length() > 0) {
+      addDirectory(parent, rootIndex);
+    }
+    directories.get(parent).add(dir.substring(pos + 1));
+  }
+
+  protected void addPath(List<URL> urls, String path) {
+    StringTokenizer tokenizer = new StringTokenizer(path,
+        File.pathSeparator);
+    while (tokenizer.hasMoreTokens()) {
+      File file = new File(tokenizer.nextToken());
+      try {
+        urls.add(file.toURI().toURL());
+      } catch (MalformedURLException e) {
+        complete = false;
+      }
+    }
+  }
+
+  /**
+   * Add <code>rootIndex</code> to the roots of <code>name</code>.
+   *
+   * @return <code>true</code> if the root was not yet registered.
+   */
+  protected boolean addResource(String name, int rootIndex) {
+    int[] indexes = resources.get(name);
+    if (indexes == null) {
+      resources.put(name, new int[]{rootIndex});
+      return true;
+    }
+    if (indexes[indexes.length - 1] == rootIndex) {
+      return false;
+    }
+    int[] newIndexes = new int[indexes.length + 1];
+    System.arraycopy(indexes, 0, newIndexes, 0, indexes.length);
+    newIndexes[indexes.length] = rootIndex;
+    resources.put(name, newIndexes);
+    return true;
+  }
+
+  protected void build(ClassLoader loader, File cacheDirectory)
+      throws IOException {
+    List<URL> urls = collectURLs(loader);
+    if (!complete) {
+      return;
+    }
+    File cacheFile = null;
+    Map<String, Root> cached = Collections.emptyMap();
+    if (cacheDirectory != null) {
+      cacheFile = new File(cacheDirectory, "classpath-"
+          + Integer.toHexString(urls.toString().hashCode()) + ".idx");
+      cached = readCache(cacheFile);
+    }
+    Map<String, Root> listed = listRoots(urls, cached);
+    if (!complete) {
+      return;
+    }
+    // class loader order, "Class-Path" entries follow their jar file
+    Set<String> visited = new HashSet<String>();
+    for (URL url : urls) {
+      order(listed, url, visited);
+    }
+    for (int i = 0; i < roots.size(); i++) {
+      Root root = roots.get(i);
+      for (String name : root.names) {
+        int pos = name.lastIndexOf('/');
+        if (pos > 0) {
+          addDirectory(name.substring(0, pos), i);
+        }
+        if (addResource(name, i)) {
+          String parent = pos < 0 ? "" : name.substring(0, pos);
+          directories.get(parent).add(name.substring(pos + 1));
+        }
+      }
+    }
+    if (cacheFile != null) {
+      boolean changed = false;
+      for (Root root : roots) {
+        if (root.jar && !root.isUnchanged(cached.get(root.url.toString()))) {
+          changed = true;
+        }
+      }
+      if (changed || cached.size() != countJars()) {
+        writeCache(cacheFile);
+      }
+    }
+  }
+
+  protected List<URL> collectURLs(ClassLoader loader) {
+    List<ClassLoader> chain = new ArrayList<ClassLoader>();
+    for (ClassLoader current = loader; current != null; current = current
+        .getParent()) {
+      chain.add(0, current);
+    }
+    List<URL> urls = new ArrayList<URL>();
+    String bootClassPath = System.getProperty("sun.boot.class.path");
+    if (bootClassPath != null) {
+      runtimeIndexed = true;
+      addPath(urls, bootClassPath);
+    }
+    ClassLoader system = ClassLoader.getSystemClassLoader();
+    for (ClassLoader current : chain) {
+      if (current instanceof URLClassLoader) {
+        URL[] loaderURLs = ((URLClassLoader) current).getURLs();
+        for (URL url : loaderURLs) {
+          urls.add(url);
+        }
+      } else if (current == system) {
+        addPath(urls, System.getProperty("java.class.path", ""));
+      } else if (system != null && current == system.getParent()) {
+        // the platform class loader serves the runtime only
+        runtimeIndexed = false;
+        runtimeLoader = current;
+      } else {
+        complete = false;
+      }
+    }
+    return urls;
+  }
+
+  protected int countJars() {
+    int count = 0;
+    for (Root root : roots) {
+      if (root.jar) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * <code>true</code> if the index can answer lookups of <code>name</code>.
+   *
+   * @param name
+   * @return <code>true</code> if the index can answer lookups of
+   * <code>name</code>.
+   */
+  public boolean covers(String name) {
+    return complete && (runtimeIndexed || runtimeLoader != null);
+  }
+
+  /**
+   * <code>true</code> if a resource or directory <code>name</code> exists.
+   *
+   * @param name
+   * @return <code>true</code> if a resource or directory <code>name</code>
+   * exists.
+   */
+  public boolean exists(String name) {
+    name = normalize(name);
+    if (resources.containsKey(name)) {
+      return true;
+    }
+    return runtimeLoader != null && runtimeLoader.getResource(name) != null;
+  }
+
+  /**
+   * The URLs of all resources named <code>name</code> in class loader order.
+   *
+   * @param name
+   * @return The URLs of all resources named <code>name</code>.
+   */
+  public List<URL> getResources(String name) {
+    name = normalize(name);
+    List<URL> result = new ArrayList<URL>();
+    if (runtimeLoader != null) {
+      // the runtime comes first in class loader order
+      try {
+        result.addAll(Collections.list(runtimeLoader.getResources(name)));
+      } catch (IOException e) {
+        Log.log(Level.FINEST, "runtime resource lookup failed", e);
+      }
+    }
+    int[] indexes = resources.get(name);
+    if (indexes == null) {
+      return result;
+    }
+    for (int index : indexes) {
+      Root root = roots.get(index);
+      try {
+        if (root.jar) {
+          result.add(new URL("jar:" + root.url.toExternalForm() + "!/"
+              + name));
+        } else {
+          result.add(new URL(root.url, name));
+        }
+      } catch (MalformedURLException e) {
+        Log.log(Level.FINEST, "invalid resource url", e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The URLs of all resources named <code>name</code> in class loader order.
+   *
+   * @param name
+   * @return The URLs of all resources named <code>name</code>.
+   */
+  public Enumeration<URL> getResourcesEnumeration(String name) {
+    return Collections.enumeration(getResources(name));
+  }
+
+  /**
+   * The number of indexed names, including directories.
+   *
+   * @return The number of indexed names.
+   */
+  public int getSize() {
+    return resources.size();
+  }
+
+  /**
+   * <code>true</code> if all class path entries could be indexed.
+   *
+   * @return <code>true</code> if all class path entries could be indexed.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public boolean isDirectory(String name) {
+    return directories.containsKey(normalize(name));
+  }
+
+  /**
+   * The names of the children of directory <code>name</code> or null if
+   * there is no such directory.
+   *
+   * @param name
+   * @return The names of the children of directory <code>name</code>.
+   */
+  public String[] list(String name) {
+    Set<String> children = directories.get(normalize(name));
+    if (children == null) {
+      return null;
+    }
+    return children.toArray(new String[children.size()]);
+  }
+
+  protected void listJar(Root root) throws IOException {
+    root.lastModified = root.file.lastModified();
+    root.length = root.file.length();
+    JarFile jar = new JarFile(root.file, false);
+    try {
+      for (Enumeration<? extends ZipEntry> e = jar.entries(); e
+          .hasMoreElements(); ) {
+        String name = normalize(e.nextElement().getName());
+        if (name.length() > 0) {
+          root.names.add(name);
+        }
+      }
+      Manifest manifest = jar.getManifest();
+      if (manifest != null) {
+        String classPath = manifest.getMainAttributes().getValue(
+            Attributes.Name.CLASS_PATH);
+        if (classPath != null) {
+          StringTokenizer tokenizer = new StringTokenizer(classPath);
+          while (tokenizer.hasMoreTokens()) {
+            try {
+              root.classPath.add(new URL(root.url, tokenizer.nextToken()));
+            } catch (MalformedURLException ex) {
+              // ignore, like the class loader
+            }
+          }
+        }
+      }
+    } finally {
+      jar.close();
+    }
+  }
+
+  protected void listDirectory(Root root, File dir, String prefix) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = prefix + file.getName();
+      root.names.add(name);
+      if (file.isDirectory()) {
+        listDirectory(root, file, name + "/");
+      }
+    }
+  }
+
+  protected Root listRoot(URL url, Map<String, Root> cached)
+      throws IOException {
+    File file = toFile(url);
+    Root root = new Root(url, file);
+    if (!file.exists()) {
+      return root;
+    }
+    if (root.jar) {
+      Root old = cached.get(url.toString());
+      if (old != null && old.lastModified == file.lastModified()
+          && old.length == file.length()) {
+        return old;
+      }
+      listJar(root);
+    } else {
+      listDirectory(root, file, "");
+    }
+    return root;
+  }
+
+  /**
+   * List all roots reachable from <code>urls</code> in parallel.
+   */
+  protected Map<String, Root> listRoots(List<URL> urls,
+                                        final Map<String, Root> cached) throws IOException {
+    Map<String, Root> listed = new HashMap<String, Root>();
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new DaemonThreadFactory("class path index"));
+    try {
+      List<URL> pending = new ArrayList<URL>(urls);
+      while (!pending.isEmpty()) {
+        Map<String, Future<Root>> futures = new HashMap<String, Future<Root>>();
+        for (final URL url : pending) {
+          String key = url.toString();
+          if (listed.containsKey(key) || futures.containsKey(key)) {
+            continue;
+          }
+          if (toFile(url) == null) {
+            complete = false;
+            return listed;
+          }
+          futures.put(key, executor.submit(new Callable<Root>() {
+            public Root call() throws IOException {
+              return listRoot(url, cached);
+            }
+          }));
+        }
+        pending = new ArrayList<URL>();
+        for (Map.Entry<String, Future<Root>> entry : futures.entrySet()) {
+          Root root;
+          try {
+            root = entry.getValue().get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("class path indexing interrupted");
+          } catch (ExecutionException e) {
+            // the class loader would skip this entry, too
+            Log.log(Level.FINE, "can't index " + entry.getKey(), e.getCause());
+            continue;
+          }
+          listed.put(entry.getKey(), root);
+          pending.addAll(root.classPath);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return listed;
+  }
+
+  protected String normalize(String name) {
+    if (name == null) {
+      return "";
+    }
+    int start = 0;
+    int end = name.length();
+    while (start < end && name.charAt(start) == '/') {
+      start++;
+    }
+    while (end > start && name.charAt(end - 1) == '/') {
+      end--;
+    }
+    if (start == 0 && end == name.length()) {
+      return name;
+    }
+    return name.substring(start, end);
+  }
+
+  protected void order(Map<String, Root> listed, URL url, Set<String> visited) {
+    String key = url.toString();
+    if (!visited.add(key)) {
+      return;
+    }
+    Root root = listed.get(key);
+    if (root == null) {
+      return;
+    }
+    roots.add(root);
+    for (URL classPathURL : root.classPath) {
+      order(listed, classPathURL, visited);
+    }
+  }
+
+  protected Map<String, Root> readCache(File cacheFile) {
+    Map<String, Root> result = new HashMap<String, Root>();
+    if (!cacheFile.exists()) {
+      return result;
+    }
+    DataInputStream is = null;
+    try {
+      is = new DataInputStream(new BufferedInputStream(new FileInputStream(
+          cacheFile)));
+      if (is.readInt() != CACHE_MAGIC) {
+        return result;
+      }
+      int rootCount = is.readInt();
+      for (int i = 0; i < rootCount; i++) {
+        URL url = new URL(is.readUTF());
+        File file = toFile(url);
+        if (file == null) {
+          return new HashMap<String, Root>();
+        }
+        Root root = new Root(url, file);
+        root.lastModified = is.readLong();
+        root.length = is.readLong();
+        int nameCount = is.readInt();
+        root.names = new ArrayList<String>(nameCount);
+        for (int j = 0; j < nameCount; j++) {
+          root.names.add(is.readUTF());
+        }
+        int classPathCount = is.readInt();
+        for (int j = 0; j < classPathCount; j++) {
+          root.classPath.add(new URL(is.readUTF()));
+        }
+        result.put(url.toString(), root);
+      }
+    } catch (IOException e) {
+      Log.log(Level.FINE, "can't read class path index cache", e);
+      return new HashMap<String, Root>();
+    } finally {
+      StreamTools.close(is);
+    }
+    return result;
+  }
+
+  protected void writeCache(File cacheFile) {
+    File dir = cacheFile.getParentFile();
+    if (dir != null && !dir.exists()) {
+      dir.mkdirs();
+    }
+    File tempFile = new File(dir, cacheFile.getName() + ".tmp");
+    DataOutputStream os = null;
+    try {
+      os = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+      os.writeInt(CACHE_MAGIC);
+      os.writeInt(countJars());
+      for (Root root : roots) {
+        if (!root.jar) {
+          continue;
+        }
+        os.writeUTF(root.url.toString());
+        os.writeLong(root.lastModified);
+        os.writeLong(root.length);
+        os.writeInt(root.names.size());
+        for (String name : root.names) {
+          os.writeUTF(name);
+        }
+        os.writeInt(root.classPath.size());
+        for (URL url : root.classPath) {
+          os.writeUTF(url.toString());
+        }
+      }
+      os.close();
+      os = null;
+      if (!tempFile.renameTo(cacheFile)) {
+        cacheFile.delete();
+        tempFile.renameTo(cacheFile);
+      }
+    } catch (IOException e) {
+      Log.log(Level.FINE, "can't write class path index cache", e);
+    } finally {
+      StreamTools.close(os);
+      tempFile.delete();
+    }
+  }
+}
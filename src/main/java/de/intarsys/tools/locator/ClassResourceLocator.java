@@ -40,6 +40,8 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An {@link ILocator} for java resources relative to a given class.
@@ -85,6 +87,10 @@ public class ClassResourceLocator extends CommonLocator {
    * @see de.intarsys.tools.locator.ILocator#exists()
    */
   public boolean exists() {
+    ClassPathResourceIndex index = getIndex();
+    if (index != null) {
+      return index.exists(getResolvedName());
+    }
     return getClazz().getResource(getResolvedName()) != null;
   }
 
@@ -112,6 +118,20 @@ public class ClassResourceLocator extends CommonLocator {
     return clazz;
   }
 
+  /**
+   * The {@link ClassPathResourceIndex} answering lookups for this, or null.
+   *
+   * @return The {@link ClassPathResourceIndex} answering lookups for this.
+   */
+  protected ClassPathResourceIndex getIndex() {
+    ClassPathResourceIndex index = ClassPathResourceIndex
+        .lookup(getClazz().getClassLoader());
+    if (index != null && index.covers(getResolvedName())) {
+      return index;
+    }
+    return null;
+  }
+
   protected String getEncoding() {
     return encoding;
   }
@@ -135,6 +155,10 @@ public class ClassResourceLocator extends CommonLocator {
    * @see de.intarsys.tools.locator.ILocator#getInputStream()
    */
   public InputStream getInputStream() throws IOException {
+    ClassPathResourceIndex index = getIndex();
+    if (index != null && !index.exists(getResolvedName())) {
+      return null;
+    }
     return getClazz().getResourceAsStream(getResolvedName());
   }
 
@@ -284,6 +308,10 @@ public class ClassResourceLocator extends CommonLocator {
    * @see de.intarsys.tools.locator.ILocator#isDirectory()
    */
   public boolean isDirectory() {
+    ClassPathResourceIndex index = getIndex();
+    if (index != null) {
+      return index.isDirectory(getResolvedName());
+    }
     return false;
   }
 
@@ -324,7 +352,21 @@ public class ClassResourceLocator extends CommonLocator {
    */
   public ILocator[] listLocators(final ILocatorNameFilter filter)
       throws IOException {
-    return new ILocator[0];
+    ClassPathResourceIndex index = getIndex();
+    if (index == null) {
+      return new ILocator[0];
+    }
+    String[] names = index.list(getResolvedName());
+    if (names == null) {
+      return new ILocator[0];
+    }
+    List<ILocator> result = new ArrayList<ILocator>(names.length);
+    for (String childName : names) {
+      if (filter == null || filter.accept(this, childName)) {
+        result.add(getChild(childName));
+      }
+    }
+    return result.toArray(new ILocator[result.size()]);
   }
 
   /**
@@ -1,30 +1,130 @@
 package de.intarsys.tools.locator;
 
+import de.intarsys.tools.cache.ConcurrentCache;
+import de.intarsys.tools.concurrent.DaemonThreadFactory;
 import de.intarsys.tools.exception.ExceptionTools;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
+/**
+ * An {@link ILocatorFactory} trying a list of factories in order, returning
+ * the first locator found.
+ * <p>
+ * Results can be cached, including misses, by setting a time to live. The
+ * cache remembers which factory resolved a location, a hit creates a new
+ * locator from this factory without probing the others. A cached result is
+ * used without further checks for the time to live.
+ * After that, results of file based lookups (a {@link LocatorBasedLookup} on
+ * a {@link FileLocator}) are revalidated against the modification time of
+ * the directories probed, all other results are looked up again.
+ * <p>
+ * Optionally the factories are probed concurrently, the result is still the
+ * first hit in the order of the factories.
+ */
 public class DelegatingLocatorLookup extends AbstractLocatorLookup {
 
+  public static final int DEFAULT_CACHE_SIZE = 1000;
+
+  /**
+   * Modification times more recent than this are not trusted, as file
+   * systems may have a coarse timestamp resolution.
+   */
+  private static final long MTIME_RESOLUTION = 2000;
+
+  private static ExecutorService DEFAULT_EXECUTOR;
+
+  synchronized protected static ExecutorService getDefaultExecutor() {
+    if (DEFAULT_EXECUTOR == null) {
+      DEFAULT_EXECUTOR = Executors
+          .newCachedThreadPool(new DaemonThreadFactory("locator lookup"));
+    }
+    return DEFAULT_EXECUTOR;
+  }
+
+  /**
+   * A lookup result.
+   */
+  static class Result {
+
+    /**
+     * The locator found or null. This is not kept in the cache, as locators
+     * are mutable and must not be shared between callers.
+     */
+    final ILocator locator;
+
+    /**
+     * The index of the factory that found the locator, -1 if not found
+     */
+    final int factory;
+
+    /**
+     * The number of factories probed
+     */
+    final int probed;
+
+    /**
+     * The modification times of the directories probed, or null if not
+     * available for all factories
+     */
+    final long[] stamps;
+
+    volatile long validated;
+
+    Result(ILocator locator, int factory, int probed, long[] stamps) {
+      this.locator = locator;
+      this.factory = factory;
+      this.probed = probed;
+      this.stamps = stamps;
+      this.validated = System.currentTimeMillis();
+    }
+  }
+
   private List<ILocatorFactory> factories = new ArrayList<ILocatorFactory>();
 
+  /**
+   * The cached results by location, null if caching is disabled
+   */
+  private ConcurrentCache<Result> cache;
+
+  private long cacheTimeToLive = -1;
+
+  private boolean parallel = false;
+
+  private Executor executor;
+
   public boolean addLocatorFactory(ILocatorFactory factory) {
     if (factory == this) {
       // common mistake
       throw new IllegalArgumentException("can not delegate to myself");
     }
+    clearCache();
     return factories.add(factory);
   }
 
-  public ILocator createLocator(String location) throws IOException {
-    for (Iterator it = factories.iterator(); it.hasNext(); ) {
+  protected Result basicLookup(String location) throws IOException {
+    List<ILocatorFactory> tempFactories = factories;
+    if (isParallel() && tempFactories.size() > 1) {
+      return basicLookupParallel(location, tempFactories);
+    }
+    int i = 0;
+    for (Iterator it = tempFactories.iterator(); it.hasNext(); ) {
       ILocatorFactory factory = (ILocatorFactory) it.next();
+      i++;
       try {
-        return factory.createLocator(location);
+        ILocator locator = factory.createLocator(location);
+        return new Result(locator, i - 1, i, createStamps(location, i));
       } catch (FileNotFoundException e) {
         // search on
       } catch (IOException e) {
@@ -36,18 +136,201 @@ public class DelegatingLocatorLookup extends AbstractLocatorLookup {
       }
     }
     // we tried all but failed
-    throw new FileNotFoundException(location);
+    return new Result(null, -1, i, createStamps(location, i));
+  }
+
+  protected Result basicLookupParallel(final String location,
+                                       List<ILocatorFactory> tempFactories) throws IOException {
+    List<FutureTask<ILocator>> tasks = new ArrayList<FutureTask<ILocator>>(
+        tempFactories.size());
+    for (final ILocatorFactory factory : tempFactories) {
+      FutureTask<ILocator> task = new FutureTask<ILocator>(
+          new Callable<ILocator>() {
+            public ILocator call() throws Exception {
+              return factory.createLocator(location);
+            }
+          });
+      tasks.add(task);
+      getExecutor().execute(task);
+    }
+    try {
+      for (int i = 0; i < tasks.size(); i++) {
+        try {
+          ILocator locator = tasks.get(i).get();
+          return new Result(locator, i, i + 1, createStamps(location, i + 1));
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof FileNotFoundException) {
+            // search on
+            continue;
+          }
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw ExceptionTools.createIOException("", cause);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw ExceptionTools.createIOException("lookup interrupted", e);
+    } finally {
+      for (FutureTask<ILocator> task : tasks) {
+        task.cancel(true);
+      }
+    }
+    return new Result(null, -1, tasks.size(), createStamps(location,
+        tasks.size()));
   }
 
   public void clear() {
+    clearCache();
     factories.clear();
   }
 
+  /**
+   * Discard all cached lookup results.
+   */
+  public void clearCache() {
+    ConcurrentCache<Result> tempCache = cache;
+    if (tempCache != null) {
+      tempCache.clear();
+    }
+  }
+
+  /**
+   * The modification times of the directories probed by the first
+   * <code>count</code> factories for <code>location</code>, or null if not
+   * available or too recent to be reliable.
+   */
+  protected long[] createStamps(String location, int count) {
+    if (cache == null) {
+      return null;
+    }
+    long[] stamps = new long[count];
+    long recent = System.currentTimeMillis() - MTIME_RESOLUTION;
+    for (int i = 0; i < count; i++) {
+      ILocatorFactory factory = factories.get(i);
+      if (!(factory instanceof LocatorBasedLookup)) {
+        return null;
+      }
+      ILocator locator = ((LocatorBasedLookup) factory).getLocator();
+      if (!(locator instanceof FileLocator)) {
+        return null;
+      }
+      File dir = new File(((FileLocator) locator).getFile(), location)
+          .getParentFile();
+      // a missing directory is detected by a change of its ancestor
+      while (dir != null && !dir.exists()) {
+        dir = dir.getParentFile();
+      }
+      stamps[i] = dir == null ? 0 : dir.lastModified();
+      if (stamps[i] > recent) {
+        return null;
+      }
+    }
+    return stamps;
+  }
+
+  public ILocator createLocator(String location) throws IOException {
+    ConcurrentCache<Result> tempCache = cache;
+    if (tempCache == null) {
+      return toLocator(location, basicLookup(location));
+    }
+    Result result = tempCache.get(location);
+    if (result != null && isValid(location, result)) {
+      if (result.factory < 0) {
+        throw new FileNotFoundException(location);
+      }
+      List<ILocatorFactory> tempFactories = factories;
+      if (result.factory < tempFactories.size()) {
+        try {
+          return tempFactories.get(result.factory).createLocator(location);
+        } catch (FileNotFoundException e) {
+          // changed meanwhile, look up again
+        }
+      }
+    }
+    result = basicLookup(location);
+    tempCache.put(location, new Result(null, result.factory, result.probed,
+        result.stamps));
+    return toLocator(location, result);
+  }
+
+  public long getCacheTimeToLive() {
+    return cacheTimeToLive;
+  }
+
+  public Executor getExecutor() {
+    if (executor == null) {
+      return getDefaultExecutor();
+    }
+    return executor;
+  }
+
   public List<ILocatorFactory> getLocatorFactories() {
     return new ArrayList(factories);
   }
 
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  /**
+   * <code>true</code> if the cached <code>result</code> for
+   * <code>location</code> may still be used.
+   */
+  protected boolean isValid(String location, Result result) {
+    long now = System.currentTimeMillis();
+    if (now - result.validated < getCacheTimeToLive()) {
+      return true;
+    }
+    if (result.stamps != null
+        && Arrays.equals(result.stamps, createStamps(location, result.probed))) {
+      result.validated = now;
+      return true;
+    }
+    return false;
+  }
+
   public boolean removeLocatorFactory(ILocatorFactory factory) {
+    clearCache();
     return factories.remove(factory);
   }
+
+  /**
+   * Cache lookup results, including misses, for <code>timeToLive</code>
+   * milliseconds before they are revalidated. A negative value disables the
+   * cache, this is the default.
+   *
+   * @param timeToLive
+   */
+  public void setCacheTimeToLive(long timeToLive) {
+    this.cacheTimeToLive = timeToLive;
+    if (timeToLive < 0) {
+      cache = null;
+    } else if (cache == null) {
+      cache = new ConcurrentCache<Result>(DEFAULT_CACHE_SIZE);
+    }
+  }
+
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Probe all factories concurrently.
+   *
+   * @param parallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  protected ILocator toLocator(String location, Result result)
+      throws FileNotFoundException {
+    if (result.locator == null) {
+      throw new FileNotFoundException(location);
+    }
+    return result.locator;
+  }
 }
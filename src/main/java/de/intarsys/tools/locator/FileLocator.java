@@ -36,6 +36,7 @@ import de.intarsys.tools.locking.ILockLevel;
 import de.intarsys.tools.locking.ILockSupport;
 import de.intarsys.tools.logging.LogTools;
 import de.intarsys.tools.randomaccess.IRandomAccess;
+import de.intarsys.tools.randomaccess.MappedRandomAccess;
 import de.intarsys.tools.randomaccess.RandomAccessFile;
 import de.intarsys.tools.stream.StreamTools;
 import de.intarsys.tools.stream.TempFileOutputStream;
@@ -55,13 +56,19 @@ import java.io.Reader;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.logging.Level;
 
 /**
  * File based implementation of {@link ILocator}.
  */
 public class FileLocator extends CommonLocator implements ILockSupport,
-    ICharsetAccess {
+    ICharsetAccess, ILocatorListingSupport {
 
   final private boolean append;
   /**
@@ -91,6 +98,11 @@ public class FileLocator extends CommonLocator implements ILockSupport,
    */
   private boolean useTempFile = false;
 
+  /**
+   * flag if random access is performed via memory mapping
+   */
+  private boolean useMappedRandomAccess = false;
+
   private File canonicalFile;
 
   public FileLocator(File file) {
@@ -109,6 +121,21 @@ public class FileLocator extends CommonLocator implements ILockSupport,
     this(new File(path));
   }
 
+  /**
+   * Create a locator for the child <code>file</code> of this, inheriting
+   * the access properties.
+   *
+   * @param file
+   * @return The new child locator.
+   */
+  protected FileLocator createChild(File file) {
+    FileLocator result = new FileLocator(file.getPath());
+    result.setSynchSynchronous(isSynchSynchronous());
+    result.setUseMappedRandomAccess(isUseMappedRandomAccess());
+    result.setCharset(getCharset());
+    return result;
+  }
+
   @Override
   public void delete() throws IOException {
     if (getFile() == null) {
@@ -177,6 +204,7 @@ public class FileLocator extends CommonLocator implements ILockSupport,
     File childfile = new File(getFile(), name);
     FileLocator result = new FileLocator(childfile);
     result.setSynchSynchronous(isSynchSynchronous());
+    result.setUseMappedRandomAccess(isUseMappedRandomAccess());
     return result;
   }
 
@@ -264,7 +292,8 @@ public class FileLocator extends CommonLocator implements ILockSupport,
       getFile().getParentFile().mkdirs();
     }
     if (isUseTempFile()) {
-      return new TempFileOutputStream(getFile(), "tmp_", "." + getType());
+      return new TempFileOutputStream(getFile(), "tmp_", "." + getType(),
+          TempFileOutputStream.DEFAULT_THRESHOLD);
     }
     return new FileOutputStream(getFile(), isAppend());
   }
@@ -282,6 +311,7 @@ public class FileLocator extends CommonLocator implements ILockSupport,
     }
     FileLocator result = new FileLocator(parentFile);
     result.setSynchSynchronous(isSynchSynchronous());
+    result.setUseMappedRandomAccess(isUseMappedRandomAccess());
     return result;
   }
 
@@ -298,6 +328,9 @@ public class FileLocator extends CommonLocator implements ILockSupport,
       throw new UnsupportedOperationException(
           "no random access to temp file");
     }
+    if (isUseMappedRandomAccess()) {
+      return new MappedRandomAccess(getFile());
+    }
     return new RandomAccessFile(getFile());
   }
 
@@ -475,6 +508,23 @@ public class FileLocator extends CommonLocator implements ILockSupport,
     this.synchSynchronous = synchSynchronous;
   }
 
+  /**
+   * <code>true</code> if {@link #getRandomAccess()} returns a memory mapped
+   * {@link IRandomAccess}.
+   *
+   * @return <code>true</code> if random access is memory mapped.
+   */
+  public boolean isUseMappedRandomAccess() {
+    return useMappedRandomAccess;
+  }
+
+  /**
+   * @param useMappedRandomAccess
+   */
+  public void setUseMappedRandomAccess(boolean useMappedRandomAccess) {
+    this.useMappedRandomAccess = useMappedRandomAccess;
+  }
+
   /**
    * <code>true</code> if temp file should be used.
    *
@@ -491,6 +541,59 @@ public class FileLocator extends CommonLocator implements ILockSupport,
     this.useTempFile = useTempFile;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.locator.ILocatorListingSupport#iterateLocators(de.intarsys
+   * .tools.locator.ILocatorNameFilter)
+   */
+  public ILocatorListing iterateLocators(final ILocatorNameFilter filter)
+      throws IOException {
+    DirectoryStream.Filter<Path> pathFilter = new DirectoryStream.Filter<Path>() {
+      @Override
+      public boolean accept(Path entry) {
+        return filter == null
+            || filter.accept(FileLocator.this, entry.getFileName().toString());
+      }
+    };
+    final DirectoryStream<Path> stream;
+    try {
+      stream = Files.newDirectoryStream(getFile().toPath(), pathFilter);
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(getFile().getName() + " not found");
+    } catch (NotDirectoryException e) {
+      throw new IOException(getFile().getName() + " not a directory");
+    }
+    return new ILocatorListing() {
+      @Override
+      public void close() throws IOException {
+        stream.close();
+      }
+
+      @Override
+      public Iterator<ILocator> iterator() {
+        final Iterator<Path> paths = stream.iterator();
+        return new Iterator<ILocator>() {
+          @Override
+          public boolean hasNext() {
+            return paths.hasNext();
+          }
+
+          @Override
+          public ILocator next() {
+            return createChild(paths.next().toFile());
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -524,10 +627,7 @@ public class FileLocator extends CommonLocator implements ILockSupport,
 
     ILocator[] result = new ILocator[candidates.length];
     for (int i = 0; i < result.length; i++) {
-      FileLocator l = new FileLocator(candidates[i].getPath());
-      l.setSynchSynchronous(isSynchSynchronous());
-      l.setCharset(getCharset());
-      result[i] = l;
+      result[i] = createChild(candidates[i]);
     }
     return result;
   }
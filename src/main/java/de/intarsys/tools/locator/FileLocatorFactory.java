@@ -69,6 +69,11 @@ public class FileLocatorFactory extends CommonLocatorFactory {
    */
   private boolean synchSynchronous = true;
 
+  /**
+   * flag if created locators use memory mapped random access
+   */
+  private boolean useMappedRandomAccess = false;
+
   /**
    * Create a new factory.
    */
@@ -99,6 +104,7 @@ public class FileLocatorFactory extends CommonLocatorFactory {
     }
     if (result != null) {
       result.setSynchSynchronous(isSynchSynchronous());
+      result.setUseMappedRandomAccess(isUseMappedRandomAccess());
     }
     return result;
   }
@@ -136,4 +142,12 @@ public class FileLocatorFactory extends CommonLocatorFactory {
   public void setSynchSynchronous(boolean synchSynchronous) {
     this.synchSynchronous = synchSynchronous;
   }
+
+  public boolean isUseMappedRandomAccess() {
+    return useMappedRandomAccess;
+  }
+
+  public void setUseMappedRandomAccess(boolean useMappedRandomAccess) {
+    this.useMappedRandomAccess = useMappedRandomAccess;
+  }
 }
@@ -54,8 +54,11 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 
 /**
  * Tool methods for dealing with {@link ILocator}.
@@ -377,6 +380,35 @@ public class LocatorTools {
     }
   }
 
+  /**
+   * A lazy listing of the children of <code>locator</code>. Locators that do
+   * not support lazy listing are listed completely via
+   * {@link ILocator#listLocators(ILocatorNameFilter)}.
+   *
+   * @param locator
+   * @param filter  The filter for the children names, may be null.
+   * @return A lazy listing of the children.
+   * @throws IOException
+   */
+  public static ILocatorListing iterateLocators(ILocator locator,
+      ILocatorNameFilter filter) throws IOException {
+    if (locator instanceof ILocatorListingSupport) {
+      return ((ILocatorListingSupport) locator).iterateLocators(filter);
+    }
+    final ILocator[] locators = locator.listLocators(filter);
+    return new ILocatorListing() {
+      @Override
+      public void close() {
+        //
+      }
+
+      @Override
+      public Iterator<ILocator> iterator() {
+        return Arrays.asList(locators).iterator();
+      }
+    };
+  }
+
   /**
    * Write bytes to locator.
    *
@@ -418,4 +450,30 @@ public class LocatorTools {
       StreamTools.close(os);
     }
   }
+
+  /**
+   * A lazy walk of all descendants of <code>root</code>, see
+   * {@link LocatorWalk}.
+   *
+   * @param root
+   * @param filter The filter for the reported names, may be null.
+   * @return A lazy listing of all descendants.
+   */
+  public static ILocatorListing walk(ILocator root, ILocatorNameFilter filter) {
+    return new LocatorWalk(root, filter);
+  }
+
+  /**
+   * A walk of all descendants of <code>root</code>, listing the directories
+   * in parallel on <code>executor</code>, see {@link ParallelLocatorWalk}.
+   *
+   * @param root
+   * @param filter   The filter for the reported names, may be null.
+   * @param executor
+   * @return A listing of all descendants in undefined order.
+   */
+  public static ILocatorListing walk(ILocator root, ILocatorNameFilter filter,
+      Executor executor) {
+    return new ParallelLocatorWalk(root, filter, executor);
+  }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.locator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy depth first walk of all descendants of a directory
+ * {@link ILocator}.
+ * <p>
+ * Each directory is listed via {@link LocatorTools#iterateLocators} when the
+ * walk reaches it, so only the listings on the current path are open at a
+ * time. A directory is reported before its children. The filter only selects
+ * the reported locators, all directories are visited. Symbolic links to
+ * directories are reported but not followed, so the walk can not run into
+ * cycles.
+ */
+public class LocatorWalk implements ILocatorListing {
+
+  /**
+   * A directory currently open in the walk.
+   */
+  static class Level {
+    final protected ILocator directory;
+
+    final protected ILocatorListing listing;
+
+    final protected Iterator<ILocator> iterator;
+
+    protected Level(ILocator directory) throws IOException {
+      this.directory = directory;
+      this.listing = LocatorTools.iterateLocators(directory, null);
+      this.iterator = listing.iterator();
+    }
+  }
+
+  final private ILocator root;
+
+  final private ILocatorNameFilter filter;
+
+  final private LinkedList<Level> levels = new LinkedList<Level>();
+
+  private boolean iterated;
+
+  private boolean closed;
+
+  public LocatorWalk(ILocator root, ILocatorNameFilter filter) {
+    this.root = root;
+    this.filter = filter;
+  }
+
+  /**
+   * <code>true</code> if the walk descends into <code>locator</code>.
+   *
+   * @param locator
+   * @return <code>true</code> if <code>locator</code> is a directory and not
+   * a symbolic link.
+   */
+  protected static boolean isTraversable(ILocator locator) {
+    if (!locator.isDirectory()) {
+      return false;
+    }
+    if (locator instanceof FileLocator) {
+      File file = ((FileLocator) locator).getFile();
+      return file != null && !Files.isSymbolicLink(file.toPath());
+    }
+    return true;
+  }
+
+  protected boolean accept(ILocator parent, ILocator child) {
+    return filter == null || filter.accept(parent, child.getTypedName());
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    IOException ex = null;
+    while (!levels.isEmpty()) {
+      try {
+        levels.removeLast().listing.close();
+      } catch (IOException e) {
+        ex = e;
+      }
+    }
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+  protected ILocator findNext() {
+    while (!closed && !levels.isEmpty()) {
+      Level level = levels.getLast();
+      if (!level.iterator.hasNext()) {
+        levels.removeLast();
+        try {
+          level.listing.close();
+        } catch (IOException e) {
+          throw new DirectoryIteratorException(e);
+        }
+        continue;
+      }
+      ILocator child = level.iterator.next();
+      if (isTraversable(child)) {
+        open(child);
+      }
+      if (accept(level.directory, child)) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  public ILocatorNameFilter getFilter() {
+    return filter;
+  }
+
+  public ILocator getRoot() {
+    return root;
+  }
+
+  @Override
+  public Iterator<ILocator> iterator() {
+    if (iterated) {
+      throw new IllegalStateException("walk already iterated");
+    }
+    iterated = true;
+    open(root);
+    return new Iterator<ILocator>() {
+      private ILocator next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          next = findNext();
+        }
+        return next != null;
+      }
+
+      @Override
+      public ILocator next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        ILocator result = next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  protected void open(ILocator directory) {
+    try {
+      levels.addLast(new Level(directory));
+    } catch (IOException e) {
+      throw new DirectoryIteratorException(e);
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.locator;
+
+import de.intarsys.tools.concurrent.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A walk of all descendants of a directory {@link ILocator}, listing the
+ * directories in parallel.
+ * <p>
+ * Each directory is listed by a task on the {@link Executor}, the results are
+ * handed to the consumer through a bounded queue. When the consumer falls
+ * behind, the listing tasks wait. The order of the results is undefined. The
+ * filter only selects the reported locators, all directories are visited.
+ * Symbolic links to directories are reported but not followed.
+ * <p>
+ * The executor may run tasks in the calling thread. A listing that would
+ * run in the thread consuming the results is moved to a new thread, as it
+ * could block forever on the full queue.
+ * <p>
+ * Closing the walk stops all pending listing tasks.
+ */
+public class ParallelLocatorWalk implements ILocatorListing {
+
+  private static final Object END = new Object();
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static final ThreadFactory THREAD_FACTORY = new DaemonThreadFactory(
+      "locator walk");
+
+  final private ILocator root;
+
+  final private ILocatorNameFilter filter;
+
+  final private Executor executor;
+
+  final private BlockingQueue<Object> queue;
+
+  final private AtomicInteger pending = new AtomicInteger();
+
+  private volatile boolean closed;
+
+  private boolean iterated;
+
+  /**
+   * The thread that created the iterator
+   */
+  private volatile Thread consumer;
+
+  public ParallelLocatorWalk(ILocator root, ILocatorNameFilter filter,
+      Executor executor) {
+    this(root, filter, executor, DEFAULT_CAPACITY);
+  }
+
+  public ParallelLocatorWalk(ILocator root, ILocatorNameFilter filter,
+      Executor executor, int capacity) {
+    this.root = root;
+    this.filter = filter;
+    this.executor = executor;
+    this.queue = new LinkedBlockingQueue<Object>(capacity);
+  }
+
+  protected static ThreadFactory getThreadFactory() {
+    return THREAD_FACTORY;
+  }
+
+  protected boolean accept(ILocator parent, ILocator child) {
+    return filter == null || filter.accept(parent, child.getTypedName());
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    queue.clear();
+  }
+
+  public ILocatorNameFilter getFilter() {
+    return filter;
+  }
+
+  public ILocator getRoot() {
+    return root;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public Iterator<ILocator> iterator() {
+    synchronized (this) {
+      if (iterated) {
+        throw new IllegalStateException("walk already iterated");
+      }
+      iterated = true;
+    }
+    consumer = Thread.currentThread();
+    schedule(root);
+    return new Iterator<ILocator>() {
+      private ILocator next;
+
+      private boolean done;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && !done && !closed) {
+          Object element;
+          try {
+            element = queue.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DirectoryIteratorException(new InterruptedIOException());
+          }
+          if (element == END) {
+            done = true;
+          } else if (element instanceof IOException) {
+            throw new DirectoryIteratorException((IOException) element);
+          } else {
+            next = (ILocator) element;
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public ILocator next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        ILocator result = next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * List <code>directory</code>, report the accepted children and schedule
+   * the subdirectories.
+   *
+   * @param directory
+   */
+  protected void list(ILocator directory) {
+    try {
+      ILocatorListing listing = LocatorTools.iterateLocators(directory, null);
+      try {
+        for (ILocator child : listing) {
+          if (closed) {
+            break;
+          }
+          if (LocatorWalk.isTraversable(child)) {
+            schedule(child);
+          }
+          if (accept(directory, child)) {
+            put(child);
+          }
+        }
+      } finally {
+        listing.close();
+      }
+    } catch (IOException e) {
+      put(e);
+    } catch (DirectoryIteratorException e) {
+      put(e.getCause());
+    } finally {
+      if (pending.decrementAndGet() == 0) {
+        put(END);
+      }
+    }
+  }
+
+  /**
+   * Hand <code>element</code> to the consumer, waiting while the queue is
+   * full. The element is dropped when the walk is closed.
+   *
+   * @param element
+   */
+  protected void put(Object element) {
+    try {
+      while (!closed) {
+        if (queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  protected void schedule(final ILocator directory) {
+    pending.incrementAndGet();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (Thread.currentThread() == consumer) {
+            // a direct executor, we must not block the consumer
+            getThreadFactory().newThread(this).start();
+            return;
+          }
+          list(directory);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      put(new IOException("listing " + directory.getFullName()
+          + " rejected"));
+      if (pending.decrementAndGet() == 0) {
+        put(END);
+      }
+    }
+  }
+}
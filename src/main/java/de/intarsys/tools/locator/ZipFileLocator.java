@@ -1,158 +1,852 @@
 package de.intarsys.tools.locator;
 
+import de.intarsys.tools.file.FileTools;
+import de.intarsys.tools.file.TempTools;
 import de.intarsys.tools.randomaccess.IRandomAccess;
+import de.intarsys.tools.randomaccess.RandomAccessByteArray;
+import de.intarsys.tools.randomaccess.RandomAccessFile;
+import de.intarsys.tools.randomaccess.RandomAccessViewport;
 import de.intarsys.tools.stream.StreamTools;
+import de.intarsys.tools.string.StringTools;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
- * ! not yet functional !
+ * An {@link ILocator} for an entry within a zip file.
+ * <p>
+ * The zip file is accessed via the {@link IRandomAccess} of its
+ * {@link ILocator}. The central directory is read once and indexed by name,
+ * entries are read by seeking directly to their data. Stored entries are
+ * served as a {@link RandomAccessViewport} on the zip file, deflated entries
+ * are inflated on the fly.
+ * <p>
+ * If the zip locator does not support random access, the zip file is copied
+ * to a temporary file first.
+ * <p>
+ * The locator is read only.
  */
-public class ZipFileLocator extends CommonLocator {
+public class ZipFileLocator extends CommonLocator implements
+    ILocatorListingSupport {
 
   final private ZipFile zipFile;
+
   final private String path;
 
   public ZipFileLocator(ILocator zipLocator, String path) {
-    super();
-    this.zipFile = new ZipFile(zipLocator);
-    this.path = path;
+    this(new ZipFile(zipLocator), path);
   }
 
   protected ZipFileLocator(ZipFile zipFile, String path) {
     super();
     this.zipFile = zipFile;
-    this.path = path;
+    this.path = normalizePath(path);
+    setReadOnly();
+  }
+
+  protected static String normalizePath(String path) {
+    if (path == null) {
+      return "";
+    }
+    path = path.replace('\\', '/');
+    int start = 0;
+    int end = path.length();
+    while (start < end && path.charAt(start) == '/') {
+      start++;
+    }
+    while (end > start && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    return path.substring(start, end);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ZipFileLocator)) {
+      return false;
+    }
+    ZipFileLocator other = (ZipFileLocator) obj;
+    return zipFile.getZipLocator().equals(other.zipFile.getZipLocator())
+        && path.equals(other.path);
   }
 
   public boolean exists() {
-    return false;
+    try {
+      if (path.length() == 0) {
+        return zipFile.getZipLocator().exists();
+      }
+      return zipFile.getEntry(path) != null || zipFile.isDirectory(path);
+    } catch (IOException e) {
+      return false;
+    }
   }
 
-  protected ZipEntry findEntry(String tempPath) throws IOException {
-    for (ZipEntry entry : zipFile.getEntries()) {
-      if (entry.getName().equals(path)) {
-        return entry;
+  protected ZipFileEntry findEntry(String tempPath) throws IOException {
+    return zipFile.getEntry(normalizePath(tempPath));
+  }
+
+  protected Set<String> getChildNames() throws IOException {
+    Set<String> names = zipFile.getChildren(path);
+    if (names == null) {
+      if (zipFile.getEntry(path) != null) {
+        throw new IOException(getTypedName() + " not a directory");
       }
+      throw new FileNotFoundException(getFullName() + " not found");
     }
-    return null;
+    return names;
   }
 
   public ILocator getChild(String name) {
-    String tempPath = path + "/" + name;
-    return new ZipFileLocator(this, tempPath);
+    String tempPath = path.length() == 0 ? name : path + "/" + name;
+    return new ZipFileLocator(zipFile, tempPath);
+  }
+
+  protected ZipFileEntry getEntry() throws IOException {
+    ZipFileEntry entry = zipFile.getEntry(path);
+    if (entry == null) {
+      throw new FileNotFoundException(getFullName() + " not found");
+    }
+    return entry;
   }
 
   public String getFullName() {
-    return null;
+    return zipFile.getZipLocator().getFullName() + "#" + path;
   }
 
   public InputStream getInputStream() throws IOException {
-    return null;
+    return zipFile.getInputStream(getEntry());
+  }
+
+  @Override
+  public long getLength() throws IOException {
+    ZipFileEntry entry = zipFile.getEntry(path);
+    if (entry == null) {
+      return -1;
+    }
+    return entry.getSize();
   }
 
   public String getLocalName() {
-    return null;
+    return FileTools.getBaseName(getTypedName());
   }
 
   public OutputStream getOutputStream() throws IOException {
-    return null;
+    throw new IOException("unsupported operation");
   }
 
   public ILocator getParent() {
-    return null;
+    if (path.length() == 0) {
+      return null;
+    }
+    int pos = path.lastIndexOf('/');
+    if (pos < 0) {
+      return new ZipFileLocator(zipFile, "");
+    }
+    return new ZipFileLocator(zipFile, path.substring(0, pos));
+  }
+
+  public String getPath() {
+    return path;
   }
 
   public IRandomAccess getRandomAccess() throws IOException {
-    return null;
+    return zipFile.getRandomAccess(getEntry());
   }
 
   public Reader getReader() throws IOException {
-    return null;
+    return new InputStreamReader(getInputStream());
   }
 
   public Reader getReader(String encoding) throws IOException {
-    return null;
+    if (StringTools.isEmpty(encoding)) {
+      return getReader();
+    }
+    return new InputStreamReader(getInputStream(), encoding);
   }
 
   public String getType() {
-    return null;
+    return FileTools.getExtension(getTypedName());
   }
 
   public String getTypedName() {
-    return null;
+    int pos = path.lastIndexOf('/');
+    return path.substring(pos + 1);
   }
 
   public Writer getWriter() throws IOException {
-    return null;
+    throw new IOException("unsupported operation");
   }
 
   public Writer getWriter(String encoding) throws IOException {
-    return null;
+    throw new IOException("unsupported operation");
+  }
+
+  public ILocator getZipLocator() {
+    return zipFile.getZipLocator();
+  }
+
+  @Override
+  public int hashCode() {
+    return zipFile.getZipLocator().hashCode() ^ path.hashCode();
   }
 
   public boolean isDirectory() {
-    return false;
+    try {
+      return zipFile.isDirectory(path);
+    } catch (IOException e) {
+      return false;
+    }
   }
 
   public boolean isOutOfSynch() {
-    return false;
+    return zipFile.isStale() || zipFile.getZipLocator().isOutOfSynch();
+  }
+
+  public ILocatorListing iterateLocators(final ILocatorNameFilter filter)
+      throws IOException {
+    final Set<String> names = getChildNames();
+    return new ILocatorListing() {
+      @Override
+      public void close() {
+        //
+      }
+
+      @Override
+      public Iterator<ILocator> iterator() {
+        final Iterator<String> it = names.iterator();
+        return new Iterator<ILocator>() {
+          private String next;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null && it.hasNext()) {
+              String name = it.next();
+              if (filter == null
+                  || filter.accept(ZipFileLocator.this, name)) {
+                next = name;
+              }
+            }
+            return next != null;
+          }
+
+          @Override
+          public ILocator next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            String name = next;
+            next = null;
+            return getChild(name);
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
   }
 
   public ILocator[] listLocators(ILocatorNameFilter filter)
       throws IOException {
-    return null;
+    Set<String> names = getChildNames();
+    List<ILocator> result = new ArrayList<ILocator>(names.size());
+    for (String name : names) {
+      if (filter == null || filter.accept(this, name)) {
+        result.add(getChild(name));
+      }
+    }
+    return result.toArray(new ILocator[result.size()]);
   }
 
   public void synch() {
+    ILocator zipLocator = zipFile.getZipLocator();
+    zipLocator.synch();
+    if (zipFile.isStale() || zipLocator.isOutOfSynch()) {
+      zipFile.reset();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getFullName();
   }
 
   public URL toURL() {
-    return null;
+    URL zipURL = zipFile.getZipLocator().toURL();
+    if (zipURL == null) {
+      return null;
+    }
+    try {
+      return new URL("jar:" + zipURL.toExternalForm() + "!/" + path);
+    } catch (MalformedURLException e) {
+      return null;
+    }
   }
 
+  /**
+   * An entry in the central directory of a zip file.
+   */
+  static public class ZipFileEntry {
+
+    final private String name;
+
+    final private int flags;
+
+    final private int method;
+
+    final private long crc;
+
+    final private long compressedSize;
+
+    final private long size;
+
+    final private long localHeaderOffset;
+
+    final private long time;
+
+    /**
+     * The offset of the data, after the local header. -1 if not yet read.
+     */
+    private long dataOffset = -1;
+
+    protected ZipFileEntry(String name, int flags, int method, long crc,
+                           long compressedSize, long size, long localHeaderOffset, long time) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+      this.time = time;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public int getMethod() {
+      return method;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * The modification time in DOS format.
+     *
+     * @return The modification time in DOS format.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    public boolean isEncrypted() {
+      return (flags & 1) != 0;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Inflates the raw data of an entry. The stream needs an additional dummy
+   * byte at the end of the input, like {@link java.util.zip.ZipFile} does.
+   */
+  static class EntryInflaterInputStream extends InflaterInputStream {
+
+    private boolean eof = false;
+
+    private boolean closed = false;
+
+    public EntryInflaterInputStream(InputStream in, long size) {
+      super(in, new Inflater(true), (int) Math.max(64, Math.min(size, 8192)));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        inf.end();
+        super.close();
+      }
+    }
+
+    @Override
+    protected void fill() throws IOException {
+      if (eof) {
+        throw new EOFException("unexpected end of zip entry");
+      }
+      len = in.read(buf, 0, buf.length);
+      if (len == -1) {
+        buf[0] = 0;
+        len = 1;
+        eof = true;
+      }
+      inf.setInput(buf, 0, len);
+    }
+  }
+
+  /**
+   * The index of a zip file, built from its central directory.
+   */
   static class ZipFile {
 
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+
+    private static final int END_SIG = 0x06054b50;
+
+    private static final int ZIP64_END_SIG = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    private static final int END_LENGTH = 22;
+
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Charset DEFAULT_CHARSET = Charset
+        .isSupported("IBM437") ? Charset.forName("IBM437") : Charset
+        .forName("ISO-8859-1");
+
     final private ILocator zipLocator;
 
-    private List<ZipEntry> entries;
+    /**
+     * The entries by name, without trailing "/" for directories
+     */
+    private Map<String, ZipFileEntry> entries;
+
+    /**
+     * The child names for each directory, "" is the root
+     */
+    private Map<String, Set<String>> directories;
+
+    /**
+     * A local copy if the zip locator does not support random access.
+     */
+    private File tempFile;
+
+    /**
+     * The length of the zip when the entries were read
+     */
+    private long indexedLength;
+
+    /**
+     * The modification time of the zip when the entries were read, 0 if not
+     * known
+     */
+    private long indexedModified;
 
     public ZipFile(ILocator zipLocator) {
       super();
       this.zipLocator = zipLocator;
     }
 
-    protected List<ZipEntry> createEntries() throws IOException {
-      List<ZipEntry> tempEntries = new ArrayList<ZipEntry>();
-      InputStream is = zipLocator.getInputStream();
+    protected void addDirectory(String dirPath) {
+      if (directories.containsKey(dirPath)) {
+        return;
+      }
+      directories.put(dirPath, new LinkedHashSet<String>());
+      if (dirPath.length() == 0) {
+        return;
+      }
+      int pos = dirPath.lastIndexOf('/');
+      String parent = pos < 0 ? "" : dirPath.substring(0, pos);
+      addDirectory(parent);
+      directories.get(parent).add(dirPath.substring(pos + 1));
+    }
+
+    protected void addEntry(ZipFileEntry entry) {
+      String name = normalizePath(entry.getName());
+      if (name.length() == 0) {
+        return;
+      }
+      if (entry.isDirectory()) {
+        addDirectory(name);
+        return;
+      }
+      entries.put(name, entry);
+      int pos = name.lastIndexOf('/');
+      String parent = pos < 0 ? "" : name.substring(0, pos);
+      addDirectory(parent);
+      directories.get(parent).add(name.substring(pos + 1));
+    }
+
+    protected void createEntries() throws IOException {
+      entries = new HashMap<String, ZipFileEntry>();
+      directories = new HashMap<String, Set<String>>();
+      addDirectory("");
+      indexedLength = getZipLength();
+      indexedModified = getZipModified();
+      if (!zipLocator.exists()) {
+        return;
+      }
+      IRandomAccess ra = openRandomAccess();
       try {
-        ZipInputStream zis = new ZipInputStream(is);
-        ZipEntry entry;
-        while ((entry = zis.getNextEntry()) != null) {
-          tempEntries.add(entry);
-        }
+        readCentralDirectory(ra);
       } finally {
-        StreamTools.close(is);
+        StreamTools.close(ra);
+      }
+    }
+
+    protected long getDataOffset(IRandomAccess ra, ZipFileEntry entry)
+        throws IOException {
+      synchronized (entry) {
+        if (entry.dataOffset == -1) {
+          byte[] header = new byte[LOCAL_HEADER_LENGTH];
+          readFully(ra, entry.localHeaderOffset, header);
+          if (getInt(header, 0) != LOCAL_HEADER_SIG) {
+            throw new IOException("invalid local header for "
+                + entry.getName());
+          }
+          entry.dataOffset = entry.localHeaderOffset + LOCAL_HEADER_LENGTH
+              + getShort(header, 26) + getShort(header, 28);
+        }
+        return entry.dataOffset;
+      }
+    }
+
+    synchronized protected Set<String> getChildren(String dirPath)
+        throws IOException {
+      load();
+      return directories.get(dirPath);
+    }
+
+    synchronized protected ZipFileEntry getEntry(String name)
+        throws IOException {
+      load();
+      return entries.get(name);
+    }
+
+    public InputStream getInputStream(ZipFileEntry entry) throws IOException {
+      final IRandomAccess ra = openEntry(entry);
+      InputStream is = new FilterInputStream(ra.asInputStream()) {
+        @Override
+        public void close() throws IOException {
+          ra.close();
+        }
+      };
+      if (entry.getMethod() == ZipEntry.STORED) {
+        return is;
+      }
+      return new EntryInflaterInputStream(is, entry.getCompressedSize());
+    }
+
+    public IRandomAccess getRandomAccess(ZipFileEntry entry)
+        throws IOException {
+      if (entry.getMethod() == ZipEntry.STORED) {
+        return openEntry(entry);
+      }
+      if (entry.getSize() > Integer.MAX_VALUE) {
+        throw new IOException(entry.getName() + " too large");
+      }
+      byte[] bytes = StreamTools.getBytes(getInputStream(entry),
+          (int) entry.getSize());
+      return new RandomAccessByteArray(bytes);
+    }
+
+    protected long getZipLength() {
+      try {
+        return zipLocator.exists() ? zipLocator.getLength() : -1;
+      } catch (IOException e) {
+        return -1;
+      }
+    }
+
+    public ILocator getZipLocator() {
+      return zipLocator;
+    }
+
+    protected long getZipModified() {
+      if (zipLocator instanceof FileLocator) {
+        File file = ((FileLocator) zipLocator).getFile();
+        if (file != null) {
+          return file.lastModified();
+        }
+      }
+      return 0;
+    }
+
+    synchronized protected boolean isDirectory(String dirPath)
+        throws IOException {
+      load();
+      return directories.containsKey(dirPath);
+    }
+
+    protected int getInt(byte[] b, int offset) {
+      return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8)
+          | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+    }
+
+    protected long getLong(byte[] b, int offset) {
+      return (getInt(b, offset) & 0xffffffffL)
+          | ((long) getInt(b, offset + 4) << 32);
+    }
+
+    protected int getShort(byte[] b, int offset) {
+      return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+    }
+
+    protected long getUnsignedInt(byte[] b, int offset) {
+      return getInt(b, offset) & 0xffffffffL;
+    }
+
+    protected void load() throws IOException {
+      if (entries == null) {
+        try {
+          createEntries();
+        } catch (IOException e) {
+          entries = null;
+          directories = null;
+          throw e;
+        }
       }
-      return tempEntries;
     }
 
-    synchronized protected List<ZipEntry> getEntries() throws IOException {
+    /**
+     * An {@link IRandomAccess} on the data of <code>entry</code>,
+     * positioned at its start.
+     */
+    protected IRandomAccess openEntry(ZipFileEntry entry) throws IOException {
+      if (entry.isEncrypted()) {
+        throw new IOException(entry.getName()
+            + " is encrypted, not supported");
+      }
+      if (entry.getMethod() != ZipEntry.STORED
+          && entry.getMethod() != ZipEntry.DEFLATED) {
+        throw new IOException(entry.getName()
+            + " uses unsupported compression method " + entry.getMethod());
+      }
+      IRandomAccess ra = openRandomAccess();
+      try {
+        long dataOffset = getDataOffset(ra, entry);
+        IRandomAccess result = new RandomAccessViewport(ra, dataOffset,
+            entry.getCompressedSize());
+        result.seek(0);
+        return result;
+      } catch (IOException e) {
+        StreamTools.close(ra);
+        throw e;
+      } catch (RuntimeException e) {
+        StreamTools.close(ra);
+        throw e;
+      }
+    }
+
+    protected IRandomAccess openRandomAccess() throws IOException {
+      synchronized (this) {
+        if (tempFile != null) {
+          return new RandomAccessFile(tempFile, false);
+        }
+      }
+      IRandomAccess ra = null;
+      try {
+        ra = zipLocator.getRandomAccess();
+      } catch (UnsupportedOperationException e) {
+        // copy below
+      }
+      if (ra != null) {
+        return ra;
+      }
+      synchronized (this) {
+        if (tempFile == null) {
+          File file = TempTools.createTempFile("zip", ".tmp");
+          file.deleteOnExit();
+          StreamTools.copyStream(zipLocator.getInputStream(),
+              new FileOutputStream(file));
+          tempFile = file;
+        }
+        return new RandomAccessFile(tempFile, false);
+      }
+    }
+
+    protected void readCentralDirectory(IRandomAccess ra) throws IOException {
+      long length = ra.getLength();
+      if (length < END_LENGTH) {
+        throw new IOException(zipLocator.getFullName() + " not a zip file");
+      }
+      // find end of central directory record, followed by a comment
+      int tailLength = (int) Math.min(length, END_LENGTH + MAX_COMMENT_LENGTH);
+      byte[] tail = new byte[tailLength];
+      readFully(ra, length - tailLength, tail);
+      int end = -1;
+      for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+        if (getInt(tail, i) == END_SIG
+            && i + END_LENGTH + getShort(tail, i + 20) <= tailLength) {
+          end = i;
+          break;
+        }
+      }
+      if (end == -1) {
+        throw new IOException(zipLocator.getFullName() + " not a zip file");
+      }
+      long count = getShort(tail, end + 10);
+      long cdSize = getUnsignedInt(tail, end + 12);
+      long cdOffset = getUnsignedInt(tail, end + 16);
+      long endPosition = length - tailLength + end;
+      if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+        // zip64
+        if (endPosition >= ZIP64_LOCATOR_LENGTH) {
+          byte[] locator = new byte[ZIP64_LOCATOR_LENGTH];
+          readFully(ra, endPosition - ZIP64_LOCATOR_LENGTH, locator);
+          if (getInt(locator, 0) == ZIP64_LOCATOR_SIG) {
+            byte[] zip64End = new byte[56];
+            readFully(ra, getLong(locator, 8), zip64End);
+            if (getInt(zip64End, 0) != ZIP64_END_SIG) {
+              throw new IOException(zipLocator.getFullName()
+                  + " invalid zip64 end record");
+            }
+            count = getLong(zip64End, 32);
+            cdSize = getLong(zip64End, 40);
+            cdOffset = getLong(zip64End, 48);
+          }
+        }
+      }
+      if (cdSize > Integer.MAX_VALUE || cdOffset + cdSize > length) {
+        throw new IOException(zipLocator.getFullName()
+            + " invalid central directory");
+      }
+      byte[] cd = new byte[(int) cdSize];
+      readFully(ra, cdOffset, cd);
+      int pos = 0;
+      for (long i = 0; i < count; i++) {
+        if (pos + CENTRAL_HEADER_LENGTH > cd.length
+            || getInt(cd, pos) != CENTRAL_HEADER_SIG) {
+          throw new IOException(zipLocator.getFullName()
+              + " invalid central directory");
+        }
+        int flags = getShort(cd, pos + 8);
+        int method = getShort(cd, pos + 10);
+        long time = getUnsignedInt(cd, pos + 12);
+        long crc = getUnsignedInt(cd, pos + 16);
+        long compressedSize = getUnsignedInt(cd, pos + 20);
+        long size = getUnsignedInt(cd, pos + 24);
+        int nameLength = getShort(cd, pos + 28);
+        int extraLength = getShort(cd, pos + 30);
+        int commentLength = getShort(cd, pos + 32);
+        long localHeaderOffset = getUnsignedInt(cd, pos + 42);
+        int namePos = pos + CENTRAL_HEADER_LENGTH;
+        int extraPos = namePos + nameLength;
+        int next = extraPos + extraLength + commentLength;
+        if (next > cd.length) {
+          throw new IOException(zipLocator.getFullName()
+              + " invalid central directory");
+        }
+        Charset charset = (flags & 0x800) != 0 ? UTF8 : DEFAULT_CHARSET;
+        String name = new String(cd, namePos, nameLength, charset);
+        if (size == 0xffffffffL || compressedSize == 0xffffffffL
+            || localHeaderOffset == 0xffffffffL) {
+          // zip64 extended information extra field
+          int extraEnd = extraPos + extraLength;
+          while (extraPos + 4 <= extraEnd) {
+            int id = getShort(cd, extraPos);
+            int dataLength = getShort(cd, extraPos + 2);
+            int dataPos = extraPos + 4;
+            if (id == 0x0001) {
+              int dataEnd = Math.min(dataPos + dataLength, extraEnd);
+              if (size == 0xffffffffL && dataPos + 8 <= dataEnd) {
+                size = getLong(cd, dataPos);
+                dataPos += 8;
+              }
+              if (compressedSize == 0xffffffffL && dataPos + 8 <= dataEnd) {
+                compressedSize = getLong(cd, dataPos);
+                dataPos += 8;
+              }
+              if (localHeaderOffset == 0xffffffffL && dataPos + 8 <= dataEnd) {
+                localHeaderOffset = getLong(cd, dataPos);
+              }
+              break;
+            }
+            extraPos = dataPos + dataLength;
+          }
+        }
+        addEntry(new ZipFileEntry(name, flags, method, crc, compressedSize,
+            size, localHeaderOffset, time));
+        pos = next;
+      }
+    }
+
+    protected void readFully(IRandomAccess ra, long position, byte[] buffer)
+        throws IOException {
+      ra.seek(position);
+      int count = 0;
+      while (count < buffer.length) {
+        int read = ra.read(buffer, count, buffer.length - count);
+        if (read == -1) {
+          throw new EOFException();
+        }
+        count += read;
+      }
+    }
+
+    /**
+     * <code>true</code> if the zip changed since its entries were read. The
+     * offsets in the central directory are no longer valid then.
+     */
+    synchronized protected boolean isStale() {
       if (entries == null) {
-        entries = createEntries();
+        return false;
       }
-      return entries;
+      return getZipLength() != indexedLength
+          || getZipModified() != indexedModified;
     }
 
+    synchronized protected void reset() {
+      entries = null;
+      directories = null;
+      if (tempFile != null) {
+        tempFile.delete();
+        tempFile = null;
+      }
+    }
   }
-
 }
@@ -2,10 +2,12 @@ package de.intarsys.tools.locator;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
- * ! not yet functional !
- * <p>
  * Locate resources contained within a zip file.
  * <p>
  * Full syntax <br>
@@ -13,10 +15,19 @@ import java.io.InputStream;
  * zip::<zip locator>#<path>
  * </code> <br>
  * The zip locator itself may be any locator that can be resolved to an
- * {@link InputStream}.
+ * {@link InputStream}. Locators supporting random access are read in place,
+ * others are copied to a temporary file.
+ * <p>
+ * The central directory of a zip file is read only once and shared by all
+ * locators created for this zip file, until the zip file changes.
  */
 public class ZipFileLocatorFactory extends CommonLocatorFactory {
 
+  /**
+   * The zip files in use, by the full name of their locator
+   */
+  final private Map<String, WeakReference<ZipFileLocator.ZipFile>> zipFiles = new HashMap<String, WeakReference<ZipFileLocator.ZipFile>>();
+
   public ILocator createLocator(String location) throws IOException {
     int pos = location.lastIndexOf('#');
     String zipLocation;
@@ -29,7 +40,32 @@ public class ZipFileLocatorFactory extends CommonLocatorFactory {
       path = "";
     }
     ILocator zipLocator = LocatorFactory.get().createLocator(zipLocation);
-    return new ZipFileLocator(zipLocator, path);
+    return new ZipFileLocator(getZipFile(zipLocator), path);
+  }
+
+  /**
+   * The shared {@link ZipFileLocator.ZipFile} for <code>zipLocator</code>.
+   * A zip file that changed since it was indexed is replaced.
+   */
+  protected ZipFileLocator.ZipFile getZipFile(ILocator zipLocator) {
+    String key = zipLocator.getFullName();
+    synchronized (zipFiles) {
+      WeakReference<ZipFileLocator.ZipFile> ref = zipFiles.get(key);
+      ZipFileLocator.ZipFile zipFile = ref == null ? null : ref.get();
+      if (zipFile != null && !zipFile.isStale()
+          && !zipFile.getZipLocator().isOutOfSynch()) {
+        return zipFile;
+      }
+      for (Iterator<WeakReference<ZipFileLocator.ZipFile>> it = zipFiles
+          .values().iterator(); it.hasNext();) {
+        if (it.next().get() == null) {
+          it.remove();
+        }
+      }
+      zipFile = new ZipFileLocator.ZipFile(zipLocator);
+      zipFiles.put(key, new WeakReference<ZipFileLocator.ZipFile>(zipFile));
+      return zipFile;
+    }
   }
 
 }
@@ -29,6 +29,7 @@
  */
 package de.intarsys.tools.number;
 
+import de.intarsys.tools.collection.IntArrayList;
 import de.intarsys.tools.collection.SingleObjectIterator;
 
 import java.util.Collection;
@@ -94,6 +95,14 @@ public class NumberInstance extends NumberWrapper {
         "Only objects of type Number or NumberWrapper are supported.");
   }
 
+  @Override
+  protected void addInts(IntArrayList result, int min, int max) {
+    int value = n.intValue();
+    if (value >= min && value <= max) {
+      result.add(value);
+    }
+  }
+
   public boolean addAll(Collection arg0) {
     if (arg0.size() == 0) {
       return false;
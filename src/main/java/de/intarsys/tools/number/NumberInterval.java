@@ -29,6 +29,7 @@
  */
 package de.intarsys.tools.number;
 
+import de.intarsys.tools.collection.IntArrayList;
 import de.intarsys.tools.collection.IntervalIterator;
 
 import java.util.Collection;
@@ -76,6 +77,23 @@ public class NumberInterval extends NumberWrapper {
         "Only objects of type Number or NumberWrapper are supported.");
   }
 
+  @Override
+  protected void addInts(IntArrayList result, int min, int max) {
+    if ((to == null) || (from == null)) {
+      return;
+    }
+    // same sequence as IntervalIterator, without boxing, limited to the
+    // bounds before enumerating
+    double start = from.doubleValue();
+    if (start < min) {
+      start = start + Math.ceil(min - start);
+    }
+    double end = Math.min(to.doubleValue(), max);
+    for (double current = start; current <= end; current++) {
+      result.add((int) current);
+    }
+  }
+
   public boolean addAll(Collection arg0) {
     Iterator iter = arg0.iterator();
     while (iter.hasNext()) {
@@ -29,6 +29,7 @@
  */
 package de.intarsys.tools.number;
 
+import de.intarsys.tools.collection.IntArrayList;
 import de.intarsys.tools.collection.NestedIterator;
 
 import java.util.ArrayList;
@@ -66,6 +67,13 @@ public class NumberList extends NumberWrapper {
     return false;
   }
 
+  @Override
+  protected void addInts(IntArrayList result, int min, int max) {
+    for (Object wrapper : getList()) {
+      ((NumberWrapper) wrapper).addInts(result, min, max);
+    }
+  }
+
   public boolean addAll(Collection arg0) {
     Iterator iter = arg0.iterator();
     while (iter.hasNext()) {
@@ -29,6 +29,8 @@
  */
 package de.intarsys.tools.number;
 
+import de.intarsys.tools.collection.IntArrayList;
+
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
@@ -45,6 +47,21 @@ public abstract class NumberWrapper implements Iterable, Set {
     super();
   }
 
+  /**
+   * Add the int values of all numbers in this within <code>min</code> and
+   * <code>max</code> (inclusive) to <code>result</code>.
+   * <p>
+   * Subclasses should override to avoid creating boxed numbers.
+   */
+  protected void addInts(IntArrayList result, int min, int max) {
+    for (Object number : this) {
+      int value = ((Number) number).intValue();
+      if (value >= min && value <= max) {
+        result.add(value);
+      }
+    }
+  }
+
   public void clear() {
     throw new UnsupportedOperationException(
         "Clear operation not supported!");
@@ -98,4 +115,28 @@ public abstract class NumberWrapper implements Iterable, Set {
     return toArray();
   }
 
+  /**
+   * The int values of all numbers in this, in iteration order.
+   *
+   * @return The int values of all numbers in this.
+   */
+  public int[] toIntArray() {
+    return toIntArray(Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * The int values of all numbers in this within <code>min</code> and
+   * <code>max</code> (inclusive), in iteration order. Intervals are only
+   * enumerated within these bounds.
+   *
+   * @param min The smallest value included.
+   * @param max The largest value included.
+   * @return The int values of all numbers in this within the bounds.
+   */
+  public int[] toIntArray(int min, int max) {
+    IntArrayList result = new IntArrayList();
+    addInts(result, min, max);
+    return result.toArray();
+  }
+
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2008, intarsys consulting GmbH
+ * Copyright (c) 2007, intarsys consulting GmbH
  *
  * Redistribution and use in source and binary forms, with or without
  * modification, are permitted provided that the following conditions are met:
@@ -29,32 +29,246 @@
  */
 package de.intarsys.tools.pool;
 
-import java.util.Stack;
+import de.intarsys.tools.concurrent.DaemonThreadFactory;
+import de.intarsys.tools.logging.LogTools;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * A very simple implementation of a generic {@link IPool}.
+ * A simple implementation of a generic {@link IPool}.
+ * <p>
+ * By default the pool is unbounded, a new object is created whenever no idle
+ * object is available. When created with a maximum size, at most this number
+ * of objects is checked out at any time and {@link #checkout(long)} blocks
+ * until an object is checked in or the timeout expires.
+ * <p>
+ * Idle objects are held in a lock free deque, the most recently returned
+ * object is reused first. Optionally a background sweeper destroys objects
+ * idle longer than "maxIdleTime" and keeps "minIdle" objects ready for use.
+ * <p>
+ * If the factory is an {@link IValidatingPoolObjectFactory}, idle objects are
+ * validated before they are handed out.
  */
 public class GenericPool implements IPool {
 
+  /**
+   * An idle object along with the time it was returned.
+   */
+  protected static class IdleObject {
+
+    final private Object object;
+
+    final private long idleSince;
+
+    protected IdleObject(Object object) {
+      super();
+      this.object = object;
+      this.idleSince = System.currentTimeMillis();
+    }
+
+    public long getIdleSince() {
+      return idleSince;
+    }
+
+    public Object getObject() {
+      return object;
+    }
+  }
+
+  private final static Logger Log = LogTools.getLogger(GenericPool.class);
+
+  private static ScheduledExecutorService SWEEPER;
+
+  synchronized protected static ScheduledExecutorService getSweeper() {
+    if (SWEEPER == null) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+          1, new DaemonThreadFactory("pool sweeper"));
+      executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+      SWEEPER = executor;
+    }
+    return SWEEPER;
+  }
+
   final private IPoolObjectFactory objectFactory;
 
-  final private Stack<Object> objects;
+  final private ConcurrentLinkedDeque<IdleObject> objects;
+
+  /**
+   * The number of objects in "objects"
+   */
+  final private AtomicInteger idleCount = new AtomicInteger();
 
-  private boolean closed;
+  /**
+   * The maximum number of objects checked out, 0 if unbounded
+   */
+  final private int maxSize;
+
+  /**
+   * The permits for checkout in a bounded pool, null if unbounded
+   */
+  final private Semaphore permits;
+
+  private int minIdle = 0;
+
+  private long maxIdleTime = 0;
+
+  private long evictionInterval = 0;
+
+  private ScheduledFuture<?> sweep;
+
+  volatile private boolean closed;
 
   public GenericPool(IPoolObjectFactory objectFactory) {
+    this(objectFactory, 0);
+  }
+
+  /**
+   * Create a pool where at most <code>maxSize</code> objects are checked out
+   * at any time.
+   *
+   * @param objectFactory The factory for the pooled objects
+   * @param maxSize       The maximum number of objects checked out or 0 if
+   *                      unbounded.
+   */
+  public GenericPool(IPoolObjectFactory objectFactory, int maxSize) {
     super();
     this.objectFactory = objectFactory;
-    this.objects = new Stack<Object>();
+    this.objects = new ConcurrentLinkedDeque<IdleObject>();
+    this.maxSize = Math.max(0, maxSize);
+    this.permits = maxSize > 0 ? new Semaphore(maxSize, true) : null;
     this.closed = false;
   }
 
+  protected void acquirePermit(long timeout) throws InterruptedException,
+      TimeoutException {
+    if (permits == null) {
+      return;
+    }
+    if (timeout < 0) {
+      permits.acquire();
+    } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+      throw new TimeoutException("no pool object available within "
+          + timeout + "ms");
+    }
+  }
+
+  protected void activateObject(Object object) throws Exception {
+    if (objectFactory == null) {
+      return;
+    }
+    objectFactory.activateObject(object);
+  }
+
+  protected void assertOpen() {
+    if (closed) {
+      throw new IllegalStateException("pool closed");
+    }
+  }
+
   public void checkin(Object object) throws Exception {
-    deactivateObject(object);
-    synchronized (this) {
+    try {
+      deactivateObject(object);
+    } catch (Exception e) {
+      releasePermit();
+      destroyObject(object);
+      throw e;
+    }
+    if (closed) {
+      destroy(object);
+      return;
+    }
+    IdleObject idle = new IdleObject(object);
+    objects.offerFirst(idle);
+    idleCount.incrementAndGet();
+    releasePermit();
+    // the pool may have been closed after the check above
+    if (closed && objects.removeFirstOccurrence(idle)) {
+      idleCount.decrementAndGet();
+      destroyQuietly(object);
+    }
+  }
+
+  /**
+   * Get an object from the pool.
+   * <p>
+   * In a bounded pool this waits at most <code>timeout</code> milliseconds
+   * for an object to become available.
+   *
+   * @throws TimeoutException if no object is available within the timeout
+   * @see de.intarsys.tools.pool.IPool#checkout(long)
+   */
+  public Object checkout(long timeout) throws Exception {
+    assertOpen();
+    acquirePermit(timeout);
+    try {
       assertOpen();
-      objects.push(object);
+      while (true) {
+        IdleObject idle = pollIdle();
+        if (idle == null) {
+          break;
+        }
+        Object result = idle.getObject();
+        if (prepareIdleObject(result)) {
+          return result;
+        }
+      }
+      Object result = createObject();
+      try {
+        activateObject(result);
+      } catch (Exception e) {
+        destroyObject(result);
+        throw e;
+      }
+      return result;
+    } catch (Exception e) {
+      releasePermit();
+      throw e;
+    } catch (Error e) {
+      releasePermit();
+      throw e;
+    }
+  }
+
+  public void close() throws Exception {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (sweep != null) {
+        sweep.cancel(false);
+        sweep = null;
+      }
+    }
+    IdleObject idle;
+    while ((idle = pollIdle()) != null) {
+      destroyQuietly(idle.getObject());
+    }
+    if (permits != null) {
+      // wake up all waiting threads, they will fail with "pool closed"
+      permits.release(Integer.MAX_VALUE - maxSize);
+    }
+  }
+
+  protected Object createObject() throws Exception {
+    if (objectFactory == null) {
+      throw new IllegalStateException("can not create new object");
     }
+    Object result = objectFactory.createObject();
+    if (result == null) {
+      throw new IllegalStateException("new object can't be null");
+    }
+    return result;
   }
 
   protected void deactivateObject(Object object) throws Exception {
@@ -64,6 +278,14 @@ public class GenericPool implements IPool {
     objectFactory.deactivateObject(object);
   }
 
+  public void destroy(Object object) throws Exception {
+    try {
+      destroyObject(object);
+    } finally {
+      releasePermit();
+    }
+  }
+
   protected void destroyObject(Object object) throws Exception {
     if (objectFactory == null) {
       return;
@@ -71,53 +293,184 @@ public class GenericPool implements IPool {
     objectFactory.destroyObject(object);
   }
 
+  protected void destroyQuietly(Object object) {
+    try {
+      destroyObject(object);
+    } catch (Exception e) {
+      Log.log(Level.FINE, "destroying pool object failed", e);
+    }
+  }
+
+  /**
+   * Create idle objects until "minIdle" objects are available. In a bounded
+   * pool no more than "maxSize" objects will exist in total.
+   *
+   * @throws Exception
+   */
+  public void ensureMinIdle() throws Exception {
+    while (!closed && idleCount.get() < minIdle) {
+      if (permits != null && idleCount.get() >= permits.availablePermits()) {
+        break;
+      }
+      Object object = createObject();
+      try {
+        deactivateObject(object);
+      } catch (Exception e) {
+        destroyQuietly(object);
+        throw e;
+      }
+      objects.offerLast(new IdleObject(object));
+      idleCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Destroy objects idle longer than "maxIdleTime", keeping at least
+   * "minIdle" objects.
+   */
+  protected void evictIdle() {
+    if (maxIdleTime <= 0) {
+      return;
+    }
+    long limit = System.currentTimeMillis() - maxIdleTime;
+    // oldest objects are at the end
+    for (Iterator<IdleObject> it = objects.descendingIterator(); it.hasNext();) {
+      IdleObject idle = it.next();
+      if (idleCount.get() <= minIdle || idle.getIdleSince() > limit) {
+        break;
+      }
+      if (objects.removeLastOccurrence(idle)) {
+        idleCount.decrementAndGet();
+        destroyQuietly(idle.getObject());
+      }
+    }
+  }
+
+  public long getEvictionInterval() {
+    return evictionInterval;
+  }
+
+  /**
+   * The number of idle objects in the pool.
+   *
+   * @return The number of idle objects in the pool.
+   */
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  protected IPoolObjectFactory getObjectFactory() {
+    return objectFactory;
+  }
+
   protected boolean isClosed() {
     return closed;
   }
 
-  protected void assertOpen() {
-    if (closed) {
-      throw new IllegalStateException("pool closed");
+  protected IdleObject pollIdle() {
+    IdleObject idle = objects.pollFirst();
+    if (idle != null) {
+      idleCount.decrementAndGet();
     }
+    return idle;
   }
 
-  public Object checkout(long timeout) throws Exception {
-    Object result = null;
-    synchronized (this) {
-      assertOpen();
-      if (objects.isEmpty()) {
-        result = createObject();
-      } else {
-        result = objects.pop();
+  /**
+   * Activate and validate an idle object for checkout. An object failing is
+   * destroyed.
+   *
+   * @return <code>true</code> if the object can be handed out.
+   */
+  protected boolean prepareIdleObject(Object object) {
+    try {
+      activateObject(object);
+      if (validateObject(object)) {
+        return true;
       }
+    } catch (Exception e) {
+      Log.log(Level.FINE, "pool object activation failed", e);
     }
-    activateObject(result);
-    return result;
+    destroyQuietly(object);
+    return false;
   }
 
-  protected void activateObject(Object object) throws Exception {
-    if (objectFactory == null) {
-      return;
+  protected void releasePermit() {
+    if (permits != null) {
+      permits.release();
     }
-    objectFactory.activateObject(object);
   }
 
-  protected Object createObject() throws Exception {
-    if (objectFactory == null) {
-      throw new IllegalStateException("can not create new object");
+  /**
+   * Set the interval in milliseconds for the background sweeper, 0 to
+   * disable. The sweeper destroys objects idle longer than "maxIdleTime" and
+   * creates objects up to "minIdle".
+   *
+   * @param evictionInterval
+   */
+  synchronized public void setEvictionInterval(long evictionInterval) {
+    this.evictionInterval = evictionInterval;
+    if (sweep != null) {
+      sweep.cancel(false);
+      sweep = null;
     }
-    Object result = objectFactory.createObject();
-    if (result == null) {
-      throw new IllegalStateException("new object can't be null");
+    if (evictionInterval > 0 && !closed) {
+      sweep = getSweeper().scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          sweep();
+        }
+      }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
     }
-    return result;
   }
 
-  public void close() throws Exception {
-    closed = true;
+  /**
+   * Set the time in milliseconds an object may stay idle before it is
+   * destroyed by the sweeper, 0 to keep idle objects forever.
+   *
+   * @param maxIdleTime
+   */
+  public void setMaxIdleTime(long maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
   }
 
-  public void destroy(Object object) throws Exception {
-    destroyObject(object);
+  /**
+   * Set the number of idle objects kept ready by the sweeper. Use
+   * {@link #ensureMinIdle()} to create them immediately.
+   *
+   * @param minIdle
+   */
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  protected void sweep() {
+    if (closed) {
+      return;
+    }
+    evictIdle();
+    try {
+      ensureMinIdle();
+    } catch (Exception e) {
+      Log.log(Level.FINE, "pool object creation failed", e);
+    }
+  }
+
+  protected boolean validateObject(Object object) throws Exception {
+    if (objectFactory instanceof IValidatingPoolObjectFactory) {
+      return ((IValidatingPoolObjectFactory) objectFactory)
+          .validateObject(object);
+    }
+    return true;
   }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.pool;
+
+import de.intarsys.tools.monitor.ITrace;
+import de.intarsys.tools.monitor.NullMonitor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A monitor publishing the statistics of a {@link ThreadAffinePool}.
+ * <p>
+ * This monitor does not support traces, the data is read from the pool on
+ * demand. Times are reported in milliseconds.
+ */
+public class PoolMonitor extends NullMonitor {
+
+  public static final String DATA_ACTIVE = "active";
+
+  public static final String DATA_BORROW_COUNT = "borrow.count";
+
+  public static final String DATA_BORROW_TIME_AVG = "borrow.time.avg";
+
+  public static final String DATA_BORROW_TIME_MAX = "borrow.time.max";
+
+  public static final String DATA_CREATE_COUNT = "create.count";
+
+  public static final String DATA_DESTROY_COUNT = "destroy.count";
+
+  public static final String DATA_SIZE = "size";
+
+  public static final String DATA_WAIT_COUNT = "wait.count";
+
+  final private ThreadAffinePool pool;
+
+  /**
+   * The counter values at the last reset
+   */
+  private long baseBorrowCount;
+
+  private long baseBorrowTime;
+
+  private long baseCreateCount;
+
+  private long baseDestroyCount;
+
+  private long baseWaitCount;
+
+  public PoolMonitor(String name, ThreadAffinePool pool) {
+    super(name);
+    this.pool = pool;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.monitor.IMonitor#getData()
+   */
+  @Override
+  synchronized public Map<String, Object> getData() {
+    Map<String, Object> data = new HashMap<String, Object>();
+    long borrowCount = pool.getBorrowCount() - baseBorrowCount;
+    long borrowTime = pool.getBorrowTimeTotal() - baseBorrowTime;
+    data.put(DATA_SIZE, new Integer(pool.getSize()));
+    data.put(DATA_ACTIVE, new Integer(pool.getActiveCount()));
+    data.put(DATA_BORROW_COUNT, new Long(borrowCount));
+    data.put(DATA_BORROW_TIME_AVG, new Double(borrowCount == 0 ? 0
+        : borrowTime / 1000000.0 / borrowCount));
+    data.put(DATA_BORROW_TIME_MAX,
+        new Double(pool.getBorrowTimeMax() / 1000000.0));
+    data.put(DATA_WAIT_COUNT, new Long(pool.getWaitCount() - baseWaitCount));
+    data.put(DATA_CREATE_COUNT, new Long(pool.getCreateCount()
+        - baseCreateCount));
+    data.put(DATA_DESTROY_COUNT, new Long(pool.getDestroyCount()
+        - baseDestroyCount));
+    return data;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.monitor.IMonitor#getFormattedData()
+   */
+  @Override
+  public Map<String, String> getFormattedData() {
+    Map<String, String> result = new HashMap<String, String>();
+    for (Map.Entry<String, Object> entry : getData().entrySet()) {
+      result.put(entry.getKey(), String.valueOf(entry.getValue()));
+    }
+    return result;
+  }
+
+  public ThreadAffinePool getPool() {
+    return pool;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.monitor.IMonitor#getTraces()
+   */
+  @Override
+  public List<ITrace> getTraces() {
+    return null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.monitor.IMonitor#reset()
+   */
+  @Override
+  synchronized public void reset() {
+    baseBorrowCount = pool.getBorrowCount();
+    baseBorrowTime = pool.getBorrowTimeTotal();
+    baseCreateCount = pool.getCreateCount();
+    baseDestroyCount = pool.getDestroyCount();
+    baseWaitCount = pool.getWaitCount();
+  }
+}
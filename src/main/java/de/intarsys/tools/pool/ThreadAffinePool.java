@@ -0,0 +1,652 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.pool;
+
+import de.intarsys.tools.logging.LogTools;
+import de.intarsys.tools.monitor.IMonitorRegistry;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@link IPool} optimized for threads that repeatedly check out and check
+ * in objects.
+ * <p>
+ * Each thread remembers the pool entries it used most recently. On checkout
+ * these are tried first, so that a thread typically gets back its own last
+ * object with a single compare and set on the entry and without touching any
+ * shared structure. Only if none of them is available, the list of all
+ * entries is scanned, a new object is created (up to "maxSize") or the
+ * thread waits for an object handed over directly by a thread checking in.
+ * <p>
+ * Statistics are kept per thread and can be published using a
+ * {@link PoolMonitor}.
+ * <p>
+ * If the factory is an {@link IValidatingPoolObjectFactory}, objects taken
+ * from the pool are validated before they are handed out.
+ */
+public class ThreadAffinePool implements IPool {
+
+  /**
+   * A pooled object along with its state.
+   */
+  protected static class Entry {
+
+    static final int STATE_IDLE = 0;
+
+    static final int STATE_IN_USE = 1;
+
+    static final int STATE_REMOVED = -1;
+
+    final private Object object;
+
+    final private AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+
+    protected Entry(Object object) {
+      super();
+      this.object = object;
+    }
+
+    public Object getObject() {
+      return object;
+    }
+
+    protected boolean isIdle() {
+      return state.get() == STATE_IDLE;
+    }
+
+    protected boolean isRemoved() {
+      return state.get() == STATE_REMOVED;
+    }
+
+    protected boolean tryRemove() {
+      return state.compareAndSet(STATE_IDLE, STATE_REMOVED);
+    }
+
+    protected boolean tryReserve() {
+      return state.compareAndSet(STATE_IDLE, STATE_IN_USE);
+    }
+  }
+
+  /**
+   * The state of a single thread using the pool.
+   * <p>
+   * The entry list and the counters are written by the owning thread only,
+   * the counters may be read by others.
+   */
+  protected static class ThreadState {
+
+    final private WeakReference<Thread> owner;
+
+    final private List<Entry> entries = new ArrayList<Entry>(
+        THREAD_ENTRIES_MAX);
+
+    volatile private long borrowCount;
+
+    volatile private long borrowTime;
+
+    volatile private long borrowTimeMax;
+
+    volatile private long waitCount;
+
+    protected ThreadState(Thread owner) {
+      super();
+      this.owner = new WeakReference<Thread>(owner);
+    }
+
+    protected boolean isAlive() {
+      Thread thread = owner.get();
+      return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Add the counters of <code>other</code> to this.
+     *
+     * @param other
+     */
+    synchronized protected void merge(ThreadState other) {
+      borrowCount += other.borrowCount;
+      borrowTime += other.borrowTime;
+      if (other.borrowTimeMax > borrowTimeMax) {
+        borrowTimeMax = other.borrowTimeMax;
+      }
+      waitCount += other.waitCount;
+    }
+
+    protected void recordBorrow(long nanos, boolean waited) {
+      borrowCount++;
+      borrowTime += nanos;
+      if (nanos > borrowTimeMax) {
+        borrowTimeMax = nanos;
+      }
+      if (waited) {
+        waitCount++;
+      }
+    }
+
+    protected void remember(Entry entry) {
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        Entry current = entries.get(i);
+        if (current == entry) {
+          return;
+        }
+        if (current.isRemoved()) {
+          entries.remove(i);
+        }
+      }
+      if (entries.size() >= THREAD_ENTRIES_MAX) {
+        entries.remove(0);
+      }
+      entries.add(entry);
+    }
+  }
+
+  private final static Logger Log = LogTools
+      .getLogger(ThreadAffinePool.class);
+
+  /**
+   * The maximum number of entries remembered per thread
+   */
+  private static final int THREAD_ENTRIES_MAX = 8;
+
+  /**
+   * The maximum time to wait for a hand over before checking the pool state
+   * again
+   */
+  private static final long WAIT_SLICE = 10;
+
+  final private IPoolObjectFactory objectFactory;
+
+  /**
+   * The maximum number of objects, 0 if unbounded
+   */
+  final private int maxSize;
+
+  final private CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<Entry>();
+
+  /**
+   * The number of objects created and not yet destroyed
+   */
+  final private AtomicInteger size = new AtomicInteger();
+
+  /**
+   * The number of threads waiting for a hand over
+   */
+  final private AtomicInteger waiters = new AtomicInteger();
+
+  final private SynchronousQueue<Entry> handoff = new SynchronousQueue<Entry>(
+      true);
+
+  final private ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+    @Override
+    protected ThreadState initialValue() {
+      pruneThreadStates();
+      ThreadState state = new ThreadState(Thread.currentThread());
+      threadStates.add(state);
+      return state;
+    }
+  };
+
+  /**
+   * All thread states, for the statistics
+   */
+  final private CopyOnWriteArrayList<ThreadState> threadStates = new CopyOnWriteArrayList<ThreadState>();
+
+  /**
+   * The counters of terminated threads
+   */
+  final private ThreadState retiredState = new ThreadState(null);
+
+  final private AtomicLong createCount = new AtomicLong();
+
+  final private AtomicLong destroyCount = new AtomicLong();
+
+  volatile private boolean closed = false;
+
+  /**
+   * Create a pool with at most <code>maxSize</code> objects.
+   *
+   * @param objectFactory The factory for the pooled objects
+   * @param maxSize       The maximum number of objects or 0 if unbounded.
+   */
+  public ThreadAffinePool(IPoolObjectFactory objectFactory, int maxSize) {
+    super();
+    this.objectFactory = objectFactory;
+    this.maxSize = Math.max(0, maxSize);
+  }
+
+  protected void activateObject(Object object) throws Exception {
+    if (objectFactory == null) {
+      return;
+    }
+    objectFactory.activateObject(object);
+  }
+
+  protected void assertOpen() {
+    if (closed) {
+      throw new IllegalStateException("pool closed");
+    }
+  }
+
+  public void checkin(Object object) throws Exception {
+    ThreadState state = threadState.get();
+    Entry entry = findEntry(state, object);
+    if (entry == null) {
+      throw new IllegalArgumentException("object not from this pool");
+    }
+    try {
+      deactivateObject(object);
+    } catch (Exception e) {
+      removeEntry(entry);
+      throw e;
+    }
+    if (closed) {
+      removeEntry(entry);
+      return;
+    }
+    entry.state.set(Entry.STATE_IDLE);
+    while (waiters.get() > 0) {
+      if (!entry.isIdle()) {
+        // taken by a scanning thread meanwhile
+        return;
+      }
+      if (handoff.offer(entry)) {
+        return;
+      }
+      Thread.yield();
+    }
+    state.remember(entry);
+  }
+
+  public Object checkout(long timeout) throws Exception {
+    assertOpen();
+    long start = System.nanoTime();
+    ThreadState state = threadState.get();
+    // fast path, one of my recent objects
+    for (int i = state.entries.size() - 1; i >= 0; i--) {
+      Entry entry = state.entries.get(i);
+      if (entry.tryReserve()) {
+        Object result = prepare(entry);
+        if (result != null) {
+          state.recordBorrow(System.nanoTime() - start, false);
+          return result;
+        }
+      }
+    }
+    boolean waited = false;
+    long deadline = timeout < 0 ? Long.MAX_VALUE : start
+        + TimeUnit.MILLISECONDS.toNanos(timeout);
+    while (true) {
+      assertOpen();
+      Object result = reserveIdle(state);
+      if (result != null) {
+        state.recordBorrow(System.nanoTime() - start, waited);
+        return result;
+      }
+      Entry created = tryCreate();
+      if (created != null) {
+        state.remember(created);
+        state.recordBorrow(System.nanoTime() - start, waited);
+        return created.getObject();
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        throw new TimeoutException("no pool object available within "
+            + timeout + "ms");
+      }
+      waited = true;
+      Entry entry;
+      waiters.incrementAndGet();
+      try {
+        // an entry may have been checked in before we were counted
+        result = reserveIdle(state);
+        if (result != null) {
+          state.recordBorrow(System.nanoTime() - start, waited);
+          return result;
+        }
+        entry = handoff.poll(
+            Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE)),
+            TimeUnit.NANOSECONDS);
+      } finally {
+        waiters.decrementAndGet();
+      }
+      if (entry != null && entry.tryReserve()) {
+        result = prepare(entry);
+        if (result != null) {
+          state.remember(entry);
+          state.recordBorrow(System.nanoTime() - start, waited);
+          return result;
+        }
+      }
+    }
+  }
+
+  public void close() throws Exception {
+    closed = true;
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+      Entry entry = it.next();
+      if (entry.tryRemove()) {
+        entries.remove(entry);
+        size.decrementAndGet();
+        destroyQuietly(entry.getObject());
+      }
+    }
+  }
+
+  protected Object createObject() throws Exception {
+    if (objectFactory == null) {
+      throw new IllegalStateException("can not create new object");
+    }
+    Object result = objectFactory.createObject();
+    if (result == null) {
+      throw new IllegalStateException("new object can't be null");
+    }
+    createCount.incrementAndGet();
+    return result;
+  }
+
+  protected void deactivateObject(Object object) throws Exception {
+    if (objectFactory == null) {
+      return;
+    }
+    objectFactory.deactivateObject(object);
+  }
+
+  public void destroy(Object object) throws Exception {
+    Entry entry = findEntry(threadState.get(), object);
+    if (entry == null) {
+      destroyObject(object);
+      return;
+    }
+    entry.state.set(Entry.STATE_REMOVED);
+    if (entries.remove(entry)) {
+      size.decrementAndGet();
+    }
+    destroyObject(object);
+  }
+
+  protected void destroyObject(Object object) throws Exception {
+    destroyCount.incrementAndGet();
+    if (objectFactory == null) {
+      return;
+    }
+    objectFactory.destroyObject(object);
+  }
+
+  protected void destroyQuietly(Object object) {
+    try {
+      destroyObject(object);
+    } catch (Exception e) {
+      Log.log(Level.FINE, "destroying pool object failed", e);
+    }
+  }
+
+  protected Entry findEntry(ThreadState state, Object object) {
+    for (int i = state.entries.size() - 1; i >= 0; i--) {
+      Entry entry = state.entries.get(i);
+      if (entry.object == object) {
+        return entry;
+      }
+    }
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+      Entry entry = it.next();
+      if (entry.object == object) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The number of objects currently checked out.
+   *
+   * @return The number of objects currently checked out.
+   */
+  public int getActiveCount() {
+    int count = 0;
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+      if (it.next().state.get() == Entry.STATE_IN_USE) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The number of successful checkouts.
+   *
+   * @return The number of successful checkouts.
+   */
+  public long getBorrowCount() {
+    long result = retiredState.borrowCount;
+    for (Iterator<ThreadState> it = threadStates.iterator(); it.hasNext();) {
+      result += it.next().borrowCount;
+    }
+    return result;
+  }
+
+  /**
+   * The maximum time of a single successful checkout in nanoseconds.
+   *
+   * @return The maximum time of a single successful checkout in nanoseconds.
+   */
+  public long getBorrowTimeMax() {
+    long result = retiredState.borrowTimeMax;
+    for (Iterator<ThreadState> it = threadStates.iterator(); it.hasNext();) {
+      result = Math.max(result, it.next().borrowTimeMax);
+    }
+    return result;
+  }
+
+  /**
+   * The total time spent in successful checkouts in nanoseconds.
+   *
+   * @return The total time spent in successful checkouts in nanoseconds.
+   */
+  public long getBorrowTimeTotal() {
+    long result = retiredState.borrowTime;
+    for (Iterator<ThreadState> it = threadStates.iterator(); it.hasNext();) {
+      result += it.next().borrowTime;
+    }
+    return result;
+  }
+
+  /**
+   * The number of objects created.
+   *
+   * @return The number of objects created.
+   */
+  public long getCreateCount() {
+    return createCount.get();
+  }
+
+  /**
+   * The number of objects destroyed.
+   *
+   * @return The number of objects destroyed.
+   */
+  public long getDestroyCount() {
+    return destroyCount.get();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * The number of objects currently managed by the pool.
+   *
+   * @return The number of objects currently managed by the pool.
+   */
+  public int getSize() {
+    return size.get();
+  }
+
+  /**
+   * The number of checkouts that had to wait for an object.
+   *
+   * @return The number of checkouts that had to wait for an object.
+   */
+  public long getWaitCount() {
+    long result = retiredState.waitCount;
+    for (Iterator<ThreadState> it = threadStates.iterator(); it.hasNext();) {
+      result += it.next().waitCount;
+    }
+    return result;
+  }
+
+  protected boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Activate and validate a reserved entry. An entry failing is removed from
+   * the pool.
+   *
+   * @return The object or null if the entry failed.
+   */
+  protected Object prepare(Entry entry) {
+    Object object = entry.getObject();
+    try {
+      activateObject(object);
+      if (validateObject(object)) {
+        return object;
+      }
+    } catch (Exception e) {
+      Log.log(Level.FINE, "pool object activation failed", e);
+    }
+    removeEntry(entry);
+    return null;
+  }
+
+  /**
+   * Remove the states of terminated threads, keeping their counters.
+   */
+  protected void pruneThreadStates() {
+    for (Iterator<ThreadState> it = threadStates.iterator(); it.hasNext();) {
+      ThreadState state = it.next();
+      if (!state.isAlive() && threadStates.remove(state)) {
+        retiredState.merge(state);
+      }
+    }
+  }
+
+  /**
+   * Register a {@link PoolMonitor} for this pool with <code>registry</code>.
+   *
+   * @param registry The registry for the monitor
+   * @param name     The name of the monitor
+   * @return The new monitor
+   */
+  public PoolMonitor registerMonitor(IMonitorRegistry registry, String name) {
+    PoolMonitor monitor = new PoolMonitor(name, this);
+    registry.registerMonitor(monitor);
+    return monitor;
+  }
+
+  /**
+   * Reserve and prepare any idle entry.
+   *
+   * @return The object or null if no idle entry is available.
+   */
+  protected Object reserveIdle(ThreadState state) {
+    for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+      Entry entry = it.next();
+      if (entry.tryReserve()) {
+        Object result = prepare(entry);
+        if (result != null) {
+          state.remember(entry);
+          return result;
+        }
+      }
+    }
+    return null;
+  }
+
+  protected void removeEntry(Entry entry) {
+    entry.state.set(Entry.STATE_REMOVED);
+    if (entries.remove(entry)) {
+      size.decrementAndGet();
+    }
+    destroyQuietly(entry.getObject());
+  }
+
+  /**
+   * Create a new entry in state "in use" if the pool size permits.
+   *
+   * @return The new entry or null.
+   */
+  protected Entry tryCreate() throws Exception {
+    while (true) {
+      int current = size.get();
+      if (maxSize > 0 && current >= maxSize) {
+        return null;
+      }
+      if (size.compareAndSet(current, current + 1)) {
+        break;
+      }
+    }
+    Object object;
+    try {
+      object = createObject();
+    } catch (Exception e) {
+      size.decrementAndGet();
+      throw e;
+    }
+    try {
+      activateObject(object);
+    } catch (Exception e) {
+      size.decrementAndGet();
+      destroyQuietly(object);
+      throw e;
+    }
+    Entry entry = new Entry(object);
+    entries.add(entry);
+    return entry;
+  }
+
+  protected boolean validateObject(Object object) throws Exception {
+    if (objectFactory instanceof IValidatingPoolObjectFactory) {
+      return ((IValidatingPoolObjectFactory) objectFactory)
+          .validateObject(object);
+    }
+    return true;
+  }
+}
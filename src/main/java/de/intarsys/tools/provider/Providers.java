@@ -7,6 +7,7 @@
 
 package de.intarsys.tools.provider;
 
+import de.intarsys.tools.locator.ClassPathResourceIndex;
 import de.intarsys.tools.stream.StreamTools;
 
 import java.io.BufferedReader;
@@ -86,7 +87,10 @@ public class Providers {
 
   private void init() throws IOException {
     Enumeration<URL> providerlistUrls;
-    if (loader == null) {
+    ClassPathResourceIndex index = ClassPathResourceIndex.lookup(loader);
+    if (index != null && index.covers(PROVIDERLIST)) {
+      providerlistUrls = index.getResourcesEnumeration(PROVIDERLIST);
+    } else if (loader == null) {
       providerlistUrls = ClassLoader.getSystemResources(PROVIDERLIST);
     } else {
       providerlistUrls = loader.getResources(PROVIDERLIST);
@@ -32,6 +32,8 @@ package de.intarsys.tools.randomaccess;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Stack;
 
 /**
@@ -39,6 +41,12 @@ import java.util.Stack;
  * access data container behaves like a large array of bytes.
  */
 public abstract class AbstractRandomAccess implements IRandomAccess {
+  /**
+   * The size of the intermediate buffer when moving data from and to
+   * buffers or channels.
+   */
+  protected static final int TRANSFER_BUFFER_SIZE = 8192;
+
   private Stack positionStack;
 
   public AbstractRandomAccess() {
@@ -72,6 +80,33 @@ public abstract class AbstractRandomAccess implements IRandomAccess {
     getPositionStack().push(new Long(getOffset()));
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#read(java.nio.ByteBuffer)
+   */
+  public int read(ByteBuffer buffer) throws IOException {
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    if (buffer.hasArray()) {
+      int count = read(buffer.array(), buffer.arrayOffset()
+          + buffer.position(), buffer.remaining());
+      if (count > 0) {
+        buffer.position(buffer.position() + count);
+      }
+      return count;
+    }
+    byte[] bytes = new byte[Math.min(buffer.remaining(),
+        TRANSFER_BUFFER_SIZE)];
+    int count = read(bytes, 0, bytes.length);
+    if (count > 0) {
+      buffer.put(bytes, 0, count);
+    }
+    return count;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -85,6 +120,60 @@ public abstract class AbstractRandomAccess implements IRandomAccess {
     }
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#transferTo(long, long,
+   * java.nio.channels.WritableByteChannel)
+   */
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    long offset = getOffset();
+    long transferred = 0;
+    try {
+      seek(position);
+      byte[] bytes = new byte[(int) Math.min(Math.max(count, 0),
+          TRANSFER_BUFFER_SIZE)];
+      while (transferred < count) {
+        int read = read(bytes, 0, (int) Math.min(bytes.length, count
+            - transferred));
+        if (read <= 0) {
+          break;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+        while (buffer.hasRemaining()) {
+          target.write(buffer);
+        }
+        transferred += read;
+      }
+    } finally {
+      seek(offset);
+    }
+    return transferred;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#write(java.nio.ByteBuffer)
+   */
+  public void write(ByteBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+      buffer.position(buffer.limit());
+      return;
+    }
+    byte[] bytes = new byte[Math.min(buffer.remaining(),
+        TRANSFER_BUFFER_SIZE)];
+    while (buffer.hasRemaining()) {
+      int count = Math.min(buffer.remaining(), bytes.length);
+      buffer.get(bytes, 0, count);
+      write(bytes, 0, count);
+    }
+  }
+
   /**
    * @return Returns the positionStack.
    */
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.randomaccess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An extension to {@link IRandomAccess} for reading at an explicit position.
+ * <p>
+ * Positional reads neither use nor change the current offset of the
+ * {@link IRandomAccess}. Unless stated otherwise by the implementation,
+ * concurrent positional reads from multiple threads are safe without
+ * additional locking as long as the data is not modified at the same time.
+ */
+public interface IPositionalRandomAccess {
+
+  /**
+   * Reads up to <code>numBytes</code> bytes of data starting at
+   * <code>position</code> into an array of bytes.
+   *
+   * @param position the position in the data container to start reading.
+   * @param buffer   the buffer into which the data is read.
+   * @param start    the start offset in <code>buffer</code>.
+   * @param numBytes the maximum number of bytes read.
+   * @return the total number of bytes read into the buffer, or
+   * <code>-1</code> if <code>position</code> is at or beyond the end
+   * of the data container.
+   * @throws IOException if an I/O error occurs.
+   */
+  public int read(long position, byte[] buffer, int start, int numBytes)
+      throws IOException;
+
+  /**
+   * Reads up to <code>buffer.remaining()</code> bytes of data starting at
+   * <code>position</code> into <code>buffer</code>. The position of
+   * <code>buffer</code> is advanced by the number of bytes read.
+   *
+   * @param position the position in the data container to start reading.
+   * @param buffer   the buffer into which the data is read.
+   * @return the total number of bytes read into the buffer, or
+   * <code>-1</code> if <code>position</code> is at or beyond the end
+   * of the data container.
+   * @throws IOException if an I/O error occurs.
+   */
+  public int read(long position, ByteBuffer buffer) throws IOException;
+}
@@ -33,6 +33,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * An interface for an object that can randomly access bytes in a data stream.
@@ -158,6 +160,19 @@ public interface IRandomAccess {
    */
   public int read(byte[] buffer, int start, int numBytes) throws IOException;
 
+  /**
+   * Reads up to <code>buffer.remaining()</code> bytes of data from this data
+   * container into <code>buffer</code>, starting at the current offset. The
+   * position of <code>buffer</code> is advanced by the number of bytes read.
+   *
+   * @param buffer the buffer into which the data is read.
+   * @return the total number of bytes read into the buffer, or
+   * <code>-1</code> if there is no more data because the end of the
+   * data container has been reached.
+   * @throws IOException if an I/O error occurs.
+   */
+  public int read(ByteBuffer buffer) throws IOException;
+
   /**
    * Reset to the last position on the mark-stack.
    */
@@ -193,6 +208,23 @@ public interface IRandomAccess {
    */
   public void seekBy(long delta) throws IOException;
 
+  /**
+   * Transfers up to <code>count</code> bytes starting at
+   * <code>position</code> to <code>target</code>. The current offset is not
+   * changed.
+   * <p>
+   * Implementations may transfer the bytes without copying them to the java
+   * heap.
+   *
+   * @param position the position in the data container to start transfer.
+   * @param count    the maximum number of bytes to transfer.
+   * @param target   the target channel.
+   * @return the number of bytes transferred.
+   * @throws IOException if an I/O error occurs.
+   */
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException;
+
   /**
    * Writes <code>b.length</code> bytes from the specified byte array,
    * starting at the current offset.
@@ -214,6 +246,16 @@ public interface IRandomAccess {
   public abstract void write(byte[] buffer, int start, int numBytes)
       throws IOException;
 
+  /**
+   * Writes all remaining bytes of <code>buffer</code>, starting at the
+   * current offset. The position of <code>buffer</code> is advanced to its
+   * limit.
+   *
+   * @param buffer the data.
+   * @throws IOException if an I/O error occurs.
+   */
+  public void write(ByteBuffer buffer) throws IOException;
+
   /**
    * Writes the specified byte . The write starts at the current offset.
    *
@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.randomaccess;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implements random access to a file via memory mapping.
+ * <p>
+ * The file is mapped in segments of {@link #getSegmentSize()} bytes, so files
+ * larger than 2 GB can be accessed. Segments are mapped on demand.
+ * <p>
+ * When writing beyond the end of the file, the file is enlarged in larger
+ * steps to avoid remapping with every write. The file is truncated to its
+ * logical length and all mappings are released upon {@link #close()}.
+ * <p>
+ * This is not thread safe.
+ */
+public class MappedRandomAccess extends AbstractRandomAccess {
+
+  /**
+   * The logger to be used in this package
+   */
+  private static Logger Log = PACKAGE.Log;
+
+  /**
+   * The default size of a mapped segment (1 GB).
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+  /**
+   * The minimum number of bytes we will enlarge the file
+   */
+  private static final long MIN_GROWTH = 1 << 16;
+
+  private static final MappedByteBuffer[] NO_SEGMENTS = new MappedByteBuffer[0];
+
+  /**
+   * Release the mapping of <code>buffer</code> immediately, if the platform
+   * allows it. Otherwise the mapping is released when the buffer is garbage
+   * collected.
+   * <p>
+   * The buffer must not be used afterwards.
+   *
+   * @param buffer The buffer to unmap.
+   */
+  public static void unmap(MappedByteBuffer buffer) {
+    BufferTools.release(buffer);
+  }
+
+  /**
+   * The wrapped RandomAccessFile of the java library
+   */
+  private java.io.RandomAccessFile fileAccess;
+
+  private FileChannel channel;
+
+  /**
+   * Flag if this is used read only
+   */
+  private boolean readOnly = false;
+
+  private File file;
+
+  private final int segmentShift;
+
+  private final int segmentMask;
+
+  private MappedByteBuffer[] segments = NO_SEGMENTS;
+
+  /**
+   * The physical length of the file, may be larger than {@link #length}
+   * while writing.
+   */
+  private long capacity;
+
+  /**
+   * The logical length of the data
+   */
+  private long length;
+
+  /**
+   * The current offset
+   */
+  private long offset;
+
+  /**
+   * @param file to open for random access
+   * @throws FileNotFoundException if file was not found or the file is locked by a different
+   *                               process
+   */
+  public MappedRandomAccess(File file) throws IOException {
+    this(file, true);
+  }
+
+  /**
+   * @param file to open for random access
+   * @throws FileNotFoundException if file was not found or the file is locked by a different
+   *                               process
+   */
+  public MappedRandomAccess(File file, boolean create) throws IOException {
+    this(file, create, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param file        to open for random access
+   * @param create      flag if file should be created if it does not exist
+   * @param segmentSize the size of a mapped segment, must be a power of 2
+   * @throws FileNotFoundException if file was not found or the file is locked by a different
+   *                               process
+   */
+  public MappedRandomAccess(File file, boolean create, int segmentSize)
+      throws IOException {
+    if (segmentSize <= 0 || (segmentSize & (segmentSize - 1)) != 0) {
+      throw new IllegalArgumentException(
+          "segment size must be a power of 2");
+    }
+    this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+    this.segmentMask = segmentSize - 1;
+    this.file = file;
+    if (create && !file.exists()) {
+      File dir = file.getParentFile();
+      if ((dir != null) && !dir.exists()) {
+        dir.mkdirs();
+      }
+      file.createNewFile();
+    }
+    if (!file.exists()) {
+      throw new FileNotFoundException(
+          "file does not exist or can't be created");
+    }
+    if (file.canWrite()) {
+      try {
+        fileAccess = new java.io.RandomAccessFile(file, "rw");
+      } catch (IOException e) {
+        // canWrite() doesn't check for user permissions
+        // try again with readonly
+      }
+    }
+    if (fileAccess == null) {
+      fileAccess = new java.io.RandomAccessFile(file, "r");
+      readOnly = true;
+    }
+    channel = fileAccess.getChannel();
+    capacity = channel.size();
+    length = capacity;
+  }
+
+  protected void checkOpen() throws IOException {
+    if (channel == null) {
+      throw new IOException("random access closed");
+    }
+  }
+
+  protected void checkWritable() throws IOException {
+    checkOpen();
+    if (readOnly) {
+      throw new IOException("random access is read only");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#close()
+   */
+  public void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      for (int i = 0; i < segments.length; i++) {
+        unmap(segments[i]);
+        segments[i] = null;
+      }
+      segments = NO_SEGMENTS;
+      if (!readOnly && capacity > length) {
+        try {
+          channel.truncate(length);
+        } catch (IOException e) {
+          Log.log(Level.WARNING, "can't truncate " + file, e);
+        }
+      }
+    } finally {
+      channel = null;
+      fileAccess.close();
+    }
+  }
+
+  /**
+   * Make sure the file has at least <code>minCapacity</code> bytes.
+   */
+  protected void ensureCapacity(long minCapacity) throws IOException {
+    if (minCapacity <= capacity) {
+      return;
+    }
+    long segmentSize = segmentMask + 1L;
+    long growth = Math.max(MIN_GROWTH, Math.min(capacity, segmentSize));
+    long newCapacity = Math.max(minCapacity, capacity + growth);
+    fileAccess.setLength(newCapacity);
+    capacity = newCapacity;
+  }
+
+  /**
+   * Zero the bytes from <code>from</code> to <code>to</code>.
+   */
+  protected void fill(long from, long to) throws IOException {
+    while (from < to) {
+      MappedByteBuffer segment = getSegment((int) (from >>> segmentShift));
+      int position = (int) (from & segmentMask);
+      int count = (int) Math.min(to - from, segment.capacity() - position);
+      for (int i = 0; i < count; i++) {
+        segment.put(position + i, (byte) 0);
+      }
+      from += count;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#flush()
+   */
+  public void flush() throws IOException {
+    checkOpen();
+    if (readOnly) {
+      return;
+    }
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] != null) {
+        segments[i].force();
+      }
+    }
+  }
+
+  /**
+   * The file accessed.
+   *
+   * @return The file accessed.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#getLength()
+   */
+  public long getLength() throws IOException {
+    return length;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#getOffset()
+   */
+  public long getOffset() throws IOException {
+    return offset;
+  }
+
+  /**
+   * The mapped segment for <code>index</code>, (re)mapped if not yet mapped
+   * or if the file was enlarged since.
+   */
+  protected MappedByteBuffer getSegment(int index) throws IOException {
+    if (index >= segments.length) {
+      MappedByteBuffer[] newSegments = new MappedByteBuffer[index + 1];
+      System.arraycopy(segments, 0, newSegments, 0, segments.length);
+      segments = newSegments;
+    }
+    long start = (long) index << segmentShift;
+    int size = (int) Math.min(segmentMask + 1L, capacity - start);
+    MappedByteBuffer segment = segments[index];
+    if (segment == null || segment.capacity() != size) {
+      unmap(segment);
+      segments[index] = null;
+      FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY
+          : FileChannel.MapMode.READ_WRITE;
+      segment = channel.map(mode, start, size);
+      segments[index] = segment;
+    }
+    return segment;
+  }
+
+  /**
+   * The size of a mapped segment.
+   *
+   * @return The size of a mapped segment.
+   */
+  public int getSegmentSize() {
+    return segmentMask + 1;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#isReadOnly()
+   */
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * Enlarge the file if needed before writing up to <code>end</code>.
+   */
+  protected void prepareWrite(long end) throws IOException {
+    if (end <= length) {
+      return;
+    }
+    ensureCapacity(end);
+    if (offset > length) {
+      // writing after a seek beyond the end
+      fill(length, offset);
+    }
+    length = end;
+  }
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read()
+   */
+  public int read() throws IOException {
+    checkOpen();
+    if (offset >= length) {
+      return -1;
+    }
+    MappedByteBuffer segment = getSegment((int) (offset >>> segmentShift));
+    int result = segment.get((int) (offset & segmentMask)) & 0xff;
+    offset++;
+    return result;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read(byte[])
+   */
+  public int read(byte[] buffer) throws IOException {
+    return read(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read(byte[], int,
+   *      int)
+   */
+  public int read(byte[] buffer, int start, int numBytes) throws IOException {
+    checkOpen();
+    if (numBytes == 0) {
+      return 0;
+    }
+    long remaining = length - offset;
+    if (remaining <= 0) {
+      return -1;
+    }
+    if (numBytes > remaining) {
+      numBytes = (int) remaining;
+    }
+    int todo = numBytes;
+    while (todo > 0) {
+      MappedByteBuffer segment = getSegment((int) (offset >>> segmentShift));
+      int position = (int) (offset & segmentMask);
+      int count = Math.min(todo, segment.capacity() - position);
+      segment.position(position);
+      segment.get(buffer, start, count);
+      start += count;
+      todo -= count;
+      offset += count;
+    }
+    return numBytes;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#read(java.nio.ByteBuffer)
+   */
+  @Override
+  public int read(ByteBuffer buffer) throws IOException {
+    checkOpen();
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    long remaining = length - offset;
+    if (remaining <= 0) {
+      return -1;
+    }
+    int numBytes = (int) Math.min(buffer.remaining(), remaining);
+    int todo = numBytes;
+    while (todo > 0) {
+      MappedByteBuffer segment = getSegment((int) (offset >>> segmentShift));
+      int position = (int) (offset & segmentMask);
+      int count = Math.min(todo, segment.capacity() - position);
+      ByteBuffer slice = segment.duplicate();
+      slice.position(position);
+      slice.limit(position + count);
+      buffer.put(slice);
+      todo -= count;
+      offset += count;
+    }
+    return numBytes;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#seek(long)
+   */
+  public void seek(long pOffset) throws IOException {
+    if (pOffset < 0) {
+      throw new IOException("offset less than 0");
+    }
+    offset = pOffset;
+  }
+
+  public void seekBy(long delta) throws IOException {
+    seek(offset + delta);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#setLength(long)
+   */
+  public void setLength(long newLength) throws IOException {
+    checkWritable();
+    if (newLength < 0) {
+      throw new IOException("length less than 0");
+    }
+    if (newLength > length) {
+      ensureCapacity(newLength);
+      // the file may contain garbage beyond the logical length
+      fill(length, newLength);
+    }
+    length = newLength;
+    if (offset > length) {
+      offset = length;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#transferTo(long, long,
+   * java.nio.channels.WritableByteChannel)
+   */
+  @Override
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    checkOpen();
+    // the file may be larger than the logical length
+    long end = position + Math.min(count, Math.max(0, length - position));
+    long current = position;
+    while (current < end) {
+      long transferred = channel.transferTo(current, end - current, target);
+      if (transferred <= 0) {
+        break;
+      }
+      current += transferred;
+    }
+    return current - position;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(byte[])
+   */
+  public void write(byte[] buffer) throws IOException {
+    write(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(byte[], int,
+   *      int)
+   */
+  public void write(byte[] buffer, int start, int numBytes)
+      throws IOException {
+    checkWritable();
+    long end = offset + numBytes;
+    prepareWrite(end);
+    while (numBytes > 0) {
+      MappedByteBuffer segment = getSegment((int) (offset >>> segmentShift));
+      int position = (int) (offset & segmentMask);
+      int count = Math.min(numBytes, segment.capacity() - position);
+      segment.position(position);
+      segment.put(buffer, start, count);
+      start += count;
+      numBytes -= count;
+      offset += count;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(int)
+   */
+  public void write(int b) throws IOException {
+    checkWritable();
+    prepareWrite(offset + 1);
+    MappedByteBuffer segment = getSegment((int) (offset >>> segmentShift));
+    segment.put((int) (offset & segmentMask), (byte) b);
+    offset++;
+  }
+}
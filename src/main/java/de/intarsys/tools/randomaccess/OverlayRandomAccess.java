@@ -0,0 +1,647 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.randomaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@link IRandomAccess} recording all changes in an overlay on top of a
+ * base {@link IRandomAccess} that is never modified.
+ * <p>
+ * Written bytes are kept in a sparse set of extents. Reads merge the extents
+ * with the base data. When the extents use more than
+ * {@link #getSpillThreshold()} bytes of memory they are moved to a temporary
+ * file. Memory and I/O are proportional to the size of the changes, not to
+ * the size of the base.
+ * <p>
+ * The changes can be retrieved via {@link #getExtents()} or applied to some
+ * other {@link IRandomAccess} (including the base itself) via
+ * {@link #applyTo(IRandomAccess)}. The merged result can be streamed using
+ * {@link #transferTo(long, long, java.nio.channels.WritableByteChannel)} or
+ * {@link #asInputStream()}.
+ * <p>
+ * This is not thread safe.
+ */
+public class OverlayRandomAccess extends AbstractRandomAccess {
+
+  /**
+   * A contiguous range of changed bytes.
+   */
+  public static class Extent {
+    protected final long start;
+
+    protected int length;
+
+    /**
+     * The changed bytes, null if spilled to the temporary file.
+     */
+    protected byte[] data;
+
+    /**
+     * The position of the bytes in the temporary file, if spilled. This is
+     * kept when the extent is loaded again, so that the slot can be reused.
+     */
+    protected long spillOffset = -1;
+
+    /**
+     * The number of bytes reserved at "spillOffset" in the temporary file.
+     */
+    protected int spillCapacity = 0;
+
+    protected Extent(long start) {
+      this.start = start;
+    }
+
+    public long getEnd() {
+      return start + length;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + start + "-" + getEnd() + "]";
+    }
+  }
+
+  /**
+   * The logger to be used in this package
+   */
+  private static Logger Log = PACKAGE.Log;
+
+  /**
+   * The maximum number of bytes in a single extent
+   */
+  private static final int MAX_EXTENT_LENGTH = 1 << 20;
+
+  private static final int DEFAULT_SPILL_THRESHOLD = 4 * 1024 * 1024;
+
+  private final IRandomAccess base;
+
+  private final long baseLength;
+
+  /**
+   * The extents by start offset. Extents never overlap.
+   */
+  private final TreeMap<Long, Extent> extents = new TreeMap<Long, Extent>();
+
+  /**
+   * The number of bytes of the base that are still visible. This is reduced
+   * when truncating.
+   */
+  private long baseLimit;
+
+  private long length;
+
+  private long offset = 0;
+
+  /**
+   * The number of bytes held in memory by extents.
+   */
+  private long memorySize = 0;
+
+  private int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+  private File spillFile;
+
+  private java.io.RandomAccessFile spill;
+
+  private long spillLength = 0;
+
+  private boolean closed = false;
+
+  /**
+   * Create an overlay on <code>base</code>. <code>base</code> is closed
+   * together with this.
+   *
+   * @param base The {@link IRandomAccess} that is never modified.
+   * @throws IOException
+   */
+  public OverlayRandomAccess(IRandomAccess base) throws IOException {
+    this.base = base;
+    this.baseLength = base.getLength();
+    this.length = baseLength;
+    this.baseLimit = baseLength;
+  }
+
+  /**
+   * Write all changes to <code>target</code> and adjust its length. Only the
+   * changed extents and the base bytes hidden by truncation are written.
+   * <p>
+   * <code>target</code> may be the base of this; the content visible through
+   * this remains the same.
+   *
+   * @param target The {@link IRandomAccess} receiving the changes.
+   * @throws IOException
+   */
+  public void applyTo(IRandomAccess target) throws IOException {
+    checkOpen();
+    long targetOffset = target.getOffset();
+    byte[] buffer = null;
+    // base bytes hidden by a truncation must not reappear in target
+    long zeroEnd = Math.min(length, target.getLength());
+    long position = baseLimit;
+    while (position < zeroEnd) {
+      Map.Entry<Long, Extent> entry = extents.floorEntry(position);
+      if (entry != null && entry.getValue().getEnd() > position) {
+        position = entry.getValue().getEnd();
+        continue;
+      }
+      Long next = extents.higherKey(position);
+      long gapEnd = next == null ? zeroEnd : Math.min(zeroEnd,
+          next.longValue());
+      if (buffer == null) {
+        buffer = new byte[TRANSFER_BUFFER_SIZE];
+      }
+      target.seek(position);
+      while (position < gapEnd) {
+        int count = (int) Math.min(buffer.length, gapEnd - position);
+        target.write(buffer, 0, count);
+        position += count;
+      }
+    }
+    for (Iterator<Extent> it = extents.values().iterator(); it.hasNext(); ) {
+      Extent extent = it.next();
+      target.seek(extent.start);
+      if (extent.data != null) {
+        target.write(extent.data, 0, extent.length);
+        continue;
+      }
+      if (buffer == null) {
+        buffer = new byte[TRANSFER_BUFFER_SIZE];
+      }
+      int done = 0;
+      while (done < extent.length) {
+        int count = Math.min(buffer.length, extent.length - done);
+        readSpilled(extent, done, buffer, 0, count);
+        target.write(buffer, 0, count);
+        done += count;
+      }
+    }
+    if (target.getLength() != length) {
+      target.setLength(length);
+    }
+    target.seek(Math.min(targetOffset, length));
+  }
+
+  protected void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("random access closed");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#close()
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    extents.clear();
+    memorySize = 0;
+    try {
+      if (spill != null) {
+        spill.close();
+        spill = null;
+        if (!spillFile.delete()) {
+          Log.log(Level.FINE, "can't delete " + spillFile);
+        }
+      }
+    } finally {
+      base.close();
+    }
+  }
+
+  /**
+   * Make <code>extent</code> hold its data in memory.
+   */
+  protected void ensureLoaded(Extent extent) throws IOException {
+    if (extent.data != null) {
+      return;
+    }
+    byte[] data = new byte[extent.length];
+    readSpilled(extent, 0, data, 0, extent.length);
+    extent.data = data;
+    memorySize += data.length;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#flush()
+   */
+  public void flush() throws IOException {
+    checkOpen();
+  }
+
+  /**
+   * The {@link IRandomAccess} that is never modified.
+   *
+   * @return The {@link IRandomAccess} that is never modified.
+   */
+  public IRandomAccess getBase() {
+    return base;
+  }
+
+  /**
+   * The changed extents in ascending order.
+   *
+   * @return The changed extents in ascending order.
+   */
+  public List<Extent> getExtents() {
+    return new ArrayList<Extent>(extents.values());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#getLength()
+   */
+  public long getLength() throws IOException {
+    checkOpen();
+    return length;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#getOffset()
+   */
+  public long getOffset() throws IOException {
+    checkOpen();
+    return offset;
+  }
+
+  /**
+   * The number of bytes extents may hold in memory before they are moved to
+   * a temporary file.
+   *
+   * @return The number of bytes extents may hold in memory.
+   */
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  /**
+   * <code>true</code> if any byte was changed.
+   *
+   * @return <code>true</code> if any byte was changed.
+   */
+  public boolean isChanged() {
+    return !extents.isEmpty() || length != baseLength
+        || baseLimit != baseLength;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#isReadOnly()
+   */
+  public boolean isReadOnly() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#read()
+   */
+  public int read() throws IOException {
+    checkOpen();
+    if (offset >= length) {
+      return -1;
+    }
+    Map.Entry<Long, Extent> entry = extents.floorEntry(offset);
+    if (entry != null && entry.getValue().getEnd() > offset) {
+      Extent extent = entry.getValue();
+      int position = (int) (offset - extent.start);
+      offset++;
+      if (extent.data != null) {
+        return extent.data[position] & 0xff;
+      }
+      byte[] single = new byte[1];
+      readSpilled(extent, position, single, 0, 1);
+      return single[0] & 0xff;
+    }
+    int result = 0;
+    if (offset < baseLimit) {
+      base.seek(offset);
+      result = base.read();
+      if (result == -1) {
+        result = 0;
+      }
+    }
+    offset++;
+    return result;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#read(byte[])
+   */
+  public int read(byte[] buffer) throws IOException {
+    return read(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#read(byte[], int, int)
+   */
+  public int read(byte[] buffer, int start, int numBytes) throws IOException {
+    checkOpen();
+    if (numBytes == 0) {
+      return 0;
+    }
+    if (offset >= length) {
+      return -1;
+    }
+    numBytes = (int) Math.min(numBytes, length - offset);
+    long end = offset + numBytes;
+    while (offset < end) {
+      int done = (int) (numBytes - (end - offset));
+      Map.Entry<Long, Extent> entry = extents.floorEntry(offset);
+      if (entry != null && entry.getValue().getEnd() > offset) {
+        Extent extent = entry.getValue();
+        int position = (int) (offset - extent.start);
+        int count = (int) (Math.min(end, extent.getEnd()) - offset);
+        if (extent.data != null) {
+          System.arraycopy(extent.data, position, buffer, start + done,
+              count);
+        } else {
+          readSpilled(extent, position, buffer, start + done, count);
+        }
+        offset += count;
+        continue;
+      }
+      Long next = extents.higherKey(offset);
+      long gapEnd = next == null ? end : Math.min(end, next.longValue());
+      readBase(offset, buffer, start + done, (int) (gapEnd - offset));
+      offset = gapEnd;
+    }
+    return numBytes;
+  }
+
+  /**
+   * Read unchanged bytes, zero beyond the visible base.
+   */
+  protected void readBase(long position, byte[] buffer, int start,
+                          int numBytes) throws IOException {
+    int count = 0;
+    if (position < baseLimit) {
+      int baseCount = (int) Math.min(numBytes, baseLimit - position);
+      if (base instanceof IPositionalRandomAccess) {
+        IPositionalRandomAccess positional = (IPositionalRandomAccess) base;
+        while (count < baseCount) {
+          int read = positional.read(position + count, buffer, start
+              + count, baseCount - count);
+          if (read <= 0) {
+            break;
+          }
+          count += read;
+        }
+      } else {
+        base.seek(position);
+        while (count < baseCount) {
+          int read = base.read(buffer, start + count, baseCount - count);
+          if (read <= 0) {
+            break;
+          }
+          count += read;
+        }
+      }
+    }
+    for (int i = count; i < numBytes; i++) {
+      buffer[start + i] = 0;
+    }
+  }
+
+  protected void readSpilled(Extent extent, int position, byte[] buffer,
+                             int start, int numBytes) throws IOException {
+    spill.seek(extent.spillOffset + position);
+    spill.readFully(buffer, start, numBytes);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#seek(long)
+   */
+  public void seek(long pOffset) throws IOException {
+    checkOpen();
+    if (pOffset < 0) {
+      throw new IOException("offset less than 0");
+    }
+    offset = pOffset;
+  }
+
+  public void seekBy(long delta) throws IOException {
+    seek(offset + delta);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#setLength(long)
+   */
+  public void setLength(long newLength) throws IOException {
+    checkOpen();
+    if (newLength < 0) {
+      throw new IOException("length less than 0");
+    }
+    if (newLength < length) {
+      // drop or trim extents beyond the new length
+      while (!extents.isEmpty() && extents.lastKey().longValue() >= newLength) {
+        Extent extent = extents.remove(extents.lastKey());
+        if (extent.data != null) {
+          memorySize -= extent.data.length;
+        }
+      }
+      if (!extents.isEmpty()) {
+        Extent last = extents.lastEntry().getValue();
+        if (last.getEnd() > newLength) {
+          last.length = (int) (newLength - last.start);
+        }
+      }
+      if (newLength < baseLimit) {
+        baseLimit = newLength;
+      }
+    }
+    length = newLength;
+    if (offset > length) {
+      offset = length;
+    }
+  }
+
+  /**
+   * Set the number of bytes extents may hold in memory before they are moved
+   * to a temporary file.
+   *
+   * @param spillThreshold
+   */
+  public void setSpillThreshold(int spillThreshold) {
+    this.spillThreshold = spillThreshold;
+  }
+
+  /**
+   * Move all extents held in memory to the temporary file. An extent that
+   * was spilled before reuses its slot if it still fits.
+   */
+  protected void spill() throws IOException {
+    if (spill == null) {
+      spillFile = File.createTempFile("overlay", ".tmp");
+      spillFile.deleteOnExit();
+      spill = new java.io.RandomAccessFile(spillFile, "rw");
+    }
+    for (Iterator<Extent> it = extents.values().iterator(); it.hasNext(); ) {
+      Extent extent = it.next();
+      if (extent.data == null) {
+        continue;
+      }
+      if (extent.spillOffset < 0 || extent.length > extent.spillCapacity) {
+        extent.spillOffset = spillLength;
+        extent.spillCapacity = extent.length;
+        spillLength += extent.length;
+      }
+      spill.seek(extent.spillOffset);
+      spill.write(extent.data, 0, extent.length);
+      memorySize -= extent.data.length;
+      extent.data = null;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#write(byte[])
+   */
+  public void write(byte[] buffer) throws IOException {
+    write(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#write(byte[], int, int)
+   */
+  public void write(byte[] buffer, int start, int numBytes)
+      throws IOException {
+    checkOpen();
+    long end = offset + numBytes;
+    while (offset < end) {
+      int done = (int) (numBytes - (end - offset));
+      Map.Entry<Long, Extent> entry = extents.floorEntry(offset);
+      Extent extent = entry == null ? null : entry.getValue();
+      if (extent != null && extent.getEnd() > offset) {
+        // overwrite existing extent
+        ensureLoaded(extent);
+        int position = (int) (offset - extent.start);
+        int count = (int) (Math.min(end, extent.getEnd()) - offset);
+        System.arraycopy(buffer, start + done, extent.data, position, count);
+        offset += count;
+        continue;
+      }
+      Long next = extents.higherKey(offset);
+      long gapEnd = next == null ? end : Math.min(end, next.longValue());
+      int count;
+      if (extent != null && extent.getEnd() == offset
+          && extent.length < MAX_EXTENT_LENGTH) {
+        // append to preceding extent
+        ensureLoaded(extent);
+        count = (int) Math.min(gapEnd - offset, MAX_EXTENT_LENGTH
+            - extent.length);
+        int newLength = extent.length + count;
+        if (newLength > extent.data.length) {
+          int capacity = Math.min(MAX_EXTENT_LENGTH, Math.max(newLength,
+              extent.data.length * 2));
+          byte[] data = new byte[capacity];
+          System.arraycopy(extent.data, 0, data, 0, extent.length);
+          memorySize += capacity - extent.data.length;
+          extent.data = data;
+        }
+        System.arraycopy(buffer, start + done, extent.data, extent.length,
+            count);
+        extent.length = newLength;
+      } else {
+        count = (int) Math.min(gapEnd - offset, MAX_EXTENT_LENGTH);
+        extent = new Extent(offset);
+        extent.data = new byte[count];
+        extent.length = count;
+        System.arraycopy(buffer, start + done, extent.data, 0, count);
+        memorySize += count;
+        extents.put(offset, extent);
+      }
+      offset += count;
+    }
+    if (offset > length) {
+      length = offset;
+    }
+    if (memorySize > spillThreshold) {
+      spill();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#write(int)
+   */
+  public void write(int b) throws IOException {
+    checkOpen();
+    Map.Entry<Long, Extent> entry = extents.floorEntry(offset);
+    if (entry != null) {
+      Extent extent = entry.getValue();
+      if (extent.data != null && extent.getEnd() > offset) {
+        extent.data[(int) (offset - extent.start)] = (byte) b;
+        offset++;
+        return;
+      }
+    }
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.randomaccess;
+
+import de.intarsys.tools.collection.LongHashMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An {@link IRandomAccess} decorator caching a fixed number of pages of the
+ * wrapped {@link IRandomAccess}.
+ * <p>
+ * Other than {@link BufferedRandomAccess}, which only keeps the buffer at the
+ * current offset, this keeps the least recently used pages, so that seeking
+ * back and forth between a few regions does not read the same data over and
+ * over again. Changed pages are written back when evicted, upon
+ * {@link #flush()} and upon {@link #close()}.
+ * <p>
+ * This is not thread safe.
+ */
+public class PageCachedRandomAccess extends AbstractRandomAccess {
+
+  private static final int DEFAULT_PAGE_SIZE = 4096;
+
+  private static final int DEFAULT_PAGE_COUNT = 16;
+
+  static class Page {
+    protected final byte[] data;
+
+    protected long index;
+
+    /**
+     * The number of valid bytes in data
+     */
+    protected int count;
+
+    protected boolean dirty;
+
+    protected Page previous;
+
+    protected Page next;
+
+    protected Page(int size) {
+      data = new byte[size];
+    }
+  }
+
+  /**
+   * The cached random access delegate
+   */
+  private final IRandomAccess randomAccess;
+
+  private final int pageSize;
+
+  private final int pageCount;
+
+  /**
+   * The pages by page index.
+   */
+  private final LongHashMap pages;
+
+  /**
+   * The most recently used page. The pages are doubly linked in LRU order.
+   */
+  private Page head;
+
+  /**
+   * The least recently used page.
+   */
+  private Page tail;
+
+  /**
+   * The page at the current offset, if known.
+   */
+  private Page current;
+
+  private long offset = 0;
+
+  /**
+   * The length of the random access data
+   */
+  private long length;
+
+  /**
+   * The length of the delegate. Data between this and "length" that is not
+   * in a page is zero.
+   */
+  private long baseLength;
+
+  private boolean closed = false;
+
+  private long hitCount = 0;
+
+  private long missCount = 0;
+
+  public PageCachedRandomAccess(IRandomAccess randomAccess)
+      throws IOException {
+    this(randomAccess, DEFAULT_PAGE_SIZE, DEFAULT_PAGE_COUNT);
+  }
+
+  /**
+   * @param randomAccess The {@link IRandomAccess} to cache.
+   * @param pageSize     The number of bytes in a page.
+   * @param pageCount    The maximum number of pages cached.
+   * @throws IOException
+   */
+  public PageCachedRandomAccess(IRandomAccess randomAccess, int pageSize,
+                                int pageCount) throws IOException {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("page size must be > 0");
+    }
+    if (pageCount <= 0) {
+      throw new IllegalArgumentException("page count must be > 0");
+    }
+    this.randomAccess = randomAccess;
+    this.pageSize = pageSize;
+    this.pageCount = pageCount;
+    this.pages = new LongHashMap(pageCount);
+    this.length = randomAccess.getLength();
+    this.baseLength = length;
+  }
+
+  protected void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("random access closed");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#close()
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      flushPages();
+    } finally {
+      closed = true;
+      randomAccess.close();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#flush()
+   */
+  public void flush() throws IOException {
+    checkOpen();
+    flushPages();
+    randomAccess.flush();
+  }
+
+  /**
+   * Write back all changed pages in file order.
+   */
+  protected void flushPages() throws IOException {
+    Page[] dirty = new Page[pages.size()];
+    int dirtyCount = 0;
+    for (Page page = head; page != null; page = page.next) {
+      if (page.dirty) {
+        dirty[dirtyCount++] = page;
+      }
+    }
+    if (dirtyCount == 0) {
+      return;
+    }
+    // sort by index for sequential access to the delegate
+    long[] indices = new long[dirtyCount];
+    for (int i = 0; i < dirtyCount; i++) {
+      indices[i] = dirty[i].index;
+    }
+    Arrays.sort(indices);
+    for (int i = 0; i < dirtyCount; i++) {
+      writePage((Page) pages.get(indices[i]));
+    }
+  }
+
+  /**
+   * The number of page accesses served from the cache.
+   *
+   * @return The number of page accesses served from the cache.
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * The ratio of page accesses served from the cache, or 0 if there was no
+   * access yet.
+   *
+   * @return The ratio of page accesses served from the cache.
+   */
+  public double getHitRate() {
+    long total = hitCount + missCount;
+    if (total == 0) {
+      return 0;
+    }
+    return (double) hitCount / total;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#getLength()
+   */
+  public long getLength() throws IOException {
+    checkOpen();
+    return length;
+  }
+
+  /**
+   * The number of page accesses that required reading from the delegate.
+   *
+   * @return The number of page accesses that required reading from the
+   * delegate.
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#getOffset()
+   */
+  public long getOffset() throws IOException {
+    checkOpen();
+    return offset;
+  }
+
+  /**
+   * The page with <code>index</code>, loaded from the delegate if not
+   * cached.
+   */
+  protected Page getPage(long index) throws IOException {
+    if (current != null && current.index == index) {
+      return current;
+    }
+    Page page = (Page) pages.get(index);
+    if (page != null) {
+      hitCount++;
+      unlink(page);
+    } else {
+      missCount++;
+      page = loadPage(index);
+      pages.put(index, page);
+    }
+    linkFirst(page);
+    current = page;
+    return page;
+  }
+
+  /**
+   * The maximum number of pages cached.
+   *
+   * @return The maximum number of pages cached.
+   */
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  /**
+   * The number of bytes in a page.
+   *
+   * @return The number of bytes in a page.
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#isReadOnly()
+   */
+  public boolean isReadOnly() {
+    return randomAccess.isReadOnly();
+  }
+
+  /**
+   * Extend the valid bytes of <code>page</code> up to the current length. A
+   * page cached before the length grew ends before the new length, the bytes
+   * in between were never written and are zero.
+   */
+  protected void growPage(Page page) {
+    long pageOffset = page.index * pageSize;
+    int size = (int) Math.min(pageSize, length - pageOffset);
+    if (size > page.count) {
+      Arrays.fill(page.data, page.count, size, (byte) 0);
+      page.count = size;
+    }
+  }
+
+  private void linkFirst(Page page) {
+    page.previous = null;
+    page.next = head;
+    if (head != null) {
+      head.previous = page;
+    }
+    head = page;
+    if (tail == null) {
+      tail = page;
+    }
+  }
+
+  /**
+   * Read the page with <code>index</code> from the delegate, reusing the
+   * least recently used page if the cache is full. The part of the page
+   * within the logical length but beyond the end of the delegate is zero.
+   */
+  protected Page loadPage(long index) throws IOException {
+    Page page;
+    if (pages.size() >= pageCount) {
+      page = tail;
+      if (page.dirty) {
+        writePage(page);
+      }
+      unlink(page);
+      pages.remove(page.index);
+      if (current == page) {
+        current = null;
+      }
+    } else {
+      page = new Page(pageSize);
+    }
+    page.index = index;
+    page.count = 0;
+    page.dirty = false;
+    long pageOffset = index * pageSize;
+    if (pageOffset < length) {
+      int size = (int) Math.min(pageSize, length - pageOffset);
+      if (pageOffset < baseLength) {
+        int baseSize = (int) Math.min(size, baseLength - pageOffset);
+        randomAccess.seek(pageOffset);
+        while (page.count < baseSize) {
+          int read = randomAccess.read(page.data, page.count, baseSize
+              - page.count);
+          if (read <= 0) {
+            break;
+          }
+          page.count += read;
+        }
+      }
+      Arrays.fill(page.data, page.count, size, (byte) 0);
+      page.count = size;
+    }
+    return page;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read()
+   */
+  public int read() throws IOException {
+    checkOpen();
+    if (offset >= length) {
+      return -1;
+    }
+    Page page = getPage(offset / pageSize);
+    int position = (int) (offset % pageSize);
+    if (position >= page.count) {
+      growPage(page);
+    }
+    offset++;
+    return page.data[position] & 0xff;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read(byte[])
+   */
+  public int read(byte[] buffer) throws IOException {
+    return read(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read(byte[], int,
+   * int)
+   */
+  public int read(byte[] buffer, int start, int numBytes) throws IOException {
+    checkOpen();
+    if (numBytes == 0) {
+      return 0;
+    }
+    int totalByteCount = 0;
+    while (totalByteCount < numBytes && offset < length) {
+      Page page = getPage(offset / pageSize);
+      int position = (int) (offset % pageSize);
+      if (position >= page.count) {
+        growPage(page);
+      }
+      int count = Math.min(page.count - position, numBytes - totalByteCount);
+      if (count <= 0) {
+        break;
+      }
+      System.arraycopy(page.data, position, buffer, start + totalByteCount,
+          count);
+      totalByteCount += count;
+      offset += count;
+    }
+    if (totalByteCount == 0) {
+      return -1;
+    }
+    return totalByteCount;
+  }
+
+  /**
+   * Reset the statistics counters.
+   */
+  public void resetStatistics() {
+    hitCount = 0;
+    missCount = 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#seek(long)
+   */
+  public void seek(long pOffset) throws IOException {
+    checkOpen();
+    if (pOffset < 0) {
+      throw new IOException("offset less than 0");
+    }
+    offset = pOffset;
+  }
+
+  public void seekBy(long delta) throws IOException {
+    seek(offset + delta);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#setLength(long)
+   */
+  public void setLength(long newLength) throws IOException {
+    checkOpen();
+    flushPages();
+    pages.clear();
+    head = null;
+    tail = null;
+    current = null;
+    randomAccess.setLength(newLength);
+    length = newLength;
+    baseLength = newLength;
+    if (offset > length) {
+      offset = length;
+    }
+  }
+
+  private void unlink(Page page) {
+    if (page.previous == null) {
+      head = page.next;
+    } else {
+      page.previous.next = page.next;
+    }
+    if (page.next == null) {
+      tail = page.previous;
+    } else {
+      page.next.previous = page.previous;
+    }
+    page.previous = null;
+    page.next = null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(byte[])
+   */
+  public void write(byte[] buffer) throws IOException {
+    write(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(byte[], int,
+   * int)
+   */
+  public void write(byte[] buffer, int start, int numBytes)
+      throws IOException {
+    checkOpen();
+    while (numBytes > 0) {
+      Page page = getPage(offset / pageSize);
+      int position = (int) (offset % pageSize);
+      int count = Math.min(pageSize - position, numBytes);
+      if (position > page.count) {
+        // written after a seek beyond the end
+        Arrays.fill(page.data, page.count, position, (byte) 0);
+      }
+      System.arraycopy(buffer, start, page.data, position, count);
+      page.count = Math.max(page.count, position + count);
+      page.dirty = true;
+      start += count;
+      numBytes -= count;
+      offset += count;
+    }
+    if (offset > length) {
+      length = offset;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(int)
+   */
+  public void write(int b) throws IOException {
+    checkOpen();
+    Page page = getPage(offset / pageSize);
+    int position = (int) (offset % pageSize);
+    if (position > page.count) {
+      // written after a seek beyond the end
+      Arrays.fill(page.data, page.count, position, (byte) 0);
+    }
+    page.data[position] = (byte) b;
+    if (position >= page.count) {
+      page.count = position + 1;
+    }
+    page.dirty = true;
+    offset++;
+    if (offset > length) {
+      length = offset;
+    }
+  }
+
+  protected void writePage(Page page) throws IOException {
+    if (page.count > 0) {
+      long pageOffset = page.index * pageSize;
+      if (pageOffset > baseLength) {
+        // extend the delegate instead of seeking beyond its end
+        randomAccess.setLength(pageOffset);
+        baseLength = pageOffset;
+      }
+      randomAccess.seek(pageOffset);
+      randomAccess.write(page.data, 0, page.count);
+      baseLength = Math.max(baseLength, pageOffset + page.count);
+    }
+    page.dirty = false;
+  }
+}
@@ -30,11 +30,14 @@
 package de.intarsys.tools.randomaccess;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A wrapper around a byte array to allow random access like API.
  */
-public class RandomAccessByteArray extends AbstractRandomAccess {
+public class RandomAccessByteArray extends AbstractRandomAccess implements
+    IPositionalRandomAccess {
   /**
    * The minimum number of bytes we will resize the byte array buffer
    */
@@ -198,6 +201,72 @@ public class RandomAccessByteArray extends AbstractRandomAccess {
     return numBytes;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#read(java.nio.ByteBuffer)
+   */
+  @Override
+  public int read(ByteBuffer buffer) {
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    int remaining = (length - offset);
+    if (remaining <= 0) {
+      return -1;
+    }
+    int numBytes = Math.min(buffer.remaining(), remaining);
+    buffer.put(data, offset, numBytes);
+    offset += numBytes;
+    return numBytes;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   * byte[], int, int)
+   */
+  public int read(long position, byte[] buffer, int bufferOffset,
+                  int numBytes) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (numBytes == 0) {
+      return 0;
+    }
+    if (position >= length) {
+      return -1;
+    }
+    int tempPosition = (int) position;
+    numBytes = Math.min(numBytes, length - tempPosition);
+    System.arraycopy(data, tempPosition, buffer, bufferOffset, numBytes);
+    return numBytes;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   * java.nio.ByteBuffer)
+   */
+  public int read(long position, ByteBuffer buffer) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    if (position >= length) {
+      return -1;
+    }
+    int tempPosition = (int) position;
+    int numBytes = Math.min(buffer.remaining(), length - tempPosition);
+    buffer.put(data, tempPosition, numBytes);
+    return numBytes;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -219,6 +288,29 @@ public class RandomAccessByteArray extends AbstractRandomAccess {
     }
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#transferTo(long, long,
+   * java.nio.channels.WritableByteChannel)
+   */
+  @Override
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (position >= length || count <= 0) {
+      return 0;
+    }
+    int numBytes = (int) Math.min(count, length - position);
+    ByteBuffer buffer = ByteBuffer.wrap(data, (int) position, numBytes);
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+    return numBytes;
+  }
+
   public byte[] toByteArray() {
     byte[] newbuf = new byte[length];
     System.arraycopy(data, 0, newbuf, 0, length);
@@ -248,6 +340,23 @@ public class RandomAccessByteArray extends AbstractRandomAccess {
     offset += numBytes;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#write(java.nio.ByteBuffer)
+   */
+  @Override
+  public void write(ByteBuffer buffer) {
+    int numBytes = buffer.remaining();
+    int newLength = offset + numBytes;
+    if (newLength > length) {
+      basicSetLengthResize(newLength);
+    }
+    buffer.get(data, offset, numBytes);
+    offset += numBytes;
+  }
+
   /*
    * (non-Javadoc)
    *
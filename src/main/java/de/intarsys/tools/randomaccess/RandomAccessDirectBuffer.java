@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.randomaccess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A random access to data held in native memory outside the java heap.
+ * <p>
+ * The data is stored in a list of direct {@link ByteBuffer} chunks of equal
+ * size. Growing appends new chunks, existing data is never copied. Memory is
+ * released eagerly upon {@link #close()} or when truncating.
+ * <p>
+ * Random access is not thread safe. Positional reads may be performed
+ * concurrently as long as the data is not modified.
+ */
+public class RandomAccessDirectBuffer extends AbstractRandomAccess implements
+    IPositionalRandomAccess {
+
+  /**
+   * The default size of a chunk (1 MB).
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  private static final ByteBuffer[] NO_CHUNKS = new ByteBuffer[0];
+
+  private final int chunkShift;
+
+  private final int chunkMask;
+
+  /**
+   * The chunks. All bytes beyond {@link #length} are 0.
+   */
+  private ByteBuffer[] chunks = NO_CHUNKS;
+
+  private int chunkCount = 0;
+
+  /**
+   * The number of valid bytes
+   */
+  private long length = 0;
+
+  /**
+   * The current offset
+   */
+  private long offset = 0;
+
+  private boolean closed = false;
+
+  public RandomAccessDirectBuffer() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param chunkSize the size of a chunk, must be a power of 2
+   */
+  public RandomAccessDirectBuffer(int chunkSize) {
+    if (chunkSize <= 0 || (chunkSize & (chunkSize - 1)) != 0) {
+      throw new IllegalArgumentException("chunk size must be a power of 2");
+    }
+    this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+    this.chunkMask = chunkSize - 1;
+  }
+
+  protected void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("random access closed");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#close()
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    releaseChunks(0);
+    length = 0;
+    offset = 0;
+  }
+
+  /**
+   * Make sure there are chunks for at least <code>minCapacity</code> bytes.
+   */
+  protected void ensureCapacity(long minCapacity) {
+    int needed = (int) ((minCapacity + chunkMask) >>> chunkShift);
+    if (needed <= chunkCount) {
+      return;
+    }
+    if (needed > chunks.length) {
+      ByteBuffer[] newChunks = new ByteBuffer[Math.max(needed,
+          chunks.length * 2)];
+      System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+      chunks = newChunks;
+    }
+    while (chunkCount < needed) {
+      chunks[chunkCount++] = ByteBuffer.allocateDirect(chunkMask + 1);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#flush()
+   */
+  public void flush() throws IOException {
+    //
+  }
+
+  /**
+   * The size of a chunk.
+   *
+   * @return The size of a chunk.
+   */
+  public int getChunkSize() {
+    return chunkMask + 1;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#getLength()
+   */
+  public long getLength() throws IOException {
+    checkOpen();
+    return length;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#getOffset()
+   */
+  public long getOffset() throws IOException {
+    checkOpen();
+    return offset;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#isReadOnly()
+   */
+  public boolean isReadOnly() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#read()
+   */
+  public int read() throws IOException {
+    checkOpen();
+    if (offset >= length) {
+      return -1;
+    }
+    int result = chunks[(int) (offset >>> chunkShift)]
+        .get((int) (offset & chunkMask)) & 0xff;
+    offset++;
+    return result;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#read(byte[])
+   */
+  public int read(byte[] buffer) throws IOException {
+    return read(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#read(byte[], int, int)
+   */
+  public int read(byte[] buffer, int start, int numBytes) throws IOException {
+    checkOpen();
+    int count = read(offset, buffer, start, numBytes);
+    if (count > 0) {
+      offset += count;
+    }
+    return count;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#read(java.nio.ByteBuffer)
+   */
+  @Override
+  public int read(ByteBuffer buffer) throws IOException {
+    checkOpen();
+    int count = read(offset, buffer);
+    if (count > 0) {
+      offset += count;
+    }
+    return count;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   * byte[], int, int)
+   */
+  public int read(long position, byte[] buffer, int start, int numBytes)
+      throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (numBytes == 0) {
+      return 0;
+    }
+    long remaining = length - position;
+    if (remaining <= 0) {
+      return -1;
+    }
+    numBytes = (int) Math.min(numBytes, remaining);
+    int done = 0;
+    while (done < numBytes) {
+      ByteBuffer chunk = chunks[(int) (position >>> chunkShift)].duplicate();
+      int chunkPosition = (int) (position & chunkMask);
+      int count = Math.min(numBytes - done, chunk.capacity() - chunkPosition);
+      chunk.position(chunkPosition);
+      chunk.get(buffer, start + done, count);
+      done += count;
+      position += count;
+    }
+    return numBytes;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   * java.nio.ByteBuffer)
+   */
+  public int read(long position, ByteBuffer buffer) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    long remaining = length - position;
+    if (remaining <= 0) {
+      return -1;
+    }
+    int numBytes = (int) Math.min(buffer.remaining(), remaining);
+    int done = 0;
+    while (done < numBytes) {
+      ByteBuffer chunk = chunks[(int) (position >>> chunkShift)].duplicate();
+      int chunkPosition = (int) (position & chunkMask);
+      int count = Math.min(numBytes - done, chunk.capacity() - chunkPosition);
+      chunk.position(chunkPosition);
+      chunk.limit(chunkPosition + count);
+      buffer.put(chunk);
+      done += count;
+      position += count;
+    }
+    return numBytes;
+  }
+
+  /**
+   * Release all chunks starting with <code>index</code>.
+   */
+  protected void releaseChunks(int index) {
+    for (int i = index; i < chunkCount; i++) {
+      BufferTools.release(chunks[i]);
+      chunks[i] = null;
+    }
+    if (index < chunkCount) {
+      chunkCount = index;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#seek(long)
+   */
+  public void seek(long pOffset) throws IOException {
+    checkOpen();
+    if (pOffset < 0) {
+      throw new IOException("offset less than 0");
+    }
+    offset = pOffset;
+  }
+
+  public void seekBy(long delta) throws IOException {
+    seek(offset + delta);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#setLength(long)
+   */
+  public void setLength(long newLength) throws IOException {
+    checkOpen();
+    if (newLength < 0) {
+      throw new IOException("length less than 0");
+    }
+    if (newLength > length) {
+      ensureCapacity(newLength);
+    } else if (newLength < length) {
+      int keep = (int) ((newLength + chunkMask) >>> chunkShift);
+      releaseChunks(keep);
+      // keep the invariant that all bytes beyond length are 0
+      int tail = (int) (newLength & chunkMask);
+      if (tail > 0) {
+        ByteBuffer chunk = chunks[keep - 1];
+        int end = (int) Math.min(chunk.capacity(), length - ((long) (keep - 1)
+            << chunkShift));
+        for (int i = tail; i < end; i++) {
+          chunk.put(i, (byte) 0);
+        }
+      }
+      if (offset > newLength) {
+        offset = newLength;
+      }
+    }
+    length = newLength;
+  }
+
+  /**
+   * A copy of the data in a new byte array.
+   *
+   * @return A copy of the data in a new byte array.
+   * @throws IOException
+   */
+  public byte[] toByteArray() throws IOException {
+    checkOpen();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("data too large for a byte array");
+    }
+    byte[] result = new byte[(int) length];
+    read(0, result, 0, result.length);
+    return result;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#transferTo(long, long,
+   * java.nio.channels.WritableByteChannel)
+   */
+  @Override
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    checkOpen();
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    long end = position + Math.min(count, Math.max(0, length - position));
+    long current = position;
+    while (current < end) {
+      ByteBuffer chunk = chunks[(int) (current >>> chunkShift)].duplicate();
+      int chunkPosition = (int) (current & chunkMask);
+      int size = (int) Math.min(end - current, chunk.capacity()
+          - chunkPosition);
+      chunk.position(chunkPosition);
+      chunk.limit(chunkPosition + size);
+      while (chunk.hasRemaining()) {
+        target.write(chunk);
+      }
+      current += size;
+    }
+    return Math.max(0, current - position);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#write(byte[])
+   */
+  public void write(byte[] buffer) throws IOException {
+    write(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#write(byte[], int, int)
+   */
+  public void write(byte[] buffer, int start, int numBytes)
+      throws IOException {
+    checkOpen();
+    long end = offset + numBytes;
+    ensureCapacity(end);
+    while (offset < end) {
+      ByteBuffer chunk = chunks[(int) (offset >>> chunkShift)].duplicate();
+      int chunkPosition = (int) (offset & chunkMask);
+      int count = (int) Math.min(end - offset, chunk.capacity()
+          - chunkPosition);
+      chunk.position(chunkPosition);
+      chunk.put(buffer, start, count);
+      start += count;
+      offset += count;
+    }
+    if (offset > length) {
+      length = offset;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#write(java.nio.ByteBuffer)
+   */
+  @Override
+  public void write(ByteBuffer buffer) throws IOException {
+    checkOpen();
+    long end = offset + buffer.remaining();
+    ensureCapacity(end);
+    while (offset < end) {
+      ByteBuffer chunk = chunks[(int) (offset >>> chunkShift)].duplicate();
+      int chunkPosition = (int) (offset & chunkMask);
+      int count = (int) Math.min(end - offset, chunk.capacity()
+          - chunkPosition);
+      chunk.position(chunkPosition);
+      ByteBuffer source = buffer.duplicate();
+      source.limit(source.position() + count);
+      chunk.put(source);
+      buffer.position(buffer.position() + count);
+      offset += count;
+    }
+    if (offset > length) {
+      length = offset;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#write(int)
+   */
+  public void write(int b) throws IOException {
+    checkOpen();
+    ensureCapacity(offset + 1);
+    chunks[(int) (offset >>> chunkShift)].put((int) (offset & chunkMask),
+        (byte) b);
+    offset++;
+    if (offset > length) {
+      length = offset;
+    }
+  }
+}
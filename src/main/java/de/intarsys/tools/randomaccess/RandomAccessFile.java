@@ -32,12 +32,20 @@ package de.intarsys.tools.randomaccess;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Logger;
 
 /**
  * Implements random access to a file.
+ * <p>
+ * Positional reads use {@link java.nio.channels.FileChannel#read(ByteBuffer,
+ * long)} and may be performed concurrently. Be aware that interrupting a
+ * thread blocked in a positional read closes the file.
  */
-public class RandomAccessFile extends AbstractRandomAccess {
+public class RandomAccessFile extends AbstractRandomAccess implements
+    IPositionalRandomAccess {
 
   /**
    * The logger to be used in this package
@@ -180,6 +188,48 @@ public class RandomAccessFile extends AbstractRandomAccess {
     return fileAccess.read(buffer, start, numBytes);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#read(java.nio.ByteBuffer)
+   */
+  @Override
+  public int read(ByteBuffer buffer) throws IOException {
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    // the channel position is the file pointer
+    return fileAccess.getChannel().read(buffer);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   *      byte[], int, int)
+   */
+  public int read(long position, byte[] buffer, int start, int numBytes)
+      throws IOException {
+    return read(position, ByteBuffer.wrap(buffer, start, numBytes));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   *      java.nio.ByteBuffer)
+   */
+  public int read(long position, ByteBuffer buffer) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    return fileAccess.getChannel().read(buffer, position);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -193,6 +243,29 @@ public class RandomAccessFile extends AbstractRandomAccess {
     seek(fileAccess.getFilePointer() + delta);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#transferTo(long, long,
+   *      java.nio.channels.WritableByteChannel)
+   */
+  @Override
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    FileChannel channel = fileAccess.getChannel();
+    long size = channel.size();
+    long end = position + Math.min(count, Math.max(0, size - position));
+    long current = position;
+    while (current < end) {
+      long transferred = channel.transferTo(current, end - current, target);
+      if (transferred <= 0) {
+        break;
+      }
+      current += transferred;
+    }
+    return current - position;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -213,6 +286,20 @@ public class RandomAccessFile extends AbstractRandomAccess {
     fileAccess.write(buffer, start, numBytes);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.intarsys.tools.randomaccess.IRandomAccess#write(java.nio.ByteBuffer)
+   */
+  @Override
+  public void write(ByteBuffer buffer) throws IOException {
+    FileChannel channel = fileAccess.getChannel();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
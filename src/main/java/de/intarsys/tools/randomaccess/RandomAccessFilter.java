@@ -30,6 +30,7 @@
 package de.intarsys.tools.randomaccess;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Filter implementation for random access.
@@ -103,6 +104,18 @@ public class RandomAccessFilter extends AbstractRandomAccess {
     return random;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#transferTo(long, long,
+   * java.nio.channels.WritableByteChannel)
+   */
+  @Override
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    return random.transferTo(position, count, target);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -30,11 +30,18 @@
 package de.intarsys.tools.randomaccess;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A viewport in an existing {@link IRandomAccess}.
+ * <p>
+ * Positional reads are delegated to the wrapped {@link IRandomAccess} if it
+ * is an {@link IPositionalRandomAccess}. Otherwise they are emulated by
+ * seeking while holding the lock of the wrapped {@link IRandomAccess}.
  */
-public class RandomAccessViewport extends RandomAccessFilter {
+public class RandomAccessViewport extends RandomAccessFilter implements
+    IPositionalRandomAccess {
 
   private final long viewOffset;
 
@@ -100,7 +107,7 @@ public class RandomAccessViewport extends RandomAccessFilter {
 
   @Override
   public int read() throws IOException {
-    if (getViewLength() != -1 && getOffset() >= getViewEnd()) {
+    if (getViewLength() != -1 && getRandom().getOffset() >= getViewEnd()) {
       return -1;
     }
     return super.read();
@@ -113,15 +120,104 @@ public class RandomAccessViewport extends RandomAccessFilter {
 
   @Override
   public int read(byte[] buffer, int start, int numBytes) throws IOException {
-    if (getViewLength() != -1 && getOffset() >= getViewEnd()) {
+    if (getViewLength() != -1 && getRandom().getOffset() >= getViewEnd()) {
       return -1;
     }
     if (getViewLength() != -1) {
-      numBytes = Math.min(numBytes, (int) (getViewEnd() - getOffset()));
+      numBytes = Math.min(numBytes,
+          (int) (getViewEnd() - getRandom().getOffset()));
     }
     return super.read(buffer, start, numBytes);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   * byte[], int, int)
+   */
+  public int read(long position, byte[] buffer, int start, int numBytes)
+      throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (numBytes == 0) {
+      return 0;
+    }
+    long remaining = getLength() - position;
+    if (remaining <= 0) {
+      return -1;
+    }
+    if (numBytes > remaining) {
+      numBytes = (int) remaining;
+    }
+    long realPosition = getViewOffset() + position;
+    IRandomAccess ra = getRandom();
+    if (ra instanceof IPositionalRandomAccess) {
+      return ((IPositionalRandomAccess) ra).read(realPosition, buffer, start,
+          numBytes);
+    }
+    synchronized (ra) {
+      long offset = ra.getOffset();
+      try {
+        ra.seek(realPosition);
+        return ra.read(buffer, start, numBytes);
+      } finally {
+        ra.seek(offset);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IPositionalRandomAccess#read(long,
+   * java.nio.ByteBuffer)
+   */
+  public int read(long position, ByteBuffer buffer) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    if (!buffer.hasRemaining()) {
+      return 0;
+    }
+    long remaining = getLength() - position;
+    if (remaining <= 0) {
+      return -1;
+    }
+    IRandomAccess ra = getRandom();
+    if (ra instanceof IPositionalRandomAccess) {
+      if (buffer.remaining() <= remaining) {
+        return ((IPositionalRandomAccess) ra).read(
+            getViewOffset() + position, buffer);
+      }
+      // do not read beyond the view
+      ByteBuffer slice = buffer.duplicate();
+      slice.limit(slice.position() + (int) remaining);
+      int count = ((IPositionalRandomAccess) ra).read(getViewOffset()
+          + position, slice);
+      if (count > 0) {
+        buffer.position(buffer.position() + count);
+      }
+      return count;
+    }
+    int numBytes = (int) Math.min(buffer.remaining(), remaining);
+    if (buffer.hasArray()) {
+      int count = read(position, buffer.array(), buffer.arrayOffset()
+          + buffer.position(), numBytes);
+      if (count > 0) {
+        buffer.position(buffer.position() + count);
+      }
+      return count;
+    }
+    byte[] bytes = new byte[numBytes];
+    int count = read(position, bytes, 0, numBytes);
+    if (count > 0) {
+      buffer.put(bytes, 0, count);
+    }
+    return count;
+  }
+
   @Override
   public void seek(long offset) throws IOException {
     super.seek(getViewOffset() + offset);
@@ -132,6 +228,20 @@ public class RandomAccessViewport extends RandomAccessFilter {
     super.seekBy(delta);
   }
 
+  @Override
+  public long transferTo(long position, long count,
+                         WritableByteChannel target) throws IOException {
+    if (position < 0) {
+      throw new IOException("position less than 0");
+    }
+    long remaining = getLength() - position;
+    if (remaining <= 0 || count <= 0) {
+      return 0;
+    }
+    return super.transferTo(getViewOffset() + position,
+        Math.min(count, remaining), target);
+  }
+
   @Override
   public void write(byte[] buffer) throws IOException {
     super.write(buffer);
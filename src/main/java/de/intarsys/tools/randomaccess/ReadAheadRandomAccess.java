@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.randomaccess;
+
+import de.intarsys.tools.concurrent.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@link IRandomAccess} decorator reading ahead in the background while
+ * data is accessed sequentially.
+ * <p>
+ * Data is read in blocks. When consecutive blocks are accessed, the next
+ * blocks are read on an {@link Executor} while the client is still
+ * processing the current one. A seek to a non adjacent block is considered
+ * random access and discards all pending read ahead.
+ * <p>
+ * If the wrapped {@link IRandomAccess} is an {@link IPositionalRandomAccess},
+ * background reads do not interfere with its offset. Otherwise all access to
+ * the wrapped {@link IRandomAccess} is serialized on its lock.
+ * <p>
+ * Writing is passed to the wrapped {@link IRandomAccess} and discards all
+ * read ahead. This is not thread safe, background reads are managed
+ * internally.
+ */
+public class ReadAheadRandomAccess extends AbstractRandomAccess {
+
+  /**
+   * The logger to be used in this package
+   */
+  private static Logger Log = PACKAGE.Log;
+
+  private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  private static final int DEFAULT_READ_AHEAD = 2;
+
+  /**
+   * The number of consecutive block accesses before reading ahead.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 2;
+
+  private static ExecutorService DEFAULT_EXECUTOR;
+
+  synchronized protected static ExecutorService getDefaultExecutor() {
+    if (DEFAULT_EXECUTOR == null) {
+      DEFAULT_EXECUTOR = Executors
+          .newCachedThreadPool(new DaemonThreadFactory("read ahead"));
+    }
+    return DEFAULT_EXECUTOR;
+  }
+
+  static class Block {
+    protected final byte[] data;
+
+    protected final long index;
+
+    protected final int count;
+
+    protected Block(long index, byte[] data, int count) {
+      this.index = index;
+      this.data = data;
+      this.count = count;
+    }
+  }
+
+  /**
+   * The decorated random access
+   */
+  private final IRandomAccess randomAccess;
+
+  private final int blockSize;
+
+  private final int readAhead;
+
+  private Executor executor;
+
+  /**
+   * The block at the current offset, if known.
+   */
+  private Block current;
+
+  /**
+   * Blocks read in the background, by block index.
+   */
+  private final Map<Long, FutureTask<Block>> pending = new HashMap<Long, FutureTask<Block>>();
+
+  /**
+   * Buffers ready for reuse.
+   */
+  private final List<byte[]> freeBuffers = new ArrayList<byte[]>();
+
+  /**
+   * The number of consecutive block accesses
+   */
+  private int sequentialCount = 0;
+
+  private long offset = 0;
+
+  /**
+   * The length of the random access data
+   */
+  private long length;
+
+  private boolean closed = false;
+
+  public ReadAheadRandomAccess(IRandomAccess randomAccess) throws IOException {
+    this(randomAccess, DEFAULT_BLOCK_SIZE, DEFAULT_READ_AHEAD);
+  }
+
+  /**
+   * @param randomAccess The {@link IRandomAccess} to read from.
+   * @param blockSize    The number of bytes read at once.
+   * @param readAhead    The maximum number of blocks read in advance.
+   * @throws IOException
+   */
+  public ReadAheadRandomAccess(IRandomAccess randomAccess, int blockSize,
+                               int readAhead) throws IOException {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("block size must be > 0");
+    }
+    if (readAhead < 0) {
+      throw new IllegalArgumentException("read ahead must be >= 0");
+    }
+    this.randomAccess = randomAccess;
+    this.blockSize = blockSize;
+    this.readAhead = readAhead;
+    this.length = randomAccess.getLength();
+  }
+
+  /**
+   * Cancel all pending background reads.
+   */
+  protected void cancelReadAhead() {
+    for (Iterator<FutureTask<Block>> it = pending.values().iterator(); it
+        .hasNext(); ) {
+      // buffers of running tasks are left to the garbage collector
+      it.next().cancel(false);
+    }
+    pending.clear();
+  }
+
+  protected void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("random access closed");
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#close()
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    discard();
+    synchronized (randomAccess) {
+      randomAccess.close();
+    }
+  }
+
+  /**
+   * Discard the current block and all read ahead.
+   */
+  protected void discard() {
+    cancelReadAhead();
+    if (current != null) {
+      recycle(current);
+      current = null;
+    }
+    sequentialCount = 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccess#flush()
+   */
+  public void flush() throws IOException {
+    checkOpen();
+    synchronized (randomAccess) {
+      randomAccess.flush();
+    }
+  }
+
+  /**
+   * The block with <code>index</code>, either from read ahead or read
+   * synchronously.
+   */
+  protected Block getBlock(long index) throws IOException {
+    if (current != null && current.index == index) {
+      return current;
+    }
+    if (current != null && current.index + 1 == index) {
+      sequentialCount++;
+    } else {
+      // random access, read ahead is useless
+      cancelReadAhead();
+      sequentialCount = 0;
+    }
+    Block block = null;
+    FutureTask<Block> task = pending.remove(index);
+    if (task != null) {
+      try {
+        block = task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted");
+      } catch (ExecutionException e) {
+        // try again synchronously
+        Log.log(Level.FINE, "read ahead failed", e.getCause());
+      }
+    }
+    if (block == null) {
+      block = readBlock(index, takeBuffer());
+    }
+    if (current != null) {
+      recycle(current);
+    }
+    current = block;
+    if (sequentialCount >= SEQUENTIAL_THRESHOLD) {
+      scheduleReadAhead(index);
+    }
+    return block;
+  }
+
+  /**
+   * The number of bytes read at once.
+   *
+   * @return The number of bytes read at once.
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * The executor for background reads. By default a shared pool of daemon
+   * threads is used.
+   *
+   * @return The executor for background reads.
+   */
+  public Executor getExecutor() {
+    if (executor == null) {
+      return getDefaultExecutor();
+    }
+    return executor;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#getLength()
+   */
+  public long getLength() throws IOException {
+    checkOpen();
+    return length;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#getOffset()
+   */
+  public long getOffset() throws IOException {
+    checkOpen();
+    return offset;
+  }
+
+  /**
+   * The maximum number of blocks read in advance.
+   *
+   * @return The maximum number of blocks read in advance.
+   */
+  public int getReadAhead() {
+    return readAhead;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#isReadOnly()
+   */
+  public boolean isReadOnly() {
+    return randomAccess.isReadOnly();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read()
+   */
+  public int read() throws IOException {
+    checkOpen();
+    if (offset >= length) {
+      return -1;
+    }
+    Block block = getBlock(offset / blockSize);
+    int position = (int) (offset % blockSize);
+    if (position >= block.count) {
+      return -1;
+    }
+    offset++;
+    return block.data[position] & 0xff;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read(byte[])
+   */
+  public int read(byte[] buffer) throws IOException {
+    return read(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#read(byte[], int,
+   * int)
+   */
+  public int read(byte[] buffer, int start, int numBytes) throws IOException {
+    checkOpen();
+    if (numBytes == 0) {
+      return 0;
+    }
+    int totalByteCount = 0;
+    while (totalByteCount < numBytes && offset < length) {
+      Block block = getBlock(offset / blockSize);
+      int position = (int) (offset % blockSize);
+      int count = Math.min(block.count - position, numBytes - totalByteCount);
+      if (count <= 0) {
+        break;
+      }
+      System.arraycopy(block.data, position, buffer, start + totalByteCount,
+          count);
+      totalByteCount += count;
+      offset += count;
+    }
+    if (totalByteCount == 0) {
+      return -1;
+    }
+    return totalByteCount;
+  }
+
+  /**
+   * Read the block with <code>index</code> from the wrapped
+   * {@link IRandomAccess}. This may be called from a background thread.
+   */
+  protected Block readBlock(long index, byte[] buffer) throws IOException {
+    long position = index * blockSize;
+    int count = 0;
+    if (randomAccess instanceof IPositionalRandomAccess) {
+      IPositionalRandomAccess positional = (IPositionalRandomAccess) randomAccess;
+      while (count < buffer.length) {
+        int read = positional.read(position + count, buffer, count,
+            buffer.length - count);
+        if (read <= 0) {
+          break;
+        }
+        count += read;
+      }
+    } else {
+      synchronized (randomAccess) {
+        randomAccess.seek(position);
+        while (count < buffer.length) {
+          int read = randomAccess.read(buffer, count, buffer.length - count);
+          if (read <= 0) {
+            break;
+          }
+          count += read;
+        }
+      }
+    }
+    return new Block(index, buffer, count);
+  }
+
+  protected void recycle(Block block) {
+    if (freeBuffers.size() <= readAhead) {
+      freeBuffers.add(block.data);
+    }
+  }
+
+  /**
+   * Start reading the blocks following <code>index</code> in the background.
+   */
+  protected void scheduleReadAhead(long index) {
+    for (long next = index + 1; next <= index + readAhead; next++) {
+      if (next * blockSize >= length) {
+        break;
+      }
+      if (pending.containsKey(next)) {
+        continue;
+      }
+      final long blockIndex = next;
+      final byte[] buffer = takeBuffer();
+      FutureTask<Block> task = new FutureTask<Block>(new Callable<Block>() {
+        public Block call() throws Exception {
+          return readBlock(blockIndex, buffer);
+        }
+      });
+      pending.put(blockIndex, task);
+      getExecutor().execute(task);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#seek(long)
+   */
+  public void seek(long pOffset) throws IOException {
+    checkOpen();
+    if (pOffset < 0) {
+      throw new IOException("offset less than 0");
+    }
+    offset = pOffset;
+  }
+
+  public void seekBy(long delta) throws IOException {
+    seek(offset + delta);
+  }
+
+  /**
+   * Set the executor for background reads.
+   *
+   * @param executor
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#setLength(long)
+   */
+  public void setLength(long newLength) throws IOException {
+    checkOpen();
+    discard();
+    synchronized (randomAccess) {
+      randomAccess.setLength(newLength);
+    }
+    length = newLength;
+    if (offset > length) {
+      offset = length;
+    }
+  }
+
+  protected byte[] takeBuffer() {
+    int size = freeBuffers.size();
+    if (size > 0) {
+      return freeBuffers.remove(size - 1);
+    }
+    return new byte[blockSize];
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(byte[])
+   */
+  public void write(byte[] buffer) throws IOException {
+    write(buffer, 0, buffer.length);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(byte[], int,
+   * int)
+   */
+  public void write(byte[] buffer, int start, int numBytes)
+      throws IOException {
+    checkOpen();
+    discard();
+    synchronized (randomAccess) {
+      randomAccess.seek(offset);
+      randomAccess.write(buffer, start, numBytes);
+    }
+    offset += numBytes;
+    if (offset > length) {
+      length = offset;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.intarsys.tools.randomaccess.IRandomAccessData#write(int)
+   */
+  public void write(int b) throws IOException {
+    checkOpen();
+    discard();
+    synchronized (randomAccess) {
+      randomAccess.seek(offset);
+      randomAccess.write(b);
+    }
+    offset++;
+    if (offset > length) {
+      length = offset;
+    }
+  }
+}
@@ -35,7 +35,6 @@ import de.intarsys.tools.number.NumberWrapper;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 public class DefinedRange implements IRange {
@@ -66,13 +65,11 @@ public class DefinedRange implements IRange {
 
   @Override
   public List<Integer> getIndices(int current, int count) {
-    List<Integer> indices = new ArrayList<Integer>();
-    for (Iterator<?> it = getValue().iterator(); it.hasNext(); ) {
-      Number number = (Number) it.next();
-      int index = number.intValue();
-      if (index >= 0 && (index < count || count < 0)) {
-        indices.add(index);
-      }
+    int max = count < 0 ? Integer.MAX_VALUE : count - 1;
+    int[] values = getValue().toIntArray(0, max);
+    List<Integer> indices = new ArrayList<Integer>(values.length);
+    for (int i = 0; i < values.length; i++) {
+      indices.add(values[i]);
     }
     return indices;
   }
@@ -1,5 +1,6 @@
 package de.intarsys.tools.serialize;
 
+import de.intarsys.tools.stream.FastByteArrayOutputStream;
 import de.intarsys.tools.string.StringTools;
 
 import java.io.ByteArrayInputStream;
@@ -20,7 +21,7 @@ public class StreamSerializationContext extends SerializationContext {
 
   public StreamSerializationContext() {
     inputStream = null;
-    outputStream = new ByteArrayOutputStream();
+    outputStream = new FastByteArrayOutputStream();
   }
 
   public StreamSerializationContext(byte[] input) {
@@ -50,6 +51,9 @@ public class StreamSerializationContext extends SerializationContext {
   }
 
   public byte[] getBytes() {
+    if (outputStream instanceof FastByteArrayOutputStream) {
+      return ((FastByteArrayOutputStream) outputStream).toByteArray();
+    }
     if (outputStream instanceof ByteArrayOutputStream) {
       return ((ByteArrayOutputStream) outputStream).toByteArray();
     }
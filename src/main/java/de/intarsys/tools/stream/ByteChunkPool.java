@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.stream;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of byte arrays of a fixed size, to be used as chunks by
+ * {@link FastByteArrayOutputStream}.
+ * <p>
+ * A chunk must not be used by its previous owner after it is released to the
+ * pool.
+ */
+public class ByteChunkPool {
+
+  final private int chunkSize;
+
+  final private int maxChunks;
+
+  final private ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<byte[]>();
+
+  final private AtomicInteger size = new AtomicInteger();
+
+  /**
+   * @param chunkSize The size of the chunks in the pool.
+   * @param maxChunks The maximum number of idle chunks kept by the pool.
+   */
+  public ByteChunkPool(int chunkSize, int maxChunks) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    this.chunkSize = chunkSize;
+    this.maxChunks = maxChunks;
+  }
+
+  /**
+   * A chunk from the pool, or a new one if the pool is empty.
+   *
+   * @return A chunk of {@link #getChunkSize()} bytes.
+   */
+  public byte[] acquire() {
+    byte[] chunk = chunks.poll();
+    if (chunk == null) {
+      return new byte[chunkSize];
+    }
+    size.decrementAndGet();
+    return chunk;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public int getMaxChunks() {
+    return maxChunks;
+  }
+
+  /**
+   * The number of idle chunks in the pool.
+   *
+   * @return The number of idle chunks in the pool.
+   */
+  public int getSize() {
+    return size.get();
+  }
+
+  /**
+   * Return a chunk to the pool. Chunks of the wrong size or in excess of
+   * {@link #getMaxChunks()} are dropped.
+   *
+   * @param chunk
+   */
+  public void release(byte[] chunk) {
+    if (chunk == null || chunk.length != chunkSize) {
+      return;
+    }
+    if (size.incrementAndGet() > maxChunks) {
+      size.decrementAndGet();
+      return;
+    }
+    chunks.offer(chunk);
+  }
+}
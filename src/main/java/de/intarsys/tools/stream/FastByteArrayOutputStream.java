@@ -29,22 +29,54 @@
  */
 package de.intarsys.tools.stream;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- *
+ * An unsynchronized {@link OutputStream} collecting its data in memory.
+ * <p>
+ * The data is stored in a sequence of chunks. When a chunk is full a new one
+ * is appended, existing data is never copied. The chunk size grows up to
+ * {@link #getChunkSize()}, after that all chunks are of the same size and
+ * optionally taken from a {@link ByteChunkPool}.
+ * <p>
+ * The content can be accessed without copying via
+ * {@link #writeTo(OutputStream)}, {@link #asInputStream()} and
+ * {@link #toByteBuffers()}. These views share the chunks with the stream and
+ * are invalid after {@link #reset()}.
  */
 public class FastByteArrayOutputStream extends OutputStream {
+
+  public static final int DEFAULT_CHUNK_SIZE = 65536;
+
   /**
-   * The buffer where data is stored.
+   * The chunk currently written to.
    */
   protected byte[] buf;
 
   /**
-   * The number of valid bytes in the buffer.
+   * The number of valid bytes in the stream.
    */
   protected int count;
 
+  /**
+   * The number of bytes in the completed chunks.
+   */
+  private int offset;
+
+  /**
+   * The completed chunks, each one filled completely.
+   */
+  final private List<byte[]> chunks = new ArrayList<byte[]>();
+
+  final private int chunkSize;
+
+  final private ByteChunkPool pool;
+
   /**
    *
    */
@@ -52,15 +84,138 @@ public class FastByteArrayOutputStream extends OutputStream {
     this(32);
   }
 
+  /**
+   * Create a stream using chunks from <code>pool</code>. The first chunk is
+   * taken from the pool, too.
+   *
+   * @param pool
+   */
+  public FastByteArrayOutputStream(ByteChunkPool pool) {
+    this.chunkSize = pool.getChunkSize();
+    this.pool = pool;
+    this.buf = pool.acquire();
+  }
+
   public FastByteArrayOutputStream(int size) {
-    buf = new byte[size];
+    this(size, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param size      The size of the first chunk.
+   * @param chunkSize The maximum size of the following chunks.
+   */
+  public FastByteArrayOutputStream(int size, int chunkSize) {
+    if (size < 0) {
+      throw new IllegalArgumentException("negative initial size: " + size);
+    }
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    this.chunkSize = chunkSize;
+    this.pool = null;
+    this.buf = new byte[size];
+  }
+
+  /**
+   * An {@link InputStream} reading the current content of the stream. The
+   * data is not copied, the {@link InputStream} is valid until
+   * {@link #reset()}.
+   *
+   * @return An {@link InputStream} reading the current content of the
+   * stream.
+   */
+  public InputStream asInputStream() {
+    return new ChunkInputStream(getChunks(), count);
   }
 
+  /**
+   * The complete content in a single array. If the content is stored in more
+   * than one chunk, the chunks are merged first.
+   * <p>
+   * The array may be larger than {@link #size()}. The merged chunks are not
+   * returned to the {@link ByteChunkPool}, as views created before may still
+   * refer to them.
+   *
+   * @return The complete content in a single array.
+   */
   public byte[] getBytes() {
+    if (!chunks.isEmpty()) {
+      byte[] newbuf = new byte[Math.max(count, 32)];
+      copyTo(newbuf);
+      chunks.clear();
+      buf = newbuf;
+      offset = 0;
+    }
     return buf;
   }
 
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  protected byte[][] getChunks() {
+    byte[][] result = new byte[chunks.size() + 1][];
+    chunks.toArray(result);
+    result[chunks.size()] = buf;
+    return result;
+  }
+
+  public ByteChunkPool getPool() {
+    return pool;
+  }
+
+  protected void copyTo(byte[] dest) {
+    int pos = 0;
+    for (byte[] chunk : chunks) {
+      System.arraycopy(chunk, 0, dest, pos, chunk.length);
+      pos += chunk.length;
+    }
+    System.arraycopy(buf, 0, dest, pos, count - offset);
+  }
+
+  protected void newChunk() {
+    chunks.add(buf);
+    offset += buf.length;
+    if (pool == null) {
+      buf = new byte[Math.min(Math.max(offset, 32), chunkSize)];
+    } else {
+      buf = pool.acquire();
+    }
+  }
+
+  protected void releaseChunks() {
+    if (pool != null) {
+      for (byte[] chunk : chunks) {
+        pool.release(chunk);
+      }
+    }
+    chunks.clear();
+  }
+
+  /**
+   * Discard the content and return all chunks to the {@link ByteChunkPool}.
+   * The stream remains usable.
+   */
+  public void release() {
+    chunks.add(buf);
+    releaseChunks();
+    buf = new byte[0];
+    offset = 0;
+    count = 0;
+  }
+
+  /**
+   * Discard the content. The first chunk is kept for reuse, all others are
+   * released.
+   */
   public void reset() {
+    if (!chunks.isEmpty()) {
+      byte[] first = chunks.remove(0);
+      chunks.add(buf);
+      releaseChunks();
+      buf = first;
+    }
+    offset = 0;
     count = 0;
   }
 
@@ -68,31 +223,193 @@ public class FastByteArrayOutputStream extends OutputStream {
     return count;
   }
 
+  /**
+   * A new array holding exactly the content of the stream.
+   *
+   * @return A new array holding exactly the content of the stream.
+   */
   public byte[] toByteArray() {
     byte[] result = new byte[count];
-    System.arraycopy(buf, 0, result, 0, count);
+    copyTo(result);
+    return result;
+  }
+
+  /**
+   * The content of the stream as read only {@link ByteBuffer} instances, one
+   * for each chunk. The data is not copied, the buffers are valid until
+   * {@link #reset()}.
+   *
+   * @return The content of the stream as {@link ByteBuffer} instances.
+   */
+  public ByteBuffer[] toByteBuffers() {
+    ByteBuffer[] result = new ByteBuffer[chunks.size() + 1];
+    int i = 0;
+    for (byte[] chunk : chunks) {
+      result[i++] = ByteBuffer.wrap(chunk).asReadOnlyBuffer();
+    }
+    result[i] = ByteBuffer.wrap(buf, 0, count - offset).slice()
+        .asReadOnlyBuffer();
     return result;
   }
 
   @Override
   public void write(byte[] b, int off, int len) {
-    int newcount = count + len;
-    if (newcount > buf.length) {
-      byte[] newbuf = new byte[Math.max(buf.length << 1, newcount)];
-      System.arraycopy(buf, 0, newbuf, 0, buf.length);
-      buf = newbuf;
+    if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (count + len < 0) {
+      throw new OutOfMemoryError("stream exceeds 2GB");
+    }
+    while (len > 0) {
+      int pos = count - offset;
+      if (pos == buf.length) {
+        newChunk();
+        pos = 0;
+      }
+      int n = Math.min(len, buf.length - pos);
+      System.arraycopy(b, off, buf, pos, n);
+      off += n;
+      len -= n;
+      count += n;
     }
-    System.arraycopy(b, off, buf, count, len);
-    count = newcount;
   }
 
   @Override
   public void write(int b) {
-    if (count >= buf.length) {
-      byte[] newbuf = new byte[Math.max(buf.length << 1, 1)];
-      System.arraycopy(buf, 0, newbuf, 0, buf.length);
-      buf = newbuf;
+    int pos = count - offset;
+    if (pos == buf.length) {
+      if (count == Integer.MAX_VALUE) {
+        throw new OutOfMemoryError("stream exceeds 2GB");
+      }
+      newChunk();
+      pos = 0;
+    }
+    buf[pos] = (byte) b;
+    count++;
+  }
+
+  /**
+   * Write the complete content to <code>os</code> without copying.
+   *
+   * @param os
+   * @throws IOException
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    for (byte[] chunk : chunks) {
+      os.write(chunk, 0, chunk.length);
+    }
+    os.write(buf, 0, count - offset);
+  }
+
+  /**
+   * An {@link InputStream} over a sequence of chunks.
+   */
+  static class ChunkInputStream extends InputStream {
+
+    final private byte[][] chunks;
+
+    final private int length;
+
+    private int chunkIndex;
+
+    private int chunkPos;
+
+    private int pos;
+
+    private int markChunkIndex;
+
+    private int markChunkPos;
+
+    private int markPos;
+
+    ChunkInputStream(byte[][] chunks, int length) {
+      this.chunks = chunks;
+      this.length = length;
+    }
+
+    @Override
+    public int available() {
+      return length - pos;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      markChunkIndex = chunkIndex;
+      markChunkPos = chunkPos;
+      markPos = pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized int read() {
+      if (pos >= length) {
+        return -1;
+      }
+      if (chunkPos == chunks[chunkIndex].length) {
+        chunkIndex++;
+        chunkPos = 0;
+      }
+      pos++;
+      return chunks[chunkIndex][chunkPos++] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (len == 0) {
+        return 0;
+      }
+      if (pos >= length) {
+        return -1;
+      }
+      len = Math.min(len, length - pos);
+      int total = 0;
+      while (total < len) {
+        if (chunkPos == chunks[chunkIndex].length) {
+          chunkIndex++;
+          chunkPos = 0;
+        }
+        int n = Math.min(len - total, chunks[chunkIndex].length - chunkPos);
+        System.arraycopy(chunks[chunkIndex], chunkPos, b, off + total, n);
+        chunkPos += n;
+        total += n;
+      }
+      pos += total;
+      return total;
+    }
+
+    @Override
+    public synchronized void reset() {
+      chunkIndex = markChunkIndex;
+      chunkPos = markChunkPos;
+      pos = markPos;
+    }
+
+    @Override
+    public synchronized long skip(long n) {
+      if (n <= 0) {
+        return 0;
+      }
+      long skipped = Math.min(n, length - pos);
+      long remaining = skipped;
+      while (remaining > 0) {
+        if (chunkPos == chunks[chunkIndex].length) {
+          chunkIndex++;
+          chunkPos = 0;
+        }
+        int step = (int) Math.min(remaining, chunks[chunkIndex].length
+            - chunkPos);
+        chunkPos += step;
+        remaining -= step;
+      }
+      pos += (int) skipped;
+      return skipped;
     }
-    buf[count++] = (byte) b;
   }
 }
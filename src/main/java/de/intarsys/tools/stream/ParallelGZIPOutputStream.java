@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2007, intarsys consulting GmbH
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * - Neither the name of intarsys nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific
+ *   prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.intarsys.tools.stream;
+
+import de.intarsys.tools.exception.ExceptionTools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} writing gzip compressed data, deflating blocks of
+ * the input in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Each block is compressed independently, primed with the last 32k of the
+ * previous block as dictionary, and terminated with a sync flush, so the
+ * blocks concatenate to a single deflate stream. The result is a standard
+ * gzip file readable by {@link java.util.zip.GZIPInputStream} and gzip.
+ * <p>
+ * Blocks are written in order; the number of blocks in progress is bounded
+ * to twice the parallelism.
+ * <p>
+ * This object is not thread safe.
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+  public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+
+  private static ForkJoinPool DEFAULT_POOL;
+
+  synchronized protected static ForkJoinPool getDefaultPool() {
+    if (DEFAULT_POOL == null) {
+      DEFAULT_POOL = new ForkJoinPool();
+    }
+    return DEFAULT_POOL;
+  }
+
+  /**
+   * The task compressing a single block.
+   */
+  static class BlockDeflater implements Callable<FastByteArrayOutputStream> {
+
+    final private int level;
+
+    final private byte[] input;
+
+    final private int length;
+
+    final private byte[] dictionary;
+
+    final private int dictionaryLength;
+
+    final private boolean last;
+
+    BlockDeflater(int level, byte[] input, int length, byte[] dictionary,
+                  int dictionaryLength, boolean last) {
+      this.level = level;
+      this.input = input;
+      this.length = length;
+      this.dictionary = dictionary;
+      this.dictionaryLength = dictionaryLength;
+      this.last = last;
+    }
+
+    public FastByteArrayOutputStream call() {
+      FastByteArrayOutputStream result = new FastByteArrayOutputStream(
+          length / 2 + 64, DEFAULT_BLOCK_SIZE);
+      byte[] buffer = new byte[8192];
+      Deflater deflater = new Deflater(level, true);
+      try {
+        if (dictionary != null) {
+          int dictLength = Math.min(dictionaryLength, DICTIONARY_SIZE);
+          deflater.setDictionary(dictionary, dictionaryLength - dictLength,
+              dictLength);
+        }
+        deflater.setInput(input, 0, length);
+        if (last) {
+          deflater.finish();
+          while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            result.write(buffer, 0, count);
+          }
+        } else {
+          // a sync flush is complete when the buffer is not filled
+          int count;
+          do {
+            count = deflater.deflate(buffer, 0, buffer.length,
+                Deflater.SYNC_FLUSH);
+            result.write(buffer, 0, count);
+          } while (count == buffer.length);
+        }
+      } finally {
+        deflater.end();
+      }
+      return result;
+    }
+  }
+
+  final private OutputStream out;
+
+  final private ForkJoinPool pool;
+
+  final private boolean ownPool;
+
+  final private int level;
+
+  final private int blockSize;
+
+  final private int maxPending;
+
+  final private CRC32 crc = new CRC32();
+
+  final private LinkedList<Future<FastByteArrayOutputStream>> pending = new LinkedList<Future<FastByteArrayOutputStream>>();
+
+  private long totalIn;
+
+  private byte[] block;
+
+  private int blockCount;
+
+  /**
+   * The previous block, the dictionary for the next block
+   */
+  private byte[] previous;
+
+  private int previousCount;
+
+  private boolean closed;
+
+  public ParallelGZIPOutputStream(OutputStream out) throws IOException {
+    this(out, Deflater.DEFAULT_COMPRESSION, 0);
+  }
+
+  /**
+   * Create a stream compressing with <code>level</code>, using at most
+   * <code>parallelism</code> threads. With a parallelism of 0 or less a
+   * shared pool with one thread per processor is used.
+   *
+   * @param out
+   * @param level
+   * @param parallelism
+   * @throws IOException
+   */
+  public ParallelGZIPOutputStream(OutputStream out, int level, int parallelism)
+      throws IOException {
+    this(out, level, parallelism <= 0 ? getDefaultPool() : new ForkJoinPool(
+        parallelism), parallelism > 0, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Create a stream compressing with <code>level</code> on <code>pool</code>.
+   * The pool is not shut down when the stream is closed.
+   *
+   * @param out
+   * @param level
+   * @param pool
+   * @param blockSize
+   * @throws IOException
+   */
+  public ParallelGZIPOutputStream(OutputStream out, int level,
+                                  ForkJoinPool pool, int blockSize) throws IOException {
+    this(out, level, pool, false, blockSize);
+  }
+
+  protected ParallelGZIPOutputStream(OutputStream out, int level,
+                                     ForkJoinPool pool, boolean ownPool, int blockSize)
+      throws IOException {
+    if (level != Deflater.DEFAULT_COMPRESSION
+        && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("invalid compression level "
+          + level);
+    }
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("block size must be positive");
+    }
+    this.out = out;
+    this.level = level;
+    this.pool = pool;
+    this.ownPool = ownPool;
+    this.blockSize = blockSize;
+    this.maxPending = pool.getParallelism() * 2;
+    this.block = new byte[blockSize];
+    writeHeader();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.io.OutputStream#close()
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      finish();
+    } finally {
+      closed = true;
+      if (ownPool) {
+        pool.shutdown();
+      }
+      out.close();
+    }
+  }
+
+  /**
+   * Write all remaining data and the gzip trailer without closing the
+   * underlying stream.
+   *
+   * @throws IOException
+   */
+  public void finish() throws IOException {
+    if (closed || block == null) {
+      return;
+    }
+    submitBlock(true);
+    block = null;
+    writePending(0);
+    writeInt((int) crc.getValue());
+    writeInt((int) totalIn);
+    out.flush();
+  }
+
+  /**
+   * Compress the data written so far and flush it to the underlying stream.
+   * This ends the current block early and slightly reduces compression.
+   *
+   * @see java.io.OutputStream#flush()
+   */
+  @Override
+  public void flush() throws IOException {
+    if (block != null && blockCount > 0) {
+      submitBlock(false);
+    }
+    writePending(0);
+    out.flush();
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  protected void submitBlock(boolean last) {
+    pending.add(pool.submit(new BlockDeflater(level, block, blockCount,
+        previous, previousCount, last)));
+    previous = block;
+    previousCount = blockCount;
+    // the task still uses the block
+    block = new byte[blockSize];
+    blockCount = 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.io.OutputStream#write(byte[], int, int)
+   */
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (block == null) {
+      throw new IOException("stream finished");
+    }
+    if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    crc.update(b, off, len);
+    totalIn += len;
+    while (len > 0) {
+      int count = Math.min(len, blockSize - blockCount);
+      System.arraycopy(b, off, block, blockCount, count);
+      blockCount += count;
+      off += count;
+      len -= count;
+      if (blockCount == blockSize) {
+        submitBlock(false);
+        writePending(maxPending);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.io.OutputStream#write(int)
+   */
+  @Override
+  public void write(int b) throws IOException {
+    if (block == null) {
+      throw new IOException("stream finished");
+    }
+    crc.update(b);
+    totalIn++;
+    block[blockCount++] = (byte) b;
+    if (blockCount == blockSize) {
+      submitBlock(false);
+      writePending(maxPending);
+    }
+  }
+
+  protected void writeHeader() throws IOException {
+    out.write(new byte[]{(byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8),
+        Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0});
+  }
+
+  protected void writeInt(int i) throws IOException {
+    out.write(i & 0xff);
+    out.write((i >> 8) & 0xff);
+    out.write((i >> 16) & 0xff);
+    out.write((i >> 24) & 0xff);
+  }
+
+  /**
+   * Write completed blocks in order until at most <code>max</code> blocks
+   * are in progress.
+   */
+  protected void writePending(int max) throws IOException {
+    while (pending.size() > max) {
+      Future<FastByteArrayOutputStream> future = pending.removeFirst();
+      FastByteArrayOutputStream compressed;
+      try {
+        compressed = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw ExceptionTools.createIOException("compression interrupted", e);
+      } catch (ExecutionException e) {
+        throw ExceptionTools.createIOException("compression failed ("
+            + e.getCause().getMessage() + ")", e.getCause());
+      }
+      compressed.writeTo(out);
+    }
+  }
+}
@@ -32,8 +32,8 @@ package de.intarsys.tools.stream;
 import de.intarsys.tools.exception.ExceptionTools;
 import de.intarsys.tools.randomaccess.IRandomAccess;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -43,6 +43,11 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A tool class for the handling of streams.
@@ -51,6 +56,73 @@ public class StreamTools {
   //
   public static final int MAX_BUFFER = 100000;
 
+  /**
+   * Copy buffers for reuse, one per thread. A buffer is removed while in use,
+   * so nested copies on the same thread allocate their own. The buffers are
+   * softly referenced and may be reclaimed when memory is low.
+   */
+  private static final ThreadLocal<SoftReference<byte[]>> BYTE_BUFFERS = new ThreadLocal<SoftReference<byte[]>>();
+
+  private static final ThreadLocal<SoftReference<char[]>> CHAR_BUFFERS = new ThreadLocal<SoftReference<char[]>>();
+
+  /**
+   * Borrow a byte buffer of {@link #MAX_BUFFER} bytes. The buffer must be
+   * returned using {@link #releaseByteBuffer(byte[])}.
+   *
+   * @return A byte buffer of {@link #MAX_BUFFER} bytes.
+   */
+  public static byte[] acquireByteBuffer() {
+    SoftReference<byte[]> ref = BYTE_BUFFERS.get();
+    if (ref != null) {
+      byte[] buffer = ref.get();
+      BYTE_BUFFERS.set(null);
+      if (buffer != null) {
+        return buffer;
+      }
+    }
+    return new byte[MAX_BUFFER];
+  }
+
+  /**
+   * Borrow a char buffer of {@link #MAX_BUFFER} chars. The buffer must be
+   * returned using {@link #releaseCharBuffer(char[])}.
+   *
+   * @return A char buffer of {@link #MAX_BUFFER} chars.
+   */
+  public static char[] acquireCharBuffer() {
+    SoftReference<char[]> ref = CHAR_BUFFERS.get();
+    if (ref != null) {
+      char[] buffer = ref.get();
+      CHAR_BUFFERS.set(null);
+      if (buffer != null) {
+        return buffer;
+      }
+    }
+    return new char[MAX_BUFFER];
+  }
+
+  /**
+   * Return a buffer acquired via {@link #acquireByteBuffer()}.
+   *
+   * @param buffer
+   */
+  public static void releaseByteBuffer(byte[] buffer) {
+    if (buffer != null && buffer.length == MAX_BUFFER) {
+      BYTE_BUFFERS.set(new SoftReference<byte[]>(buffer));
+    }
+  }
+
+  /**
+   * Return a buffer acquired via {@link #acquireCharBuffer()}.
+   *
+   * @param buffer
+   */
+  public static void releaseCharBuffer(char[] buffer) {
+    if (buffer != null && buffer.length == MAX_BUFFER) {
+      CHAR_BUFFERS.set(new SoftReference<char[]>(buffer));
+    }
+  }
+
   private StreamTools() {
     super();
   }
@@ -117,8 +189,8 @@ public class StreamTools {
 
   public static void copyEncoded(Reader reader, boolean closeInput,
                                  Writer writer, boolean closeOutput) throws IOException {
+    char[] c = acquireCharBuffer();
     try {
-      char[] c = new char[MAX_BUFFER];
       for (int i = reader.read(c); i != -1; ) {
         writer.write(c, 0, i);
         i = reader.read(c);
@@ -128,6 +200,7 @@ public class StreamTools {
     } catch (Exception e) {
       throw new IOException("copying failed (" + e.getMessage() + ")");
     } finally {
+      releaseCharBuffer(c);
       if (closeInput) {
         StreamTools.close(reader);
       }
@@ -148,13 +221,14 @@ public class StreamTools {
     if ((sourceEncoding == null) | (destinationEncoding == null)
         | sourceEncoding.equals(destinationEncoding)) {
       copyStream(source, false, destination, false);
+      return;
     }
     InputStreamReader reader = null;
     OutputStreamWriter writer = null;
+    char[] c = acquireCharBuffer();
     try {
       reader = new InputStreamReader(source, sourceEncoding);
       writer = new OutputStreamWriter(destination, destinationEncoding);
-      char[] c = new char[MAX_BUFFER];
       for (int i = reader.read(c); i != -1; ) {
         writer.write(c, 0, i);
         i = reader.read(c);
@@ -164,6 +238,7 @@ public class StreamTools {
     } catch (Exception e) {
       throw new IOException("copying failed (" + e.getMessage() + ")");
     } finally {
+      releaseCharBuffer(c);
       /*
 			 * do not close try { reader.close(); } catch (Exception ignore) { }
 			 * try { writer.close(); } catch (Exception ignore) { }
@@ -187,8 +262,17 @@ public class StreamTools {
    */
   public static void copyStream(InputStream source, boolean closeInput,
                                 OutputStream destination, boolean closeOutput) throws IOException {
+    byte[] b = null;
     try {
-      byte[] b = new byte[MAX_BUFFER];
+      if (source.getClass() == FileInputStream.class
+          && destination.getClass() == FileOutputStream.class) {
+        // let the kernel copy; anything beyond the size, e.g. from a
+        // pipe, is copied below. Subclasses may override read or write and
+        // are copied as usual.
+        transferFile(((FileInputStream) source).getChannel(),
+            ((FileOutputStream) destination).getChannel());
+      }
+      b = acquireByteBuffer();
       for (int i = source.read(b); i != -1; ) {
         destination.write(b, 0, i);
         i = source.read(b);
@@ -199,6 +283,7 @@ public class StreamTools {
       throw ExceptionTools.createIOException(
           "copying failed (" + e.getMessage() + ")", e);
     } finally {
+      releaseByteBuffer(b);
       if (closeInput) {
         StreamTools.close(source);
       }
@@ -208,6 +293,54 @@ public class StreamTools {
     }
   }
 
+  /**
+   * Copy all bytes from <code>source</code> to <code>destination</code>.
+   * Channels are not closed.
+   * <p>
+   * If one of the channels is a {@link FileChannel}, the copy is performed
+   * via {@link FileChannel#transferTo(long, long, WritableByteChannel)} or
+   * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.
+   *
+   * @param source
+   * @param destination
+   * @return The number of bytes copied.
+   * @throws IOException
+   */
+  public static long copyChannel(ReadableByteChannel source,
+                                 WritableByteChannel destination) throws IOException {
+    long total = 0;
+    if (source instanceof FileChannel) {
+      total = transferFile((FileChannel) source, destination);
+    } else if (destination instanceof FileChannel) {
+      FileChannel out = (FileChannel) destination;
+      long position = out.position();
+      while (true) {
+        long count = out.transferFrom(source, position, MAX_BUFFER);
+        if (count <= 0) {
+          break;
+        }
+        position += count;
+        total += count;
+      }
+      out.position(position);
+      // transferFrom may stop early on non blocking sources, finish below
+    }
+    byte[] b = acquireByteBuffer();
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(b);
+      while (source.read(buffer) != -1) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          total += destination.write(buffer);
+        }
+        buffer.clear();
+      }
+    } finally {
+      releaseByteBuffer(b);
+    }
+    return total;
+  }
+
   /**
    * Kopiert einen Stream. Ruft copyStream(in, true, out, true) auf.
    *
@@ -230,9 +363,71 @@ public class StreamTools {
    * @throws IOException
    */
   public static byte[] getBytes(InputStream is) throws IOException {
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    copyStream(is, os);
-    return os.toByteArray();
+    int sizeHint = 0;
+    try {
+      if (is.getClass() == FileInputStream.class) {
+        FileChannel channel = ((FileInputStream) is).getChannel();
+        long remaining = channel.size() - channel.position();
+        if (remaining > 0 && remaining < Integer.MAX_VALUE) {
+          sizeHint = (int) remaining;
+        }
+      } else {
+        sizeHint = is.available();
+      }
+    } catch (IOException e) {
+      // no hint
+    }
+    return getBytes(is, sizeHint);
+  }
+
+  /**
+   * The complete content of the {@link InputStream} as a byte array. The
+   * input stream is closed.
+   * <p>
+   * If the stream contains exactly <code>sizeHint</code> bytes, they are
+   * read into the result directly, without intermediate buffers.
+   *
+   * @param is
+   * @param sizeHint The expected number of bytes in the stream.
+   * @return The complete content of the {@link InputStream} as a byte array.
+   * @throws IOException
+   */
+  public static byte[] getBytes(InputStream is, int sizeHint)
+      throws IOException {
+    if (sizeHint <= 0) {
+      FastByteArrayOutputStream os = new FastByteArrayOutputStream(4096);
+      copyStream(is, os);
+      return os.toByteArray();
+    }
+    try {
+      byte[] result = new byte[sizeHint];
+      int count = 0;
+      while (count < result.length) {
+        int read = is.read(result, count, result.length - count);
+        if (read == -1) {
+          break;
+        }
+        count += read;
+      }
+      if (count < result.length) {
+        byte[] shortResult = new byte[count];
+        System.arraycopy(result, 0, shortResult, 0, count);
+        return shortResult;
+      }
+      int next = is.read();
+      if (next == -1) {
+        return result;
+      }
+      // hint was too small
+      FastByteArrayOutputStream os = new FastByteArrayOutputStream(
+          result.length * 2);
+      os.write(result, 0, result.length);
+      os.write(next);
+      copyStream(is, false, os, false);
+      return os.toByteArray();
+    } finally {
+      StreamTools.close(is);
+    }
   }
 
   /**
@@ -244,8 +439,11 @@ public class StreamTools {
    */
   public static void putBytes(OutputStream os, byte[] bytes)
       throws IOException {
-    ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-    copyStream(is, os);
+    try {
+      os.write(bytes);
+    } finally {
+      StreamTools.close(os);
+    }
   }
 
   /**
@@ -273,12 +471,32 @@ public class StreamTools {
    */
   public static String toString(InputStream is, String encoding)
       throws IOException {
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    copyStream(is, os);
+    byte[] bytes = getBytes(is);
     if (encoding == null) {
       encoding = System.getProperty("file.encoding");
     }
-    return os.toString(encoding);
+    return new String(bytes, encoding);
+  }
+
+  /**
+   * Transfer the remaining bytes of <code>source</code> via
+   * {@link FileChannel#transferTo(long, long, WritableByteChannel)} and
+   * advance its position.
+   */
+  protected static long transferFile(FileChannel source,
+                                     WritableByteChannel destination) throws IOException {
+    long position = source.position();
+    long start = position;
+    long size = source.size();
+    while (position < size) {
+      long count = source.transferTo(position, size - position, destination);
+      if (count <= 0) {
+        break;
+      }
+      position += count;
+    }
+    source.position(position);
+    return position - start;
   }
 
   /**
@@ -35,19 +35,44 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * A stream wrapper that defers writing to the final destination until the
  * stream is closed. The output is written to a temporary file in the
- * destinations directory. When the stream is closed, the temp file is copied to
- * the destination and deleted.
+ * destinations directory. When the stream is closed, the temp file is moved to
+ * the destination, replacing it atomically where the file system supports it.
+ * If the move fails, the temp file is copied to the destination and deleted.
+ * <p>
+ * With a threshold greater than 0, the output is buffered in memory and the
+ * temp file is created only when the threshold is exceeded or the stream is
+ * closed.
  */
 public class TempFileOutputStream extends OutputStream {
+
+  public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
   /**
    * The final destination for the output
    */
   private File destination;
 
+  private final String prefix;
+
+  private final String suffix;
+
+  /**
+   * The number of bytes buffered in memory before spilling to the temp file.
+   */
+  private final int threshold;
+
+  /**
+   * The memory buffer, null after spilling to the temp file.
+   */
+  private FastByteArrayOutputStream memoryOutput;
+
   /**
    * The temporary file to use.
    */
@@ -58,17 +83,44 @@ public class TempFileOutputStream extends OutputStream {
    */
   private FileOutputStream tempOutput;
 
+  /**
+   * Flag if the temp file is forced to the storage device before it is
+   * moved to the destination.
+   */
+  private boolean syncOnCommit = false;
+
+  private boolean closed = false;
+
   public TempFileOutputStream(File destination) throws IOException {
     this(destination, "tmp", "tmp");
   }
 
   public TempFileOutputStream(File destination, String prefix, String suffix)
       throws IOException {
+    this(destination, prefix, suffix, 0);
+  }
+
+  /**
+   * @param destination The final destination for the output
+   * @param prefix      The prefix of the temp file name
+   * @param suffix      The suffix of the temp file name
+   * @param threshold   The number of bytes buffered in memory before the temp
+   *                    file is created. With 0 the temp file is created
+   *                    immediately.
+   * @throws IOException
+   */
+  public TempFileOutputStream(File destination, String prefix, String suffix,
+                              int threshold) throws IOException {
     super();
     this.destination = destination;
-    tempFile = File.createTempFile(prefix, suffix,
-        destination.getParentFile());
-    tempOutput = new FileOutputStream(tempFile);
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.threshold = threshold;
+    if (threshold > 0) {
+      memoryOutput = new FastByteArrayOutputStream(Math.min(threshold, 8192));
+    } else {
+      createTempOutput();
+    }
   }
 
   /*
@@ -78,15 +130,55 @@ public class TempFileOutputStream extends OutputStream {
    */
   @Override
   public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
     super.close();
     try {
-      tempOutput.close();
-      FileTools.copyBinaryFile(tempFile, destination);
+      if (memoryOutput != null) {
+        spill();
+      }
+      try {
+        if (isSyncOnCommit()) {
+          tempOutput.flush();
+          tempOutput.getFD().sync();
+        }
+      } finally {
+        tempOutput.close();
+      }
+      commit();
     } finally {
-      tempFile.delete();
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  /**
+   * Move the temp file to the destination.
+   */
+  protected void commit() throws IOException {
+    try {
+      try {
+        Files.move(tempFile.toPath(), destination.toPath(),
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), destination.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      FileTools.copyBinaryFile(tempFile, destination);
     }
   }
 
+  protected void createTempOutput() throws IOException {
+    tempFile = File.createTempFile(prefix, suffix,
+        destination.getParentFile());
+    tempOutput = new FileOutputStream(tempFile);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -94,7 +186,51 @@ public class TempFileOutputStream extends OutputStream {
    */
   @Override
   public void flush() throws IOException {
-    tempOutput.flush();
+    if (tempOutput != null) {
+      tempOutput.flush();
+    }
+  }
+
+  public File getDestination() {
+    return destination;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * <code>true</code> if the output is still buffered in memory.
+   *
+   * @return <code>true</code> if the output is still buffered in memory.
+   */
+  public boolean isInMemory() {
+    return memoryOutput != null;
+  }
+
+  public boolean isSyncOnCommit() {
+    return syncOnCommit;
+  }
+
+  /**
+   * Force the temp file to the storage device before it is moved to the
+   * destination.
+   *
+   * @param syncOnCommit
+   */
+  public void setSyncOnCommit(boolean syncOnCommit) {
+    this.syncOnCommit = syncOnCommit;
+  }
+
+  /**
+   * Write the memory buffer to the temp file and continue writing there.
+   *
+   * @throws IOException
+   */
+  protected void spill() throws IOException {
+    createTempOutput();
+    memoryOutput.writeTo(tempOutput);
+    memoryOutput = null;
   }
 
   /*
@@ -104,7 +240,7 @@ public class TempFileOutputStream extends OutputStream {
    */
   @Override
   public void write(byte[] b) throws IOException {
-    tempOutput.write(b);
+    write(b, 0, b.length);
   }
 
   /*
@@ -114,6 +250,13 @@ public class TempFileOutputStream extends OutputStream {
    */
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
+    if (memoryOutput != null) {
+      if (memoryOutput.size() + len <= threshold) {
+        memoryOutput.write(b, off, len);
+        return;
+      }
+      spill();
+    }
     tempOutput.write(b, off, len);
   }
 
@@ -124,6 +267,13 @@ public class TempFileOutputStream extends OutputStream {
    */
   @Override
   public void write(int b) throws IOException {
+    if (memoryOutput != null) {
+      if (memoryOutput.size() < threshold) {
+        memoryOutput.write(b);
+        return;
+      }
+      spill();
+    }
     tempOutput.write(b);
   }
 }
@@ -29,6 +29,7 @@
  */
 package de.intarsys.tools.string;
 
+import de.intarsys.tools.collection.IntArrayList;
 import de.intarsys.tools.encoding.Base64;
 import de.intarsys.tools.file.FileTools;
 import de.intarsys.tools.hex.HexTools;
@@ -43,7 +44,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 /**
  * Simple string conversion utilities;
@@ -186,15 +186,20 @@ public class Converter {
     if (value == null) {
       return null;
     }
-    StringTokenizer tk = new StringTokenizer(value, ELEMENT_SEPARATOR,
-        false);
-    float[] result = new float[tk.countTokens()];
+    float[] result = new float[countElements(value)];
+    int length = value.length();
+    int start = 0;
     int i = 0;
     try {
-      while (tk.hasMoreTokens()) {
-        String token = tk.nextToken();
-        result[i] = Float.parseFloat(token.trim());
-        i++;
+      while (start < length) {
+        int end = value.indexOf(ELEMENT_SEPARATOR, start);
+        if (end < 0) {
+          end = length;
+        }
+        if (end > start) {
+          result[i++] = Float.parseFloat(value.substring(start, end).trim());
+        }
+        start = end + 1;
       }
     } catch (NumberFormatException e) {
       return null;
@@ -214,20 +219,24 @@ public class Converter {
     if (value == null) {
       return null;
     }
-    StringTokenizer tk = new StringTokenizer(value, ELEMENT_SEPARATOR,
-        false);
-    int[] result = new int[tk.countTokens()];
-    int i = 0;
+    IntArrayList result = new IntArrayList();
+    int length = value.length();
+    int start = 0;
     try {
-      while (tk.hasMoreTokens()) {
-        String token = tk.nextToken();
-        result[i] = Integer.parseInt(token.trim());
-        i++;
+      while (start < length) {
+        int end = value.indexOf(ELEMENT_SEPARATOR, start);
+        if (end < 0) {
+          end = length;
+        }
+        if (end > start) {
+          result.add(parseInt(value, start, end));
+        }
+        start = end + 1;
       }
     } catch (NumberFormatException e) {
       return null;
     }
-    return result;
+    return result.toArray();
   }
 
   public static int asInteger(String str) throws ConverterException {
@@ -402,4 +411,71 @@ public class Converter {
     }
   }
 
+
+  /**
+   * The number of non empty elements separated by {@link #ELEMENT_SEPARATOR}
+   * in <code>value</code>.
+   */
+  protected static int countElements(String value) {
+    int count = 0;
+    int length = value.length();
+    int start = 0;
+    while (start < length) {
+      int end = value.indexOf(ELEMENT_SEPARATOR, start);
+      if (end < 0) {
+        end = length;
+      }
+      if (end > start) {
+        count++;
+      }
+      start = end + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Parse the decimal integer in <code>value</code> between
+   * <code>start</code> and <code>end</code>, ignoring leading and trailing
+   * whitespace. This is like {@link Integer#parseInt(String)} without
+   * creating a substring.
+   */
+  protected static int parseInt(String value, int start, int end)
+      throws NumberFormatException {
+    while (start < end && value.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && value.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start == end) {
+      throw new NumberFormatException("For input string: \"\"");
+    }
+    boolean negative = false;
+    int limit = -Integer.MAX_VALUE;
+    int i = start;
+    char first = value.charAt(i);
+    if (first == '-' || first == '+') {
+      if (first == '-') {
+        negative = true;
+        limit = Integer.MIN_VALUE;
+      }
+      i++;
+      if (i == end) {
+        throw new NumberFormatException("For input string: \""
+            + value.substring(start, end) + "\"");
+      }
+    }
+    // accumulate negatively to support Integer.MIN_VALUE
+    int result = 0;
+    for (; i < end; i++) {
+      int digit = Character.digit(value.charAt(i), 10);
+      if (digit < 0 || result < (limit / 10)
+          || (result * 10) < limit + digit) {
+        throw new NumberFormatException("For input string: \""
+            + value.substring(start, end) + "\"");
+      }
+      result = result * 10 - digit;
+    }
+    return negative ? result : -result;
+  }
 }
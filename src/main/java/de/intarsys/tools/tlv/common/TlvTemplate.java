@@ -1,6 +1,7 @@
 package de.intarsys.tools.tlv.common;
 
-import java.io.ByteArrayOutputStream;
+import de.intarsys.tools.stream.FastByteArrayOutputStream;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -56,7 +57,7 @@ public class TlvTemplate implements Iterable<TlvElement> {
   }
 
   public byte[] getEncoded() {
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    FastByteArrayOutputStream os = new FastByteArrayOutputStream();
     for (TlvElement element : elements) {
       try {
         os.write(element.getEncoded());